@@ -0,0 +1,107 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+
+/**
+ * Measures the memory allocated by <tt>put</tt>, both when it only replaces values and
+ * when it has to grow the map.
+ * <p>
+ * Meant to be run with the GC profiler (which {@link #main(String[])} enables), whose
+ * <tt>gc.alloc.rate.norm</tt> metric reports the bytes allocated per operation.
+ * Keys and values are boxed up front so that only the allocations made by the maps are
+ * measured.
+ */
+@State(Scope.Thread)
+public class JMHAllocation {
+  private static final int SIZE = 1 << 16;
+
+  private final Integer[] keys = new Integer[SIZE];
+  private CuckooHashMap<Integer, Integer> cuckooHashMap = new CuckooHashMap<>();
+  private HashMap<Integer, Integer> hashMap = new HashMap<>();
+  private int counter = 0;
+
+  @Setup(Level.Trial)
+  public void setupKeys() {
+    for (int i = 0; i < SIZE; i++) {
+      keys[i] = i;
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    counter = 0;
+    cuckooHashMap.clear();
+    hashMap.clear();
+    for (int i = 0; i < SIZE; i++) {
+      cuckooHashMap.put(keys[i], keys[i]);
+      hashMap.put(keys[i], keys[i]);
+    }
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer measureReplaceCuckooHashMap() {
+    final Integer key = keys[counter++ & (SIZE - 1)];
+    return cuckooHashMap.put(key, key);
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer measureReplaceHashMap() {
+    final Integer key = keys[counter++ & (SIZE - 1)];
+    return hashMap.put(key, key);
+  }
+
+  /**
+   * Fills a new map from scratch so that every <tt>grow()</tt> and the displacements
+   * are part of the measurement.
+   */
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Fork(1)
+  public CuckooHashMap<Integer, Integer> measureFillCuckooHashMap() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < SIZE; i++) {
+      m.put(keys[i], keys[i]);
+    }
+    return m;
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Fork(1)
+  public HashMap<Integer, Integer> measureFillHashMap() {
+    HashMap<Integer, Integer> m = new HashMap<>();
+    for (int i = 0; i < SIZE; i++) {
+      m.put(keys[i], keys[i]);
+    }
+    return m;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + JMHAllocation.class.getSimpleName() + ".*")
+        .addProfiler(GCProfiler.class)
+        .forks(1)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,82 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Time taken to build a map of 4M mappings by adding them one by one, with
+ * <tt>putAll</tt>, and with <tt>CuckooHashMap.bulkLoad</tt> running on pools of
+ * increasing parallelism.
+ */
+@State(Scope.Benchmark)
+public class JMHBulkLoad {
+  private static final int SIZE = 1 << 22;
+
+  @Param({"1", "2", "4", "8"})
+  public int parallelism;
+
+  private final Map<Integer, Integer> mappings = new HashMap<>();
+  private ForkJoinPool pool;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    for (int i = 0; i < SIZE; i++) {
+      mappings.put(i, i);
+    }
+    pool = new ForkJoinPool(parallelism);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  @Warmup(iterations = 4)
+  @Measurement(iterations = 8)
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Fork(1)
+  public CuckooHashMap<Integer, Integer> measurePut() {
+    final CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    for (Map.Entry<Integer, Integer> entry : mappings.entrySet()) {
+      m.put(entry.getKey(), entry.getValue());
+    }
+    return m;
+  }
+
+  @Benchmark
+  @Warmup(iterations = 4)
+  @Measurement(iterations = 8)
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Fork(1)
+  public CuckooHashMap<Integer, Integer> measurePutAll() {
+    final CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    m.putAll(mappings);
+    return m;
+  }
+
+  @Benchmark
+  @Warmup(iterations = 4)
+  @Measurement(iterations = 8)
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Fork(1)
+  public CuckooHashMap<Integer, Integer> measureBulkLoad() {
+    return CuckooHashMap.bulkLoad(mappings, 0.45f, 1, pool);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + JMHBulkLoad.class.getSimpleName() + ".*")
+        .forks(1)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
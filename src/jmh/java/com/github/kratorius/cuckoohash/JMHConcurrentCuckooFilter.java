@@ -0,0 +1,146 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Throughput of <tt>ConcurrentCuckooFilter</tt> against a <tt>CuckooFilter</tt> behind a
+ * single lock, with filters shared by all the benchmark threads.
+ * <p>
+ * The <tt>ingest</tt> group only writes, each thread adding an item and deleting it
+ * again so that the load of the filter stays the same. The <tt>readMostly</tt> group
+ * runs one writer for every seven readers.
+ */
+@State(Scope.Group)
+public class JMHConcurrentCuckooFilter {
+  private static final int SIZE = 1 << 20;
+
+  /**
+   * The operations shared by the two filters.
+   */
+  private interface Filter {
+    boolean add(Integer item);
+
+    boolean mightContain(Integer item);
+
+    boolean delete(Integer item);
+  }
+
+  private static final class SynchronizedFilter implements Filter {
+    private final CuckooFilter<Integer> filter = new CuckooFilter<>(2 * SIZE);
+
+    @Override
+    public synchronized boolean add(Integer item) {
+      return filter.add(item);
+    }
+
+    @Override
+    public synchronized boolean mightContain(Integer item) {
+      return filter.mightContain(item);
+    }
+
+    @Override
+    public synchronized boolean delete(Integer item) {
+      return filter.delete(item);
+    }
+  }
+
+  private static final class ConcurrentFilter implements Filter {
+    private final ConcurrentCuckooFilter<Integer> filter = new ConcurrentCuckooFilter<>(2 * SIZE);
+
+    @Override
+    public boolean add(Integer item) {
+      return filter.add(item);
+    }
+
+    @Override
+    public boolean mightContain(Integer item) {
+      return filter.mightContain(item);
+    }
+
+    @Override
+    public boolean delete(Integer item) {
+      return filter.delete(item);
+    }
+  }
+
+  @Param({"ConcurrentCuckooFilter", "SynchronizedCuckooFilter"})
+  public String implementation;
+
+  private Filter filter;
+  private Integer[] keys;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    filter = "SynchronizedCuckooFilter".equals(implementation)
+        ? new SynchronizedFilter()
+        : new ConcurrentFilter();
+
+    keys = new Integer[2 * SIZE];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = i;
+    }
+    for (int i = 0; i < SIZE; i++) {
+      filter.add(keys[i]);
+    }
+  }
+
+  private Integer randomKey() {
+    return keys[ThreadLocalRandom.current().nextInt(SIZE)];
+  }
+
+  private Integer randomNewKey() {
+    return keys[SIZE + ThreadLocalRandom.current().nextInt(SIZE)];
+  }
+
+  @Benchmark
+  @Group("ingest")
+  @GroupThreads(8)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public boolean measureAdd() {
+    final Integer key = randomNewKey();
+    filter.add(key);
+    return filter.delete(key);
+  }
+
+  @Benchmark
+  @Group("readMostly")
+  @GroupThreads(7)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public boolean measureMixedMightContain() {
+    return filter.mightContain(randomKey());
+  }
+
+  @Benchmark
+  @Group("readMostly")
+  @GroupThreads(1)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public boolean measureMixedAdd() {
+    final Integer key = randomNewKey();
+    filter.add(key);
+    return filter.delete(key);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + JMHConcurrentCuckooFilter.class.getSimpleName() + ".*")
+        .forks(1)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
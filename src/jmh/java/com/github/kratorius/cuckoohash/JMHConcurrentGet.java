@@ -0,0 +1,89 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Read-heavy throughput of <tt>ConcurrentCuckooHashMap</tt> against
+ * <tt>ConcurrentHashMap</tt>, with maps shared by all the benchmark threads.
+ * <p>
+ * The <tt>readOnly</tt> group only reads, the <tt>readMostly</tt> group runs one writer
+ * for every seven readers.
+ */
+@State(Scope.Group)
+public class JMHConcurrentGet {
+  private static final int SIZE = 1 << 20;
+
+  @Param({"ConcurrentCuckooHashMap", "ConcurrentHashMap"})
+  public String implementation;
+
+  private Map<Integer, Integer> map;
+  private Integer[] keys;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    map = "ConcurrentHashMap".equals(implementation)
+        ? new ConcurrentHashMap<>()
+        : new ConcurrentCuckooHashMap<>();
+
+    keys = new Integer[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      keys[i] = i;
+      map.put(keys[i], keys[i]);
+    }
+  }
+
+  private Integer randomKey() {
+    return keys[ThreadLocalRandom.current().nextInt(SIZE)];
+  }
+
+  @Benchmark
+  @Group("readOnly")
+  @GroupThreads(8)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer measureGet() {
+    return map.get(randomKey());
+  }
+
+  @Benchmark
+  @Group("readMostly")
+  @GroupThreads(7)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer measureMixedGet() {
+    return map.get(randomKey());
+  }
+
+  @Benchmark
+  @Group("readMostly")
+  @GroupThreads(1)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer measureMixedPut() {
+    final Integer key = randomKey();
+    return map.put(key, key);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + JMHConcurrentGet.class.getSimpleName() + ".*")
+        .forks(1)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
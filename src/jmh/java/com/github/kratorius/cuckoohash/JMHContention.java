@@ -0,0 +1,231 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Throughput of maps shared by many threads, to compare the ways of sharing a
+ * <tt>CuckooHashMap</tt> (<tt>Collections.synchronizedMap()</tt> and a
+ * {@link ReadWriteLockMap}) with <tt>ConcurrentHashMap</tt> and
+ * <tt>ConcurrentCuckooHashMap</tt>.
+ * <p>
+ * Each group runs dedicated reader threads, looking up random keys, and writer threads,
+ * replacing random keys by removing them and adding them back so that the size of the
+ * map stays the same. The annotations give the default mix of each group, from
+ * <tt>readOnly</tt> to <tt>writeHeavy</tt>. {@link #main(String[])} runs every group
+ * with 1 to 64 threads keeping the same mix, and prints the throughput of each group and
+ * of each of its threads.
+ */
+@State(Scope.Benchmark)
+public class JMHContention {
+  private static final int SIZE = 1 << 20;
+  private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+  @Param({"synchronizedMap", "ReadWriteLock", "ConcurrentHashMap", "ConcurrentCuckooHashMap"})
+  public String implementation;
+
+  private Map<Integer, Integer> map;
+  private Integer[] keys;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    switch (implementation) {
+      case "synchronizedMap":
+        map = Collections.synchronizedMap(new CuckooHashMap<>());
+        break;
+      case "ReadWriteLock":
+        map = new ReadWriteLockMap<>(new CuckooHashMap<>());
+        break;
+      case "ConcurrentHashMap":
+        map = new ConcurrentHashMap<>();
+        break;
+      case "ConcurrentCuckooHashMap":
+        map = new ConcurrentCuckooHashMap<>();
+        break;
+      default:
+        throw new IllegalArgumentException("unknown implementation " + implementation);
+    }
+
+    keys = new Integer[SIZE];
+    for (int i = 0; i < SIZE; i++) {
+      keys[i] = i;
+      map.put(keys[i], keys[i]);
+    }
+  }
+
+  private Integer randomKey() {
+    return keys[ThreadLocalRandom.current().nextInt(SIZE)];
+  }
+
+  private Integer read() {
+    return map.get(randomKey());
+  }
+
+  private Integer write() {
+    final Integer key = randomKey();
+    map.remove(key);
+    return map.put(key, key);
+  }
+
+  @Benchmark
+  @Group("readOnly")
+  @GroupThreads(8)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer readOnlyRead() {
+    return read();
+  }
+
+  @Benchmark
+  @Group("readHeavy")
+  @GroupThreads(7)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer readHeavyRead() {
+    return read();
+  }
+
+  @Benchmark
+  @Group("readHeavy")
+  @GroupThreads(1)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer readHeavyWrite() {
+    return write();
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(4)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer mixedRead() {
+    return read();
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(4)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer mixedWrite() {
+    return write();
+  }
+
+  @Benchmark
+  @Group("writeHeavy")
+  @GroupThreads(2)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer writeHeavyRead() {
+    return read();
+  }
+
+  @Benchmark
+  @Group("writeHeavy")
+  @GroupThreads(6)
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer writeHeavyWrite() {
+    return write();
+  }
+
+  /**
+   * @return the number of reader and writer threads of <tt>group</tt> with
+   * <tt>threads</tt> threads in total, or <code>null</code> if the group needs more
+   * threads than that. Readers come first, like the methods of each group in
+   * alphabetical order.
+   */
+  private static int[] threadGroups(String group, int threads) {
+    final int writers;
+    switch (group) {
+      case "readOnly":
+        return new int[] {threads};
+      case "readHeavy":
+        writers = Math.max(1, threads / 8);
+        break;
+      case "mixed":
+        writers = threads / 2;
+        break;
+      case "writeHeavy":
+        writers = threads - Math.max(1, threads / 4);
+        break;
+      default:
+        throw new IllegalArgumentException("unknown group " + group);
+    }
+    return threads < 2 ? null : new int[] {threads - writers, writers};
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    final File results = new File("build/reports/jmh");
+    //noinspection ResultOfMethodCallIgnored
+    results.mkdirs();
+
+    System.out.printf("%-11s %7s %-24s %14s   %s%n", "group", "threads", "implementation",
+        "ops/s", "ops/s per thread");
+    for (String group : new String[] {"readOnly", "readHeavy", "mixed", "writeHeavy"}) {
+      for (int threads : THREADS) {
+        final int[] threadGroups = threadGroups(group, threads);
+        if (threadGroups == null) {
+          continue;
+        }
+
+        final String name = JMHContention.class.getSimpleName() + "-" + group + "-" + threads;
+        Options opt = new OptionsBuilder()
+            .include(".*" + JMHContention.class.getSimpleName() + "\\." + group + "$")
+            .threadGroups(threadGroups)
+            .forks(1)
+            .resultFormat(ResultFormatType.JSON)
+            .result(new File(results, name + ".json").getPath())
+            .build();
+
+        for (RunResult result : new Runner(opt).run()) {
+          print(group, threads, threadGroups, result);
+        }
+      }
+    }
+  }
+
+  private static void print(String group, int threads, int[] threadGroups, RunResult result) {
+    final StringBuilder perThread = new StringBuilder();
+    // Secondary results are the scores of each method of the group.
+    // JMH returns them in a map of raw Results, only its values convert to Result<?>.
+    for (String label : result.getSecondaryResults().keySet()) {
+      final Result<?> score = result.getSecondaryResults().get(label);
+      final int subgroupThreads = label.endsWith("Write")
+          ? threadGroups[1]
+          : threadGroups[0];
+      perThread.append(String.format("%s %.0f  ", label,
+          score.getScore() / subgroupThreads));
+    }
+    System.out.printf("%-11s %7d %-24s %14.0f   %s%n", group, threads,
+        result.getParams().getParam("implementation"), result.getPrimaryResult().getScore(),
+        perThread);
+  }
+}
@@ -0,0 +1,111 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+
+/**
+ * Measures the throughput of <tt>CuckooFilter</tt> insertions and lookups, for each
+ * fingerprint size.
+ * <p>
+ * Running {@link #main(String[])} also prints the space taken by each item and the
+ * false positive rate measured once the filter is full.
+ */
+@State(Scope.Thread)
+public class JMHCuckooFilter {
+  private static final int SIZE = 1024 * 1024;
+
+  @Param({"8", "12", "16"})
+  public int fingerprintBits;
+
+  private CuckooFilter<Integer> filter;
+  private final Random random = new Random();
+  private int index = 0;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    filter = newFilter(fingerprintBits);
+    for (int i = 0; i < SIZE; i++) {
+      filter.add(i);
+    }
+    index = random.nextInt(SIZE);
+  }
+
+  private static CuckooFilter<Integer> newFilter(int fingerprintBits) {
+    return new CuckooFilter<>(SIZE, fingerprintBits,
+        new CuckooFilter.MixingHashFunctionFactory());
+  }
+
+  private int nextKey() {
+    // Walk the keys with a large odd stride so we don't keep hitting the same bucket.
+    index = (index + 40503) % SIZE;
+    return index;
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public boolean measureMightContainHit() {
+    return filter.mightContain(nextKey());
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public boolean measureMightContainMiss() {
+    return filter.mightContain(SIZE + nextKey());
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public boolean measureAddDelete() {
+    // Keep the filter at the same load across invocations.
+    final int key = nextKey();
+    filter.delete(key);
+    return filter.add(key);
+  }
+
+  private static void printSpace() {
+    for (int bits : new int[] {8, 12, 16}) {
+      CuckooFilter<Integer> filter = newFilter(bits);
+      int added = 0;
+      while (filter.add(added)) {
+        added++;
+      }
+
+      int falsePositives = 0;
+      for (int i = 1; i <= SIZE; i++) {
+        if (filter.mightContain(-i)) {
+          falsePositives++;
+        }
+      }
+
+      System.out.printf("%2d bit fingerprints: %.2f bits per item, "
+              + "false positive rate %.5f (expected %.5f)%n",
+          bits, (double) filter.sizeInBits() / added, (double) falsePositives / SIZE,
+          filter.expectedFalsePositiveRate());
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    printSpace();
+
+    Options opt = new OptionsBuilder()
+        .include(".*" + JMHCuckooFilter.class.getSimpleName() + ".*")
+        .forks(1)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
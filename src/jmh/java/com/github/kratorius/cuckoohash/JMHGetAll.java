@@ -0,0 +1,85 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+
+/**
+ * Compares looking up keys one at a time with <tt>get</tt> against looking them up in
+ * batches with <tt>getAll</tt>, on maps too large to fit in the last level cache.
+ * Scores are in keys looked up per unit of time.
+ */
+@State(Scope.Thread)
+public class JMHGetAll {
+  private static final int LOOKUPS = 1024;
+  private static final int PROBES = 1 << 20;
+
+  @Param({"4194304", "16777216"})
+  public int size;
+
+  @Param({"1", "4"})
+  public int slotsPerBucket;
+
+  private CuckooHashMap<Integer, Integer> map;
+  private final Integer[] probes = new Integer[PROBES];
+  private final Integer[] keys = new Integer[LOOKUPS];
+  private final Integer[] values = new Integer[LOOKUPS];
+  private int index = 0;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    map = new CuckooHashMap<>(size, slotsPerBucket == 1 ? 0.45f : 0.9f, slotsPerBucket);
+    for (int i = 0; i < size; i++) {
+      map.put(i, i);
+    }
+
+    // Box the keys up front, spread over the whole map.
+    final Random random = new Random();
+    for (int i = 0; i < PROBES; i++) {
+      probes[i] = random.nextInt(size);
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void nextKeys() {
+    System.arraycopy(probes, index, keys, 0, LOOKUPS);
+    index = (index + LOOKUPS) % PROBES;
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @OperationsPerInvocation(LOOKUPS)
+  @Fork(1)
+  public Integer[] measureGet() {
+    for (int i = 0; i < LOOKUPS; i++) {
+      values[i] = map.get(keys[i]);
+    }
+    return values;
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @OperationsPerInvocation(LOOKUPS)
+  @Fork(1)
+  public Integer[] measureGetAll() {
+    map.getAll(keys, values);
+    return values;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + JMHGetAll.class.getSimpleName() + ".*")
+        .forks(1)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,181 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of single <tt>put</tt>, <tt>get</tt> and <tt>remove</tt> calls, to compare
+ * resize strategies and load factors by their tails rather than their averages.
+ * <p>
+ * The <tt>SampleTime</tt> benchmarks time a sample of the calls and report their
+ * percentiles up to the maximum. Puts fill maps from empty to {@link #SIZE} items and
+ * removes empty them again, so every growth and shrink of the map is part of the
+ * samples. <tt>measureGrowingPut</tt> times, in <tt>SingleShotTime</tt> mode, the one
+ * put that crosses the load factor of a map of about {@link #SIZE} items.
+ * <p>
+ * {@link LatencyProfile} reports the same operations phase by phase and tells apart
+ * the calls that resized the map.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JMHLatency {
+  static final int SIZE = 1 << 20;
+
+  /**
+   * <tt>CuckooHashMap</tt> resizes all at once, <tt>CuckooHashMap-incremental</tt>
+   * spreads the resizes over the following operations.
+   */
+  @Param({"CuckooHashMap", "CuckooHashMap-incremental", "HashMap"})
+  public String implementation;
+
+  @Param({"0.45", "0.9"})
+  public float loadFactor;
+
+  private Integer[] keys;
+  private Map<Integer, Integer> map;
+  private int counter;
+
+  static Map<Integer, Integer> newMap(String implementation, float loadFactor) {
+    final int slotsPerBucket = loadFactor > 0.5f ? 4 : 1;
+    switch (implementation) {
+      case "CuckooHashMap":
+        return new CuckooHashMap<>(16, loadFactor, slotsPerBucket);
+      case "CuckooHashMap-incremental":
+        return new CuckooHashMap<>(16, loadFactor, slotsPerBucket,
+            new CuckooHashMap.DefaultHashFunctionFactory(), true);
+      case "HashMap":
+        return new HashMap<>(16, loadFactor);
+      default:
+        throw new IllegalArgumentException("unknown implementation " + implementation);
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    keys = new Integer[SIZE];
+    map = newMap(implementation, loadFactor);
+    for (int i = 0; i < SIZE; i++) {
+      keys[i] = i;
+      map.put(keys[i], keys[i]);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class PutState {
+    private Map<Integer, Integer> map;
+    private int counter;
+
+    /**
+     * Starts over with an empty map once it's full, outside of the timed calls.
+     */
+    @Setup(Level.Invocation)
+    public void nextPut(JMHLatency benchmark) {
+      if (map == null || counter == SIZE) {
+        counter = 0;
+        map = newMap(benchmark.implementation, benchmark.loadFactor);
+      }
+    }
+  }
+
+  @Benchmark
+  @Warmup(iterations = 4)
+  @Measurement(iterations = 8)
+  @BenchmarkMode(Mode.SampleTime)
+  @Fork(1)
+  public Integer measurePut(PutState state) {
+    final Integer key = keys[state.counter++];
+    return state.map.put(key, key);
+  }
+
+  @Benchmark
+  @Warmup(iterations = 4)
+  @Measurement(iterations = 8)
+  @BenchmarkMode(Mode.SampleTime)
+  @Fork(1)
+  public Integer measureGet() {
+    final Integer key = keys[counter];
+    counter = (counter + 1) & (SIZE - 1);
+    return map.get(key);
+  }
+
+  @State(Scope.Thread)
+  public static class RemoveState {
+    private Map<Integer, Integer> map;
+    private int counter;
+
+    /**
+     * Fills the map again once it's empty, outside of the timed calls.
+     */
+    @Setup(Level.Invocation)
+    public void nextRemove(JMHLatency benchmark) {
+      if (map == null || counter == SIZE) {
+        counter = 0;
+        map = newMap(benchmark.implementation, benchmark.loadFactor);
+        for (Integer key : benchmark.keys) {
+          map.put(key, key);
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  @Warmup(iterations = 4)
+  @Measurement(iterations = 8)
+  @BenchmarkMode(Mode.SampleTime)
+  @Fork(1)
+  public Integer measureRemove(RemoveState state) {
+    return state.map.remove(keys[state.counter++]);
+  }
+
+  @State(Scope.Thread)
+  public static class GrowState {
+    private Map<Integer, Integer> map;
+    private Integer key;
+
+    /**
+     * Fills a new map up to the load factor, so that the next put grows it.
+     */
+    @Setup(Level.Iteration)
+    public void fill(JMHLatency benchmark) {
+      map = newMap(benchmark.implementation, benchmark.loadFactor);
+      int i = 0;
+      while (i < SIZE || !growsOnNextPut(map, benchmark.loadFactor)) {
+        map.put(i, i);
+        i++;
+      }
+      key = i;
+    }
+
+    private static boolean growsOnNextPut(Map<Integer, Integer> map, float loadFactor) {
+      if (map instanceof CuckooHashMap) {
+        final CuckooHashMap<Integer, Integer> cuckooHashMap = (CuckooHashMap<Integer, Integer>) map;
+        return !cuckooHashMap.isResizing()
+            && (float) (map.size() + 1) / cuckooHashMap.capacity() >= loadFactor;
+      }
+      // HashMap doubles its table, of 16 buckets at first, once the size exceeds
+      // capacity * loadFactor.
+      int capacity = 16;
+      while ((int) (capacity * loadFactor) < map.size()) {
+        capacity <<= 1;
+      }
+      return map.size() == (int) (capacity * loadFactor);
+    }
+  }
+
+  @Benchmark
+  @Warmup(iterations = 4)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Fork(1)
+  public Integer measureGrowingPut(GrowState state) {
+    return state.map.put(state.key, state.key);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Workloads.run(JMHLatency.class);
+  }
+}
@@ -0,0 +1,65 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Lookup throughput of <tt>CuckooHashMap</tt> against the JDK maps, over map sizes, load
+ * factors, key types, hit ratios and access distributions.
+ * <p>
+ * Every call looks up the next of {@link Workloads#PROBES} keys drawn in advance and
+ * returns the value, so that neither the key nor the lookup are constant. The largest
+ * maps need a heap of several gigabytes (e.g. <tt>-jvmArgsAppend -Xmx32g</tt>); use
+ * <tt>-p</tt> to run a subset of the parameters.
+ */
+@State(Scope.Thread)
+public class JMHMapGet {
+  @Param({"CuckooHashMap", "HashMap", "LinkedHashMap", "ConcurrentHashMap"})
+  public String implementation;
+
+  @Param({"1000", "100000", "10000000", "100000000"})
+  public int size;
+
+  @Param({"0.45", "0.9"})
+  public float loadFactor;
+
+  @Param({"Integer", "Long", "ShortString", "LongString", "Composite"})
+  public String keyType;
+
+  @Param({"100", "50", "0"})
+  public int hitPercent;
+
+  @Param({"uniform", "zipfian"})
+  public String distribution;
+
+  private Map<Object, Object> map;
+  private Object[] keys;
+  private int index = 0;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    map = Workloads.newMap(implementation, loadFactor);
+    Workloads.fill(map, keyType, size);
+
+    final Random random = new Random(42);
+    keys = Workloads.keys(keyType, Workloads.probes(distribution, size, hitPercent, random));
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Object measureGet() {
+    final Object key = keys[index];
+    index = (index + 1) & (Workloads.PROBES - 1);
+    return map.get(key);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Workloads.run(JMHMapGet.class);
+  }
+}
@@ -0,0 +1,76 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Throughput of <tt>CuckooHashMap</tt> against the JDK maps under a mix of lookups and
+ * writes, over map sizes, key types and access distributions.
+ * <p>
+ * Each operation picks the next of {@link Workloads#PROBES} keys of the map drawn in
+ * advance. <tt>writePercent</tt> percent of the operations replace the key, removing
+ * it and adding it back, so that the size of the map stays the same while both
+ * <tt>remove</tt> and inserting <tt>put</tt>s are exercised. The others look it up.
+ */
+@State(Scope.Thread)
+public class JMHMapMixed {
+  @Param({"CuckooHashMap", "HashMap", "LinkedHashMap", "ConcurrentHashMap"})
+  public String implementation;
+
+  @Param({"100000", "10000000"})
+  public int size;
+
+  @Param({"0.45", "0.9"})
+  public float loadFactor;
+
+  @Param({"Integer", "ShortString", "Composite"})
+  public String keyType;
+
+  @Param({"5", "20", "50"})
+  public int writePercent;
+
+  @Param({"uniform", "zipfian"})
+  public String distribution;
+
+  private Map<Object, Object> map;
+  private Object[] keys;
+  private boolean[] writes;
+  private int index = 0;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    map = Workloads.newMap(implementation, loadFactor);
+    Workloads.fill(map, keyType, size);
+
+    final Random random = new Random(42);
+    keys = Workloads.keys(keyType, Workloads.probes(distribution, size, 100, random));
+    writes = new boolean[Workloads.PROBES];
+    for (int i = 0; i < writes.length; i++) {
+      writes[i] = random.nextInt(100) < writePercent;
+    }
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Object measureMixed() {
+    final Object key = keys[index];
+    final boolean write = writes[index];
+    index = (index + 1) & (Workloads.PROBES - 1);
+
+    if (write) {
+      final Object value = map.remove(key);
+      return map.put(key, value);
+    }
+    return map.get(key);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Workloads.run(JMHMapMixed.class);
+  }
+}
@@ -0,0 +1,67 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.Map;
+
+/**
+ * Insertion throughput of <tt>CuckooHashMap</tt> against the JDK maps, over map sizes,
+ * load factors and key types.
+ * <p>
+ * Every call adds a new key to a map created with the default capacity, and once
+ * <tt>size</tt> keys have been added the map is replaced with an empty one. Scores are
+ * therefore the average cost of a <tt>put</tt> while filling a map of <tt>size</tt>
+ * items, resizes included. The keys are created in advance, so only the allocations
+ * made by the maps are measured.
+ */
+@State(Scope.Thread)
+public class JMHMapPut {
+  @Param({"CuckooHashMap", "HashMap", "LinkedHashMap", "ConcurrentHashMap"})
+  public String implementation;
+
+  @Param({"1000", "100000", "10000000"})
+  public int size;
+
+  @Param({"0.45", "0.9"})
+  public float loadFactor;
+
+  @Param({"Integer", "Long", "ShortString", "LongString", "Composite"})
+  public String keyType;
+
+  private Map<Object, Object> map;
+  private Object[] keys;
+  private int counter = 0;
+
+  @Setup(Level.Trial)
+  public void setupKeys() {
+    keys = new Object[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = Workloads.key(keyType, i);
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    counter = 0;
+    map = Workloads.newMap(implementation, loadFactor);
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 16)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Object measurePut() {
+    if (counter == size) {
+      counter = 0;
+      map = Workloads.newMap(implementation, loadFactor);
+    }
+    final Object key = keys[counter++];
+    return map.put(key, key);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Workloads.run(JMHMapPut.class);
+  }
+}
@@ -0,0 +1,93 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+
+/**
+ * Compares lookups in the primitive specializations against the boxed
+ * <tt>CuckooHashMap</tt>.
+ */
+@State(Scope.Thread)
+public class JMHPrimitiveGet {
+  private static final int SIZE = 102400;
+
+  private CuckooHashMap<Integer, Integer> cuckooHashMap = new CuckooHashMap<>();
+  private CuckooHashMap<Long, Object> cuckooHashMapLong = new CuckooHashMap<>();
+  private IntIntCuckooHashMap intIntMap = new IntIntCuckooHashMap();
+  private LongObjectCuckooHashMap<Object> longObjectMap = new LongObjectCuckooHashMap<>();
+  private final Random random = new Random();
+  private int index = 0;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    cuckooHashMap.clear();
+    cuckooHashMapLong.clear();
+    intIntMap.clear();
+    longObjectMap.clear();
+
+    final Object value = new Object();
+    for (int i = 0; i < SIZE; i++) {
+      cuckooHashMap.put(i, i);
+      cuckooHashMapLong.put((long) i, value);
+      intIntMap.put(i, i);
+      longObjectMap.put(i, value);
+    }
+    index = random.nextInt(SIZE);
+  }
+
+  private int nextKey() {
+    // Walk the keys with a large odd stride so we don't keep hitting the same slot.
+    index = (index + 40503) % SIZE;
+    return index;
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Integer measureGetCuckooHashMapInteger() {
+    return cuckooHashMap.get(nextKey());
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public int measureGetIntIntCuckooHashMap() {
+    return intIntMap.get(nextKey());
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Object measureGetCuckooHashMapLong() {
+    return cuckooHashMapLong.get((long) nextKey());
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public Object measureGetLongObjectCuckooHashMap() {
+    return longObjectMap.get(nextKey());
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + JMHPrimitiveGet.class.getSimpleName() + ".*")
+        .forks(1)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,79 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares insertions in the primitive specializations against the boxed
+ * <tt>CuckooHashMap</tt>.
+ */
+@State(Scope.Thread)
+public class JMHPrimitivePut {
+  private CuckooHashMap<Integer, Integer> cuckooHashMap = new CuckooHashMap<>();
+  private CuckooHashMap<Long, Object> cuckooHashMapLong = new CuckooHashMap<>();
+  private IntIntCuckooHashMap intIntMap = new IntIntCuckooHashMap();
+  private LongObjectCuckooHashMap<Object> longObjectMap = new LongObjectCuckooHashMap<>();
+  private final Object value = new Object();
+  private int counter = 0;
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    counter = 0;
+    cuckooHashMap.clear();
+    cuckooHashMapLong.clear();
+    intIntMap.clear();
+    longObjectMap.clear();
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public CuckooHashMap<Integer, Integer> measurePutCuckooHashMapInteger() {
+    cuckooHashMap.put(counter++, 42);
+    return cuckooHashMap;
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public IntIntCuckooHashMap measurePutIntIntCuckooHashMap() {
+    intIntMap.put(counter++, 42);
+    return intIntMap;
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public CuckooHashMap<Long, Object> measurePutCuckooHashMapLong() {
+    cuckooHashMapLong.put((long) counter++, value);
+    return cuckooHashMapLong;
+  }
+
+  @Benchmark
+  @Warmup(iterations = 8)
+  @Measurement(iterations = 32)
+  @BenchmarkMode(Mode.Throughput)
+  @Fork(1)
+  public LongObjectCuckooHashMap<Object> measurePutLongObjectCuckooHashMap() {
+    longObjectMap.put(counter++, value);
+    return longObjectMap;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + JMHPrimitivePut.class.getSimpleName() + ".*")
+        .forks(1)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
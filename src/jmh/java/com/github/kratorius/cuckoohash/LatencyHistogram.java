@@ -0,0 +1,75 @@
+package com.github.kratorius.cuckoohash;
+
+/**
+ * Histogram of latencies in nanoseconds, recording a sample in constant time without
+ * allocating, in the spirit of HdrHistogram.
+ * <p>
+ * Values below 128 are counted exactly. Larger values are counted in buckets covering
+ * each power of two with 64 sub-buckets, so percentiles are accurate to within about
+ * 1.5%. The maximum is kept exactly.
+ */
+final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Enough for any positive long.
+  private static final int COUNTS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+  private final long[] counts = new long[COUNTS];
+  private long total = 0;
+  private long max = 0;
+
+  void record(long nanos) {
+    final long value = Math.max(0, nanos);
+    counts[index(value)]++;
+    total++;
+    max = Math.max(max, value);
+  }
+
+  void add(LatencyHistogram other) {
+    for (int i = 0; i < COUNTS; i++) {
+      counts[i] += other.counts[i];
+    }
+    total += other.total;
+    max = Math.max(max, other.max);
+  }
+
+  long count() {
+    return total;
+  }
+
+  long max() {
+    return max;
+  }
+
+  /**
+   * @param percentile  the percentile, between <tt>0</tt> and <tt>100</tt>.
+   * @return the highest value counted in the same bucket as the sample at the given
+   * percentile, or <tt>0</tt> if there are no samples.
+   */
+  long percentile(double percentile) {
+    if (total == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < COUNTS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(max, highestValue(i));
+      }
+    }
+    return max;
+  }
+
+  private static int index(long value) {
+    // Values below 2 * SUB_BUCKETS share the first bucket, of exact sub-buckets.
+    final int bucket = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+    return bucket * SUB_BUCKETS + (int) (value >>> bucket);
+  }
+
+  private static long highestValue(int index) {
+    final int bucket = Math.max(0, index / SUB_BUCKETS - 1);
+    final long lowest = (long) (index - bucket * SUB_BUCKETS) << bucket;
+    return lowest + (1L << bucket) - 1;
+  }
+}
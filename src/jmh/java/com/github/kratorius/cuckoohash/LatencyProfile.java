@@ -0,0 +1,168 @@
+package com.github.kratorius.cuckoohash;
+
+import java.util.Map;
+
+/**
+ * Times every <tt>put</tt> filling a map from empty to {@link #SIZE} items, then every
+ * <tt>get</tt> and <tt>remove</tt> emptying it, and prints their p50, p99, p99.9 and
+ * maximum latency for each growth phase of the map, i.e. each doubling of its size.
+ * <p>
+ * Calls during which the map was resized or rehashed are counted apart, so that the
+ * tails of the two resize strategies can be compared with those of the calls that
+ * didn't resize. A <tt>CuckooHashMap</tt> is resized when it replaces its tables, and
+ * the calls made during an incremental resize count as resizing since they migrate
+ * items. The resizes of a <tt>HashMap</tt> are inferred from its load factor.
+ * <p>
+ * Unlike {@link JMHLatency} this doesn't run in JMH, so nothing warms up the JIT
+ * beforehand: the whole profile is run {@link #ROUNDS} times and only the last round is
+ * reported.
+ */
+public class LatencyProfile {
+  static final int SIZE = 1 << 22;
+  private static final int ROUNDS = 3;
+
+  // First growth phase reported, smaller maps are grouped with it.
+  private static final int FIRST_PHASE = 10;
+  private static final int PHASES = 32 - Integer.numberOfLeadingZeros(SIZE) - FIRST_PHASE;
+
+  private static final String[] OPERATIONS = {"put", "get", "remove"};
+
+  /**
+   * The latencies of each operation in each phase, apart for the calls that resized the
+   * map.
+   */
+  private final LatencyHistogram[][] steady = new LatencyHistogram[OPERATIONS.length][PHASES];
+  private final LatencyHistogram[][] resizing = new LatencyHistogram[OPERATIONS.length][PHASES];
+
+  private final String implementation;
+  private final float loadFactor;
+  private final Integer[] keys = new Integer[SIZE];
+
+  // The capacity of a HashMap, which resizes once its size exceeds capacity * loadFactor.
+  private int hashMapCapacity;
+
+  private LatencyProfile(String implementation, float loadFactor) {
+    this.implementation = implementation;
+    this.loadFactor = loadFactor;
+    for (int i = 0; i < SIZE; i++) {
+      keys[i] = i;
+    }
+  }
+
+  private static int phase(int size) {
+    final int log = 31 - Integer.numberOfLeadingZeros(Math.max(1, size));
+    return Math.min(PHASES - 1, Math.max(0, log - FIRST_PHASE));
+  }
+
+  private void run() {
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int op = 0; op < OPERATIONS.length; op++) {
+        for (int phase = 0; phase < PHASES; phase++) {
+          steady[op][phase] = new LatencyHistogram();
+          resizing[op][phase] = new LatencyHistogram();
+        }
+      }
+      runRound();
+    }
+  }
+
+  private void runRound() {
+    final Map<Integer, Integer> map = JMHLatency.newMap(implementation, loadFactor);
+    hashMapCapacity = 16;
+    long checksum = 0;
+
+    for (int i = 0; i < SIZE; i++) {
+      final Object before = generation(map);
+      final long start = System.nanoTime();
+      map.put(keys[i], keys[i]);
+      final long nanos = System.nanoTime() - start;
+      record(0, i, nanos, resized(map, before));
+    }
+
+    for (int i = 0; i < SIZE; i++) {
+      final Object before = generation(map);
+      final long start = System.nanoTime();
+      final Integer value = map.get(keys[i]);
+      final long nanos = System.nanoTime() - start;
+      checksum += value;
+      record(1, SIZE, nanos, resized(map, before));
+    }
+
+    for (int i = 0; i < SIZE; i++) {
+      final Object before = generation(map);
+      final long start = System.nanoTime();
+      checksum += map.remove(keys[i]);
+      final long nanos = System.nanoTime() - start;
+      record(2, SIZE - i, nanos, resized(map, before));
+    }
+
+    if (checksum != 2 * ((long) SIZE * (SIZE - 1) / 2)) {
+      throw new AssertionError("unexpected checksum " + checksum);
+    }
+  }
+
+  private void record(int op, int size, long nanos, boolean resized) {
+    (resized ? resizing : steady)[op][phase(size)].record(nanos);
+  }
+
+  private static Object generation(Map<Integer, Integer> map) {
+    return map instanceof CuckooHashMap ? ((CuckooHashMap<?, ?>) map).tablesGeneration() : null;
+  }
+
+  /**
+   * @return whether the last call resized <tt>map</tt>, whose tables were
+   * <tt>before</tt> it.
+   */
+  private boolean resized(Map<Integer, Integer> map, Object before) {
+    if (map instanceof CuckooHashMap) {
+      final CuckooHashMap<?, ?> cuckooHashMap = (CuckooHashMap<?, ?>) map;
+      return cuckooHashMap.tablesGeneration() != before || cuckooHashMap.isResizing();
+    }
+    // HashMap never shrinks.
+    if (map.size() > (int) (hashMapCapacity * loadFactor)) {
+      hashMapCapacity <<= 1;
+      return true;
+    }
+    return false;
+  }
+
+  private void print() {
+    System.out.printf("%n%s, load factor %.2f%n", implementation, loadFactor);
+    System.out.printf("%-7s %-18s %10s %8s %8s %8s %10s %10s %10s%n", "op", "size", "calls",
+        "p50", "p99", "p99.9", "max", "resizing", "max");
+    for (int op = 0; op < OPERATIONS.length; op++) {
+      for (int phase = 0; phase < PHASES; phase++) {
+        final LatencyHistogram all = new LatencyHistogram();
+        all.add(steady[op][phase]);
+        all.add(resizing[op][phase]);
+        if (all.count() == 0) {
+          continue;
+        }
+
+        final String sizes = phase == 0
+            ? "< " + (1 << (FIRST_PHASE + 1))
+            : (1 << (FIRST_PHASE + phase)) + " - " + ((1 << (FIRST_PHASE + phase + 1)) - 1);
+        System.out.printf("%-7s %-18s %10d %8d %8d %8d %10d %10d %10d%n", OPERATIONS[op], sizes,
+            all.count(), all.percentile(50), all.percentile(99), all.percentile(99.9),
+            all.max(), resizing[op][phase].count(), resizing[op][phase].max());
+      }
+    }
+  }
+
+  /**
+   * Latencies are printed in nanoseconds. The last two columns are the number of calls
+   * that resized the map and the slowest of them.
+   */
+  public static void main(String[] args) {
+    final String[] implementations = args.length > 0
+        ? args
+        : new String[] {"CuckooHashMap", "CuckooHashMap-incremental", "HashMap"};
+    for (String implementation : implementations) {
+      for (float loadFactor : new float[] {0.45f, 0.9f}) {
+        final LatencyProfile profile = new LatencyProfile(implementation, loadFactor);
+        profile.run();
+        profile.print();
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.github.kratorius.cuckoohash;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Makes a map thread safe with a {@link ReentrantReadWriteLock}, so that lookups run in
+ * parallel and only writes are serialized.
+ * <p>
+ * Only valid for maps whose lookups don't modify them, which is the case of a
+ * <tt>CuckooHashMap</tt> that doesn't resize incrementally. The views are not
+ * supported, as their iterators couldn't hold the lock.
+ */
+final class ReadWriteLockMap<K, V> extends AbstractMap<K, V> {
+  private final Map<K, V> map;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  ReadWriteLockMap(Map<K, V> map) {
+    this.map = map;
+  }
+
+  @Override
+  public V get(Object key) {
+    lock.readLock().lock();
+    try {
+      return map.get(key);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    lock.readLock().lock();
+    try {
+      return map.containsKey(key);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return map.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public V put(K key, V value) {
+    lock.writeLock().lock();
+    try {
+      return map.put(key, value);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public V remove(Object key) {
+    lock.writeLock().lock();
+    try {
+      return map.remove(key);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    lock.writeLock().lock();
+    try {
+      map.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    throw new UnsupportedOperationException();
+  }
+}
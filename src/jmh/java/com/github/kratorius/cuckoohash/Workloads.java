@@ -0,0 +1,232 @@
+package com.github.kratorius.cuckoohash;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps, keys and access patterns shared by the parameterized map benchmarks.
+ * <p>
+ * Key <tt>i</tt> of a map of <tt>size</tt> items is in the map iff <tt>i &lt; size</tt>,
+ * so lookups miss by asking for keys past the size. Keys are created again for every
+ * lookup rather than shared with the map, as they would be when parsed from a request.
+ */
+final class Workloads {
+  // Number of keys looked up or written by the benchmarks before starting over.
+  static final int PROBES = 1 << 20;
+
+  // Skew of the Zipfian distribution, the one used by YCSB.
+  private static final double ZIPFIAN_THETA = 0.99;
+
+  private Workloads() {
+  }
+
+  /**
+   * A key made of several fields, whose hash code isn't cached.
+   */
+  static final class CompositeKey {
+    final long id;
+    final int shard;
+    final String tenant;
+
+    CompositeKey(long id, int shard, String tenant) {
+      this.id = id;
+      this.shard = shard;
+      this.tenant = tenant;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof CompositeKey)) {
+        return false;
+      }
+      final CompositeKey other = (CompositeKey) obj;
+      return id == other.id && shard == other.shard && tenant.equals(other.tenant);
+    }
+
+    @Override
+    public int hashCode() {
+      return (31 * Long.hashCode(id) + shard) * 31 + tenant.hashCode();
+    }
+  }
+
+  /**
+   * @param implementation  one of <tt>CuckooHashMap</tt>, <tt>HashMap</tt>,
+   *                        <tt>LinkedHashMap</tt> or <tt>ConcurrentHashMap</tt>.
+   * @param loadFactor  the load factor, given to every implementation. The cuckoo map uses
+   *                    buckets of 4 slots above <code>0.5</code>, which it can't reach
+   *                    with a single slot per bucket.
+   */
+  static Map<Object, Object> newMap(String implementation, float loadFactor) {
+    switch (implementation) {
+      case "CuckooHashMap":
+        return new CuckooHashMap<>(16, loadFactor, loadFactor > 0.5f ? 4 : 1);
+      case "HashMap":
+        return new HashMap<>(16, loadFactor);
+      case "LinkedHashMap":
+        return new LinkedHashMap<>(16, loadFactor);
+      case "ConcurrentHashMap":
+        return new ConcurrentHashMap<>(16, loadFactor);
+      default:
+        throw new IllegalArgumentException("unknown implementation " + implementation);
+    }
+  }
+
+  /**
+   * @param keyType  one of <tt>Integer</tt>, <tt>Long</tt>, <tt>ShortString</tt> (up to 10
+   *                 characters), <tt>LongString</tt> (about 60 characters sharing a
+   *                 common prefix) or <tt>Composite</tt>.
+   * @return a new instance of key <tt>i</tt>.
+   */
+  static Object key(String keyType, long i) {
+    switch (keyType) {
+      case "Integer":
+        return (int) i;
+      case "Long":
+        // Keep the high bits busy, the hash code of a Long folds them into the low ones.
+        return i * 0x9E3779B97F4A7C15L;
+      case "ShortString":
+        return Long.toString(i, 36);
+      case "LongString":
+        return "https://example.com/catalog/items/" + i + "/details?lang=en";
+      case "Composite":
+        return new CompositeKey(i, (int) (i & 0xFF), "tenant-" + (i % 97));
+      default:
+        throw new IllegalArgumentException("unknown key type " + keyType);
+    }
+  }
+
+  /**
+   * Adds keys <tt>0</tt> to <tt>size - 1</tt> to <tt>map</tt>, each mapped to itself.
+   */
+  static void fill(Map<Object, Object> map, String keyType, int size) {
+    for (int i = 0; i < size; i++) {
+      final Object key = key(keyType, i);
+      map.put(key, key);
+    }
+  }
+
+  /**
+   * @param distribution  <tt>uniform</tt> or <tt>zipfian</tt>, how often each key of the
+   *                      map is picked.
+   * @param hitPercent  the percentage of keys that are in the map.
+   * @return {@link #PROBES} indexes of keys (see {@link #key(String, long)}).
+   */
+  static long[] probes(String distribution, int size, int hitPercent, Random random) {
+    final ZipfianGenerator zipfian;
+    switch (distribution) {
+      case "uniform":
+        zipfian = null;
+        break;
+      case "zipfian":
+        zipfian = new ZipfianGenerator(size, ZIPFIAN_THETA);
+        break;
+      default:
+        throw new IllegalArgumentException("unknown distribution " + distribution);
+    }
+
+    final long[] probes = new long[PROBES];
+    for (int i = 0; i < PROBES; i++) {
+      final long index = zipfian != null ? zipfian.next(random) : random.nextInt(size);
+      // Misses follow the same distribution, shifted past the keys of the map.
+      probes[i] = random.nextInt(100) < hitPercent ? index : size + index;
+    }
+    return probes;
+  }
+
+  /**
+   * @return the keys of the given indexes, created in advance.
+   */
+  static Object[] keys(String keyType, long[] indexes) {
+    final Object[] keys = new Object[indexes.length];
+    for (int i = 0; i < indexes.length; i++) {
+      keys[i] = key(keyType, indexes[i]);
+    }
+    return keys;
+  }
+
+  /**
+   * Runs the benchmarks of <tt>benchmark</tt>, writing the results in JSON to
+   * <tt>build/reports/jmh/&lt;benchmark&gt;.json</tt> so that runs of different versions
+   * can be compared.
+   */
+  static void run(Class<?> benchmark) throws RunnerException {
+    final File results = new File("build/reports/jmh", benchmark.getSimpleName() + ".json");
+    //noinspection ResultOfMethodCallIgnored
+    results.getParentFile().mkdirs();
+
+    Options opt = new OptionsBuilder()
+        .include(".*" + benchmark.getSimpleName() + ".*")
+        .forks(1)
+        .resultFormat(ResultFormatType.JSON)
+        .result(results.getPath())
+        .build();
+
+    new Runner(opt).run();
+  }
+
+  /**
+   * Draws ranks in <tt>[0, n)</tt>, rank <tt>r</tt> being drawn with a probability
+   * proportional to <tt>1 / (r + 1)^theta</tt>. Ranks are then scattered over the keys so
+   * that the most popular keys aren't next to each other. See "Quickly Generating
+   * Billion-Record Synthetic Databases" by Gray et al.
+   */
+  static final class ZipfianGenerator {
+    private final long n;
+    private final double theta;
+    private final double alpha;
+    private final double zetan;
+    private final double eta;
+
+    ZipfianGenerator(long n, double theta) {
+      this.n = n;
+      this.theta = theta;
+      this.alpha = 1 / (1 - theta);
+      this.zetan = zeta(n, theta);
+      this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+    }
+
+    private static double zeta(long n, double theta) {
+      double sum = 0;
+      for (long i = 1; i <= n; i++) {
+        sum += 1 / Math.pow(i, theta);
+      }
+      return sum;
+    }
+
+    long next(Random random) {
+      final double u = random.nextDouble();
+      final double uz = u * zetan;
+      final long rank;
+      if (uz < 1) {
+        rank = 0;
+      } else if (uz < 1 + Math.pow(0.5, theta)) {
+        rank = 1;
+      } else {
+        rank = Math.min(n - 1, (long) (n * Math.pow(eta * u - eta + 1, alpha)));
+      }
+      return Math.floorMod(scramble(rank), n);
+    }
+
+    /**
+     * The finalizer of MurmurHash3.
+     */
+    private static long scramble(long x) {
+      x ^= x >>> 33;
+      x *= 0xff51afd7ed558ccdL;
+      x ^= x >>> 33;
+      x *= 0xc4ceb9fe1a85ec53L;
+      x ^= x >>> 33;
+      return x;
+    }
+  }
+}
@@ -0,0 +1,492 @@
+package com.github.kratorius.cuckoohash;
+
+import com.github.kratorius.cuckoohash.CuckooFilter.MixingHashFunctionFactory.MixingHashFunction;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe version of {@link CuckooFilter}, for filters shared by many writers.
+ * <p>
+ * Each bucket of 4 fingerprints is packed in a single <code>long</code> of an
+ * {@link AtomicLongArray}, so a bucket is always read and written as a whole. Like
+ * {@link ConcurrentCuckooHashMap}, buckets are protected by striped locks, each with a
+ * version counter: writers lock the stripes of the two candidate buckets of an item,
+ * and readers never lock but retry if one of the versions changed while they were
+ * reading. When both buckets are full, a bounded breadth-first search looks for the
+ * shortest path of displacements leading to a free slot, and the moves are applied one
+ * at a time starting from the free end of the path.
+ * <p>
+ * The filter has a fixed capacity: {@link #add(Object)} returns <tt>false</tt> once no
+ * free slot can be found. Filters built with the same
+ * {@link #ConcurrentCuckooFilter(int, int, long) seed} use the same hash functions and
+ * can be {@link #merge(ConcurrentCuckooFilter) merged}.
+ * <p>
+ * {@link #writeTo(OutputStream)} stores the filter as a header of 4 longs followed by
+ * the buckets, one long each, so that {@link #readFrom(InputStream)} loads it back with a
+ * single bulk copy into the bucket array. As the seeds of the hash functions have to be
+ * stored alongside the buckets, this filter always uses the default hash functions of
+ * {@link CuckooFilter}.
+ *
+ * @param <T>  the type of the items
+ */
+@SuppressWarnings("WeakerAccess")
+public class ConcurrentCuckooFilter<T> {
+  private static final int SLOTS_PER_BUCKET = CuckooFilter.SLOTS_PER_BUCKET;
+  private static final int DEFAULT_LOCK_STRIPES = 1024;
+
+  // Bounds the breadth-first search for a path to a free slot. With 4 slots per bucket
+  // this is enough to explore every path of up to 5 displacements: unlike the map the
+  // filter can't grow, so it's worth searching a bit further to reach a high load.
+  private static final int MAX_SEARCH_NODES = 2 * (1 + 4 + 16 + 64 + 256 + 1024);
+
+  // Readers give up on optimistic reads and lock the stripes after these many attempts.
+  private static final int MAX_OPTIMISTIC_READS = 64;
+
+  private static final int MAGIC = 0x43466c74;  // "CFlt"
+  private static final int VERSION = 1;
+  private static final int COPY_CHUNK_LONGS = 8192;
+
+  private final int fingerprintBits;
+  private final long fingerprintMask;
+  private final int bucketBits;
+  private final MixingHashFunction indexHashFunction;
+  private final MixingHashFunction fingerprintHashFunction;
+
+  private final AtomicLongArray buckets;
+  private final CuckooStripes stripes;
+  private final LongAdder count = new LongAdder();
+
+  /**
+   * Constructs an empty <tt>ConcurrentCuckooFilter</tt> for the given number of items
+   * with a false positive rate of about 1%.
+   *
+   * @param expectedItems  the number of items the filter must be able to hold.
+   */
+  public ConcurrentCuckooFilter(int expectedItems) {
+    this(expectedItems, CuckooFilter.DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * Constructs an empty <tt>ConcurrentCuckooFilter</tt> for the given number of items,
+   * whose fingerprints are large enough to keep the false positive rate below
+   * <tt>falsePositiveRate</tt>.
+   *
+   * @param expectedItems  the number of items the filter must be able to hold.
+   * @param falsePositiveRate  the maximum false positive rate, no lower than
+   *                           <tt>8 / 2^16</tt>.
+   */
+  public ConcurrentCuckooFilter(int expectedItems, double falsePositiveRate) {
+    this(expectedItems, CuckooFilter.fingerprintBits(falsePositiveRate), new Random().nextLong());
+  }
+
+  /**
+   * Constructs an empty <tt>ConcurrentCuckooFilter</tt> whose hash functions are derived
+   * from <tt>seed</tt>. Filters built with the same arguments can be merged.
+   *
+   * @param expectedItems  the number of items the filter must be able to hold.
+   * @param fingerprintBits  the size of fingerprints, either 8, 12 or 16 bits.
+   * @param seed  the seed of the hash functions.
+   */
+  public ConcurrentCuckooFilter(int expectedItems, int fingerprintBits, long seed) {
+    this(fingerprintBits, CuckooFilter.bucketBits(expectedItems), new Random(seed));
+  }
+
+  private ConcurrentCuckooFilter(int fingerprintBits, int bucketBits, Random random) {
+    this(fingerprintBits, bucketBits, random.nextInt(), random.nextInt());
+  }
+
+  private ConcurrentCuckooFilter(int fingerprintBits, int bucketBits, int indexSeed,
+                                 int fingerprintSeed) {
+    CuckooFilter.checkFingerprintBits(fingerprintBits);
+
+    this.fingerprintBits = fingerprintBits;
+    this.fingerprintMask = (1L << fingerprintBits) - 1;
+    this.bucketBits = bucketBits;
+    this.indexHashFunction = new MixingHashFunction(indexSeed, 1 << bucketBits);
+    this.fingerprintHashFunction = new MixingHashFunction(fingerprintSeed, 1 << fingerprintBits);
+    this.buckets = new AtomicLongArray(1 << bucketBits);
+
+    this.stripes = new CuckooStripes(Math.min(DEFAULT_LOCK_STRIPES, 1 << bucketBits));
+  }
+
+  /**
+   * Adds an item to the filter.
+   *
+   * @return <tt>false</tt> if the filter is too full to take the item, in which case
+   * the filter is left unchanged.
+   */
+  public boolean add(T item) {
+    final int fingerprint = fingerprint(item);
+    return addFingerprint(index(item), fingerprint);
+  }
+
+  /**
+   * @return <tt>true</tt> if the item might have been added to the filter, or
+   * <tt>false</tt> if it has definitely not been added.
+   */
+  public boolean mightContain(T item) {
+    final int fingerprint = fingerprint(item);
+    final int b1 = index(item);
+    final int b2 = altIndex(b1, fingerprint);
+    final int s1 = stripes.stripe(b1);
+    final int s2 = stripes.stripe(b2);
+
+    for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+      final long v1 = stripes.version(s1);
+      final long v2 = stripes.version(s2);
+      if (((v1 | v2) & 1) != 0) {
+        // A writer is modifying one of the buckets.
+        continue;
+      }
+
+      final boolean found = findSlot(buckets.get(b1), fingerprint) >= 0
+          || findSlot(buckets.get(b2), fingerprint) >= 0;
+      if (stripes.version(s1) == v1 && stripes.version(s2) == v2) {
+        return found;
+      }
+    }
+
+    // Too much contention on the stripes, give up and take the locks.
+    stripes.lockPair(b1, b2);
+    try {
+      return findSlot(buckets.get(b1), fingerprint) >= 0
+          || findSlot(buckets.get(b2), fingerprint) >= 0;
+    } finally {
+      stripes.unlockPair(b1, b2);
+    }
+  }
+
+  /**
+   * Removes one copy of an item that was previously added to the filter.
+   *
+   * @return <tt>false</tt> if the item was not found in the filter.
+   */
+  public boolean delete(T item) {
+    final int fingerprint = fingerprint(item);
+    final int b1 = index(item);
+    final int b2 = altIndex(b1, fingerprint);
+
+    stripes.lockPair(b1, b2);
+    try {
+      int bucket = b1;
+      int slot = findSlot(buckets.get(b1), fingerprint);
+      if (slot < 0) {
+        bucket = b2;
+        slot = findSlot(buckets.get(b2), fingerprint);
+      }
+      if (slot < 0) {
+        return false;
+      }
+
+      stripes.bumpVersions(b1, b2);
+      buckets.set(bucket, withSlot(buckets.get(bucket), slot, 0));
+      stripes.bumpVersions(b1, b2);
+      count.decrement();
+      return true;
+    } finally {
+      stripes.unlockPair(b1, b2);
+    }
+  }
+
+  /**
+   * Adds all the items of <tt>other</tt> to this filter. Items that are added to
+   * <tt>other</tt> while merging may or may not be added.
+   *
+   * @param other  a filter built with the same number of items, fingerprint size and
+   *               seed as this one.
+   * @return <tt>false</tt> if this filter filled up before all the items could be added.
+   * The items added until then are not removed.
+   */
+  public boolean merge(ConcurrentCuckooFilter<T> other) {
+    if (other.fingerprintBits != fingerprintBits
+        || other.bucketBits != bucketBits
+        || other.indexHashFunction.seed != indexHashFunction.seed
+        || other.fingerprintHashFunction.seed != fingerprintHashFunction.seed) {
+      throw new IllegalArgumentException("filters with different hash functions can't be merged");
+    }
+
+    for (int bucket = 0; bucket < other.buckets.length(); bucket++) {
+      final long word = other.buckets.get(bucket);
+      for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+        final int fingerprint = slotFingerprint(word, slot);
+        if (fingerprint != 0 && !addFingerprint(bucket, fingerprint)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  public void clear() {
+    stripes.lockAll();
+    try {
+      for (int i = 0; i < buckets.length(); i++) {
+        if (buckets.get(i) != 0) {
+          stripes.bumpVersions(i, i);
+          buckets.set(i, 0);
+          stripes.bumpVersions(i, i);
+        }
+      }
+      count.reset();
+    } finally {
+      stripes.unlockAll();
+    }
+  }
+
+  /**
+   * @return the number of items in the filter.
+   */
+  public int size() {
+    final long size = count.sum();
+    return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+  }
+
+  public boolean isEmpty() {
+    return count.sum() <= 0;
+  }
+
+  /**
+   * @return the number of fingerprints the filter has room for.
+   */
+  public int capacity() {
+    return buckets.length() * SLOTS_PER_BUCKET;
+  }
+
+  public int getFingerprintBits() {
+    return fingerprintBits;
+  }
+
+  /**
+   * @return the size of the table of fingerprints, in bits.
+   */
+  public long sizeInBits() {
+    return (long) buckets.length() * Long.SIZE;
+  }
+
+  /**
+   * @return the expected false positive rate of the filter when it's full.
+   */
+  public double expectedFalsePositiveRate() {
+    return CuckooFilter.falsePositiveRate(fingerprintBits);
+  }
+
+  /**
+   * Writes the filter to <tt>out</tt>, which is not closed. Writers are only blocked
+   * while the buckets are copied aside, not while they are written.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    final long[] words = new long[buckets.length()];
+    final long size;
+    stripes.lockAll();
+    try {
+      for (int i = 0; i < words.length; i++) {
+        words[i] = buckets.get(i);
+      }
+      size = count.sum();
+    } finally {
+      stripes.unlockAll();
+    }
+
+    final DataOutputStream data = new DataOutputStream(out);
+    data.writeLong((long) MAGIC << 32 | VERSION);
+    data.writeLong((long) fingerprintBits << 32 | bucketBits);
+    data.writeLong(
+        (long) indexHashFunction.seed << 32 | (fingerprintHashFunction.seed & 0xFFFFFFFFL));
+    data.writeLong(size);
+
+    final ByteBuffer chunk = ByteBuffer.allocate(COPY_CHUNK_LONGS * Long.BYTES);
+    for (int from = 0; from < words.length; from += COPY_CHUNK_LONGS) {
+      final int length = Math.min(COPY_CHUNK_LONGS, words.length - from);
+      chunk.clear();
+      chunk.asLongBuffer().put(words, from, length);
+      data.write(chunk.array(), 0, length * Long.BYTES);
+    }
+    data.flush();
+  }
+
+  /**
+   * Reads a filter written by {@link #writeTo(OutputStream)}. The stream is not closed.
+   *
+   * @throws StreamCorruptedException if the stream doesn't contain a filter.
+   */
+  public static <T> ConcurrentCuckooFilter<T> readFrom(InputStream in) throws IOException {
+    final DataInputStream data = new DataInputStream(in);
+    final long magic = data.readLong();
+    if ((int) (magic >>> 32) != MAGIC) {
+      throw new StreamCorruptedException("not a cuckoo filter");
+    }
+    if ((int) magic != VERSION) {
+      throw new StreamCorruptedException("unsupported cuckoo filter version " + (int) magic);
+    }
+
+    final long geometry = data.readLong();
+    final int fingerprintBits = (int) (geometry >>> 32);
+    final int bucketBits = (int) geometry;
+    if (bucketBits < 1 || bucketBits > 28) {
+      throw new StreamCorruptedException("invalid number of buckets");
+    }
+    final long seeds = data.readLong();
+    final long size = data.readLong();
+
+    final ConcurrentCuckooFilter<T> filter;
+    try {
+      filter = new ConcurrentCuckooFilter<>(fingerprintBits, bucketBits, (int) (seeds >>> 32),
+          (int) seeds);
+    } catch (IllegalArgumentException e) {
+      throw new StreamCorruptedException(e.getMessage());
+    }
+
+    // The filter isn't visible to anybody else yet, so there's no need to lock.
+    final long[] words = new long[filter.buckets.length()];
+    final byte[] bytes = new byte[COPY_CHUNK_LONGS * Long.BYTES];
+    for (int from = 0; from < words.length; from += COPY_CHUNK_LONGS) {
+      final int length = Math.min(COPY_CHUNK_LONGS, words.length - from);
+      data.readFully(bytes, 0, length * Long.BYTES);
+      ByteBuffer.wrap(bytes).asLongBuffer().get(words, from, length);
+    }
+    for (int i = 0; i < words.length; i++) {
+      filter.buckets.set(i, words[i]);
+    }
+    filter.count.add(size);
+    return filter;
+  }
+
+  private int index(T item) {
+    return indexHashFunction.hash(item);
+  }
+
+  /**
+   * @return the fingerprint of <tt>item</tt>, never 0 as that marks empty slots.
+   */
+  private int fingerprint(T item) {
+    final int fingerprint = fingerprintHashFunction.hash(item);
+    return fingerprint != 0 ? fingerprint : 1;
+  }
+
+  private int altIndex(int bucket, int fingerprint) {
+    return CuckooFilter.altIndex(bucket, fingerprint, bucketBits);
+  }
+
+  private int slotFingerprint(long word, int slot) {
+    return (int) ((word >>> (slot * fingerprintBits)) & fingerprintMask);
+  }
+
+  private long withSlot(long word, int slot, int fingerprint) {
+    final int shift = slot * fingerprintBits;
+    return (word & ~(fingerprintMask << shift)) | ((long) fingerprint << shift);
+  }
+
+  /**
+   * @return the first slot of the bucket holding <tt>fingerprint</tt> or <tt>-1</tt>.
+   */
+  private int findSlot(long word, int fingerprint) {
+    for (int slot = 0; slot < SLOTS_PER_BUCKET; slot++) {
+      if (slotFingerprint(word, slot) == fingerprint) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Adds a fingerprint to <tt>b1</tt> or to its alternative bucket, displacing other
+   * fingerprints if both are full.
+   */
+  private boolean addFingerprint(int b1, int fingerprint) {
+    final int b2 = altIndex(b1, fingerprint);
+
+    for (;;) {
+      stripes.lockPair(b1, b2);
+      try {
+        if (store(b1, b2, b1, fingerprint) || store(b1, b2, b2, fingerprint)) {
+          count.increment();
+          return true;
+        }
+      } finally {
+        stripes.unlockPair(b1, b2);
+      }
+
+      // Both buckets are full: free a slot in one of them and try again. The path is
+      // searched without holding any lock and checked again while applying each move.
+      final CuckooStripes.Path path = CuckooStripes.searchPath(this::alternative,
+          SLOTS_PER_BUCKET, MAX_SEARCH_NODES, b1, b2);
+      if (path == null) {
+        return false;
+      }
+      movePath(path);
+    }
+  }
+
+  /**
+   * Stores <tt>fingerprint</tt> in the first free slot of <tt>bucket</tt>, one of
+   * <tt>b1</tt> or <tt>b2</tt>. Must be called while holding the stripes of both.
+   *
+   * @return <tt>false</tt> if the bucket is full.
+   */
+  private boolean store(int b1, int b2, int bucket, int fingerprint) {
+    final long word = buckets.get(bucket);
+    final int slot = findSlot(word, 0);
+    if (slot < 0) {
+      return false;
+    }
+
+    stripes.bumpVersions(b1, b2);
+    buckets.set(bucket, withSlot(word, slot, fingerprint));
+    stripes.bumpVersions(b1, b2);
+    return true;
+  }
+
+  /**
+   * @return the bucket the fingerprint in <tt>slot</tt> would move to, or <tt>-1</tt> if
+   * the slot is free.
+   */
+  private int alternative(int bucket, int slot) {
+    final int fingerprint = slotFingerprint(buckets.get(bucket), slot);
+    return fingerprint != 0 ? altIndex(bucket, fingerprint) : -1;
+  }
+
+  /**
+   * Applies the moves of <tt>path</tt> starting from the free end, so that at any point in
+   * time every fingerprint is in one of its two buckets. Each move is checked again under
+   * the locks of the two buckets involved, and we give up on the path as soon as one of
+   * them is not valid anymore: the caller will then search again.
+   */
+  private void movePath(CuckooStripes.Path path) {
+    for (int i = path.buckets.length - 2; i >= 0; i--) {
+      final int fromBucket = path.buckets[i];
+      final int fromSlot = path.slots[i];
+      final int toBucket = path.buckets[i + 1];
+      final int toSlot = path.slots[i + 1];
+
+      stripes.lockPair(fromBucket, toBucket);
+      try {
+        // The fingerprint may have changed since the search, which is fine as long as it
+        // still moves to the next bucket of the path.
+        final int fingerprint = slotFingerprint(buckets.get(fromBucket), fromSlot);
+        if (fingerprint == 0
+            || altIndex(fromBucket, fingerprint) != toBucket
+            || slotFingerprint(buckets.get(toBucket), toSlot) != 0) {
+          return;
+        }
+
+        stripes.bumpVersions(fromBucket, toBucket);
+        // A fingerprint can have the same bucket as its alternative one, in which case
+        // both updates apply to the same word.
+        buckets.set(toBucket, withSlot(buckets.get(toBucket), toSlot, fingerprint));
+        buckets.set(fromBucket, withSlot(buckets.get(fromBucket), fromSlot, 0));
+        stripes.bumpVersions(fromBucket, toBucket);
+      } finally {
+        stripes.unlockPair(fromBucket, toBucket);
+      }
+    }
+  }
+}
@@ -0,0 +1,729 @@
+package com.github.kratorius.cuckoohash;
+
+import com.github.kratorius.cuckoohash.CuckooHashMap.HashFunction;
+import com.github.kratorius.cuckoohash.CuckooHashMap.HashFunctionFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe cuckoo hash table implementing the <tt>ConcurrentMap</tt> interface,
+ * following the design of <a href="https://github.com/efficient/libcuckoo">libcuckoo</a>.
+ * Like any other <tt>ConcurrentMap</tt> this map does not permit <code>null</code> keys
+ * or values.
+ * <p>
+ * The two tables are divided in buckets of 4 slots, and buckets are protected by a
+ * fixed number of striped locks. Writers lock the stripes of the two candidate buckets
+ * of a key, always in increasing order so that no deadlock can happen. When both
+ * buckets are full, the writer looks for the shortest path of displacements leading to
+ * a free slot with a bounded breadth-first search, then applies the moves one at a time
+ * starting from the free end of the path, holding only the two stripes involved in each
+ * move.
+ * <p>
+ * Every stripe also carries a version counter that writers bump before and after
+ * modifying a bucket. Readers never lock: <tt>get</tt> reads the versions of its two
+ * stripes, scans the buckets and retries only if either version changed in the
+ * meantime, so a reader never misses a key that is being moved between tables.
+ * <p>
+ * The table only grows when no displacement path can be found. Resizing takes all the
+ * stripes so writers wait for it to complete, but readers keep going on the old tables,
+ * which are not modified, until the new ones are published.
+ * <p>
+ * Iterators are weakly consistent: they never throw
+ * {@link ConcurrentModificationException} and return the mappings as they were at some
+ * point while they were being created, each exactly once, without reflecting later
+ * updates. To do so they copy the tables, which only blocks writers if they keep
+ * modifying the map during the copy.
+ *
+ * @param <K>  the type of keys maintained by this map
+ * @param <V>  the type of mapped values
+ */
+@SuppressWarnings("WeakerAccess")
+public class ConcurrentCuckooHashMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+  private static final int SLOTS_PER_BUCKET = 4;
+  private static final int DEFAULT_START_SIZE = 64;
+  private static final int DEFAULT_LOCK_STRIPES = 1024;
+
+  // Bounds the breadth-first search for a path to a free slot. With 4 slots per bucket
+  // this is enough to explore every path of up to 4 displacements.
+  private static final int MAX_SEARCH_NODES = 2 * (1 + 4 + 16 + 64 + 256);
+
+  // Largest number of buckets per table, so that the slots of a table fit in an array.
+  private static final int MAX_BUCKETS = CuckooTables.MAX_TABLE_SIZE / SLOTS_PER_BUCKET;
+
+  // With working hash functions a table twice as large always has room for every item:
+  // if doubling it this many times still doesn't help, the keys collide.
+  private static final int MAX_DOUBLINGS = 4;
+
+  // Readers give up on optimistic reads and lock the stripes after these many attempts.
+  private static final int MAX_OPTIMISTIC_READS = 64;
+
+  // Same for iterators, which copy the whole table and so are more likely to be
+  // interrupted by a writer.
+  private static final int MAX_OPTIMISTIC_SNAPSHOTS = 4;
+
+  /**
+   * The two tables along with the hash functions used to index them. A table is never
+   * replaced in place: resizing builds a new one and publishes it once complete.
+   */
+  private static final class Table implements CuckooStripes.Buckets {
+    final int buckets;
+    final HashFunction hashFunction1;
+    final HashFunction hashFunction2;
+    final AtomicReferenceArray<Object> keys1;
+    final AtomicReferenceArray<Object> values1;
+    final AtomicReferenceArray<Object> keys2;
+    final AtomicReferenceArray<Object> values2;
+
+    Table(int buckets, HashFunctionFactory hashFunctionFactory) {
+      this.buckets = buckets;
+      this.hashFunction1 = hashFunctionFactory.generate(buckets);
+      this.hashFunction2 = hashFunctionFactory.generate(buckets);
+      this.keys1 = new AtomicReferenceArray<>(buckets * SLOTS_PER_BUCKET);
+      this.values1 = new AtomicReferenceArray<>(buckets * SLOTS_PER_BUCKET);
+      this.keys2 = new AtomicReferenceArray<>(buckets * SLOTS_PER_BUCKET);
+      this.values2 = new AtomicReferenceArray<>(buckets * SLOTS_PER_BUCKET);
+    }
+
+    int bucket(int table, Object key) {
+      return (table == 0 ? hashFunction1 : hashFunction2).hash(key);
+    }
+
+    AtomicReferenceArray<Object> keys(int table) {
+      return table == 0 ? keys1 : keys2;
+    }
+
+    AtomicReferenceArray<Object> values(int table) {
+      return table == 0 ? values1 : values2;
+    }
+
+    /**
+     * The path search goes through the buckets of both tables, so each of its nodes is a
+     * bucket along with its table.
+     */
+    @Override
+    public int alternative(int node, int slot) {
+      final Object key = keys(node & 1).get((node >> 1) * SLOTS_PER_BUCKET + slot);
+      if (key == null) {
+        return -1;
+      }
+      final int other = 1 - (node & 1);
+      return node(other, bucket(other, key));
+    }
+  }
+
+  private final HashFunctionFactory hashFunctionFactory;
+  private final int defaultBuckets;
+  private final CuckooStripes stripes;
+  private final LongAdder count = new LongAdder();
+
+  private volatile Table table;
+
+  /**
+   * Constructs an empty <tt>ConcurrentCuckooHashMap</tt> with the default initial
+   * capacity (64).
+   */
+  public ConcurrentCuckooHashMap() {
+    this(DEFAULT_START_SIZE);
+  }
+
+  /**
+   * Constructs an empty <tt>ConcurrentCuckooHashMap</tt> with the specified initial
+   * capacity. The given capacity will be rounded to the nearest power of two.
+   *
+   * @param initialCapacity  the initial capacity.
+   */
+  public ConcurrentCuckooHashMap(int initialCapacity) {
+    this(initialCapacity, DEFAULT_LOCK_STRIPES, new CuckooHashMap.DefaultHashFunctionFactory());
+  }
+
+  /**
+   * @param initialCapacity  the initial capacity.
+   * @param lockStripes  the number of locks protecting the buckets, rounded to the nearest
+   *                     power of two. More stripes mean less contention between writers
+   *                     but slower resizes.
+   * @param hashFunctionFactory  the factory of the hash functions indexing the tables.
+   */
+  public ConcurrentCuckooHashMap(int initialCapacity, int lockStripes,
+                                 HashFunctionFactory hashFunctionFactory) {
+    if (initialCapacity <= 0) {
+      throw new IllegalArgumentException("initial capacity must be strictly positive");
+    }
+    if (lockStripes <= 0) {
+      throw new IllegalArgumentException("the number of lock stripes must be strictly positive");
+    }
+
+    this.hashFunctionFactory = hashFunctionFactory;
+    // Each table needs at least two buckets.
+    this.defaultBuckets = Math.max(CuckooTables.roundPowerOfTwo(initialCapacity) / (2 * SLOTS_PER_BUCKET), 2);
+
+    this.stripes = new CuckooStripes(CuckooTables.roundPowerOfTwo(lockStripes));
+
+    this.table = new Table(defaultBuckets, hashFunctionFactory);
+  }
+
+  @Override
+  public V get(Object key) {
+    return getOrDefault(key, null);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V getOrDefault(Object key, V defaultValue) {
+    if (key == null) {
+      throw new NullPointerException();
+    }
+
+    for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+      final Table t = table;
+      final int b1 = t.hashFunction1.hash(key);
+      final int b2 = t.hashFunction2.hash(key);
+      final int s1 = stripes.stripe(b1);
+      final int s2 = stripes.stripe(b2);
+
+      final long v1 = stripes.version(s1);
+      final long v2 = stripes.version(s2);
+      if (((v1 | v2) & 1) != 0) {
+        // A writer is modifying one of the buckets.
+        continue;
+      }
+
+      Object value = find(t, 0, b1, key);
+      if (value == null) {
+        value = find(t, 1, b2, key);
+      }
+
+      if (stripes.version(s1) == v1 && stripes.version(s2) == v2 && table == t) {
+        return value != null ? (V) value : defaultValue;
+      }
+    }
+
+    // Too much contention on the stripes, give up and take the locks.
+    for (;;) {
+      final Table t = table;
+      final int b1 = t.hashFunction1.hash(key);
+      final int b2 = t.hashFunction2.hash(key);
+      stripes.lockPair(b1, b2);
+      try {
+        if (table != t) {
+          continue;
+        }
+        Object value = find(t, 0, b1, key);
+        if (value == null) {
+          value = find(t, 1, b2, key);
+        }
+        return value != null ? (V) value : defaultValue;
+      } finally {
+        stripes.unlockPair(b1, b2);
+      }
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public V put(K key, V value) {
+    return insert(key, value, false);
+  }
+
+  @Override
+  public V putIfAbsent(K key, V value) {
+    return insert(key, value, true);
+  }
+
+  @Override
+  public V remove(Object key) {
+    if (key == null) {
+      throw new NullPointerException();
+    }
+    return update(key, null, null, false);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    if (key == null) {
+      throw new NullPointerException();
+    }
+    return value != null && update(key, value, null, false) != null;
+  }
+
+  @Override
+  public boolean replace(K key, V oldValue, V newValue) {
+    if (key == null || oldValue == null || newValue == null) {
+      throw new NullPointerException();
+    }
+    return update(key, oldValue, newValue, true) != null;
+  }
+
+  @Override
+  public V replace(K key, V value) {
+    if (key == null || value == null) {
+      throw new NullPointerException();
+    }
+    return update(key, null, value, true);
+  }
+
+  @Override
+  public void clear() {
+    stripes.lockAll();
+    try {
+      table = new Table(defaultBuckets, hashFunctionFactory);
+      count.reset();
+    } finally {
+      stripes.unlockAll();
+    }
+  }
+
+  @Override
+  public int size() {
+    final long size = count.sum();
+    return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return count.sum() <= 0;
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new AbstractSet<Entry<K, V>>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return ConcurrentCuckooHashMap.this.size();
+      }
+
+      @Override
+      public void clear() {
+        ConcurrentCuckooHashMap.this.clear();
+      }
+    };
+  }
+
+  /**
+   * Iterator over a copy of the slots of both tables. Keys can move from one table to the
+   * other at any time, so walking the live tables could return a key twice or miss it.
+   * The copy is only kept if no stripe version changed while it was being taken, and it's
+   * taken under all the stripes after a few failed attempts.
+   */
+  private class EntryIterator implements Iterator<Entry<K, V>> {
+    private Object[] keys;
+    private Object[] values;
+    private int slot = 0;
+    private Entry<K, V> next;
+    private Entry<K, V> last;
+
+    EntryIterator() {
+      if (!copyOptimistically()) {
+        stripes.lockAll();
+        try {
+          copy(table);
+        } finally {
+          stripes.unlockAll();
+        }
+      }
+      advance();
+    }
+
+    private boolean copyOptimistically() {
+      for (int attempt = 0; attempt < MAX_OPTIMISTIC_SNAPSHOTS; attempt++) {
+        final Table t = table;
+        final long[] before = stripes.versions();
+        if (before == null) {
+          // A writer is modifying one of the buckets.
+          continue;
+        }
+
+        copy(t);
+        if (table == t && Arrays.equals(before, stripes.versions())) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void copy(Table t) {
+      final int length = t.keys1.length();
+      if (keys == null || keys.length != 2 * length) {
+        keys = new Object[2 * length];
+        values = new Object[2 * length];
+      }
+      for (int i = 0; i < length; i++) {
+        keys[i] = t.keys1.get(i);
+        values[i] = t.values1.get(i);
+        keys[length + i] = t.keys2.get(i);
+        values[length + i] = t.values2.get(i);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void advance() {
+      next = null;
+      while (slot < keys.length) {
+        final Object key = keys[slot];
+        final Object value = values[slot];
+        slot++;
+        if (key != null) {
+          next = new SimpleImmutableEntry<>((K) key, (V) value);
+          return;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Entry<K, V> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      last = next;
+      advance();
+      return last;
+    }
+
+    @Override
+    public void remove() {
+      if (last == null) {
+        throw new IllegalStateException();
+      }
+      ConcurrentCuckooHashMap.this.remove(last.getKey(), last.getValue());
+      last = null;
+    }
+  }
+
+  /**
+   * @return the value associated to <tt>key</tt> in the given bucket or <tt>null</tt>.
+   */
+  private static Object find(Table t, int table, int bucket, Object key) {
+    final AtomicReferenceArray<Object> keys = t.keys(table);
+    final int start = bucket * SLOTS_PER_BUCKET;
+    for (int i = start; i < start + SLOTS_PER_BUCKET; i++) {
+      final Object k = keys.get(i);
+      if (k != null && k.equals(key)) {
+        return t.values(table).get(i);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the slot containing <tt>key</tt> in the given bucket or <tt>-1</tt>.
+   */
+  private static int findSlot(Table t, int table, int bucket, Object key) {
+    final AtomicReferenceArray<Object> keys = t.keys(table);
+    final int start = bucket * SLOTS_PER_BUCKET;
+    for (int i = start; i < start + SLOTS_PER_BUCKET; i++) {
+      final Object k = keys.get(i);
+      if (k != null && k.equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the first free slot in the given bucket or <tt>-1</tt> if the bucket is full.
+   */
+  private static int findFreeSlot(Table t, int table, int bucket) {
+    final AtomicReferenceArray<Object> keys = t.keys(table);
+    final int start = bucket * SLOTS_PER_BUCKET;
+    for (int i = start; i < start + SLOTS_PER_BUCKET; i++) {
+      if (keys.get(i) == null) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private V insert(K key, V value, boolean onlyIfAbsent) {
+    if (key == null || value == null) {
+      throw new NullPointerException();
+    }
+
+    int resizes = 0;
+    for (;;) {
+      final Table t = table;
+      final int b1 = t.hashFunction1.hash(key);
+      final int b2 = t.hashFunction2.hash(key);
+
+      stripes.lockPair(b1, b2);
+      try {
+        if (table != t) {
+          // The map has been resized while we were waiting for the locks.
+          continue;
+        }
+
+        int slot;
+        if ((slot = findSlot(t, 0, b1, key)) >= 0) {
+          return replaceValue(t, 0, slot, b1, b2, value, onlyIfAbsent);
+        }
+        if ((slot = findSlot(t, 1, b2, key)) >= 0) {
+          return replaceValue(t, 1, slot, b1, b2, value, onlyIfAbsent);
+        }
+
+        // Like CuckooHashMap we're biased towards adding items in T1.
+        if ((slot = findFreeSlot(t, 0, b1)) >= 0) {
+          store(t, 0, slot, key, value, b1, b2);
+          return null;
+        }
+        if ((slot = findFreeSlot(t, 1, b2)) >= 0) {
+          store(t, 1, slot, key, value, b1, b2);
+          return null;
+        }
+      } finally {
+        stripes.unlockPair(b1, b2);
+      }
+
+      // Both buckets are full: free a slot in one of them and try again. The path is
+      // searched without holding any lock and checked again while applying each move.
+      final CuckooStripes.Path path = searchPath(t, b1, b2);
+      if (path == null) {
+        // The tables grew enough for any key to fit, unless its buckets keep being
+        // filled by keys that collide with it.
+        if (++resizes > MAX_DOUBLINGS) {
+          throw new IllegalStateException(
+              "no slot can be found for the key, the hash functions may be too weak");
+        }
+        resize(t);
+      } else {
+        movePath(t, path);
+      }
+    }
+  }
+
+  /**
+   * Must be called while holding the stripes of <tt>b1</tt> and <tt>b2</tt>.
+   */
+  @SuppressWarnings("unchecked")
+  private V replaceValue(Table t, int table, int slot, int b1, int b2, V value,
+                         boolean onlyIfAbsent) {
+    final V old = (V) t.values(table).get(slot);
+    if (!onlyIfAbsent) {
+      stripes.bumpVersions(b1, b2);
+      t.values(table).set(slot, value);
+      stripes.bumpVersions(b1, b2);
+    }
+    return old;
+  }
+
+  /**
+   * Must be called while holding the stripes of <tt>b1</tt> and <tt>b2</tt>.
+   */
+  private void store(Table t, int table, int slot, Object key, Object value, int b1, int b2) {
+    stripes.bumpVersions(b1, b2);
+    t.values(table).set(slot, value);
+    t.keys(table).set(slot, key);
+    stripes.bumpVersions(b1, b2);
+    count.increment();
+  }
+
+  /**
+   * Removes or replaces the value of <tt>key</tt>.
+   *
+   * @param expected  if not <tt>null</tt>, the operation only happens if the key is
+   *                  currently mapped to this value.
+   * @param newValue  the new value or <tt>null</tt> to remove the key.
+   * @param replace  whether we're replacing or removing.
+   * @return the previous value or <tt>null</tt> if nothing changed.
+   */
+  @SuppressWarnings("unchecked")
+  private V update(Object key, Object expected, Object newValue, boolean replace) {
+    for (;;) {
+      final Table t = table;
+      final int b1 = t.hashFunction1.hash(key);
+      final int b2 = t.hashFunction2.hash(key);
+
+      stripes.lockPair(b1, b2);
+      try {
+        if (table != t) {
+          continue;
+        }
+
+        int tableIndex = 0;
+        int slot = findSlot(t, 0, b1, key);
+        if (slot < 0) {
+          tableIndex = 1;
+          slot = findSlot(t, 1, b2, key);
+        }
+        if (slot < 0) {
+          return null;
+        }
+
+        final V old = (V) t.values(tableIndex).get(slot);
+        if (expected != null && !expected.equals(old)) {
+          return null;
+        }
+
+        stripes.bumpVersions(b1, b2);
+        if (replace) {
+          t.values(tableIndex).set(slot, newValue);
+        } else {
+          t.keys(tableIndex).set(slot, null);
+          t.values(tableIndex).set(slot, null);
+          count.decrement();
+        }
+        stripes.bumpVersions(b1, b2);
+        return old;
+      } finally {
+        stripes.unlockPair(b1, b2);
+      }
+    }
+  }
+
+  /**
+   * Searches a path freeing a slot in <tt>b1</tt> (in T1) or <tt>b2</tt> (in T2). The
+   * table is read without locks, so the path may be stale by the time it's applied.
+   */
+  private static CuckooStripes.Path searchPath(Table t, int b1, int b2) {
+    return CuckooStripes.searchPath(t, SLOTS_PER_BUCKET, MAX_SEARCH_NODES, node(0, b1),
+        node(1, b2));
+  }
+
+  /**
+   * @return the node of the path search for a bucket of a table: the bucket in the
+   * highest bits and the table in the lowest one.
+   */
+  private static int node(int table, int bucket) {
+    return bucket << 1 | table;
+  }
+
+  /**
+   * Applies the moves of <tt>path</tt> starting from the free end, so that at any point in
+   * time every key is in one of its two buckets. Each move is checked again under the
+   * locks of the two buckets involved, and we give up on the path as soon as one of them
+   * is not valid anymore: the caller will then search again.
+   */
+  private void movePath(Table t, CuckooStripes.Path path) {
+    for (int i = path.buckets.length - 2; i >= 0; i--) {
+      final int fromTable = path.buckets[i] & 1;
+      final int fromBucket = path.buckets[i] >> 1;
+      final int fromSlot = fromBucket * SLOTS_PER_BUCKET + path.slots[i];
+      final int toTable = path.buckets[i + 1] & 1;
+      final int toBucket = path.buckets[i + 1] >> 1;
+      final int toSlot = toBucket * SLOTS_PER_BUCKET + path.slots[i + 1];
+
+      stripes.lockPair(fromBucket, toBucket);
+      try {
+        // The key may have changed since the search, which is fine as long as it still
+        // moves to the next bucket of the path.
+        final Object key = t.keys(fromTable).get(fromSlot);
+        if (table != t
+            || key == null
+            || t.bucket(toTable, key) != toBucket
+            || t.keys(toTable).get(toSlot) != null) {
+          return;
+        }
+
+        stripes.bumpVersions(fromBucket, toBucket);
+        t.values(toTable).set(toSlot, t.values(fromTable).get(fromSlot));
+        t.keys(toTable).set(toSlot, key);
+        t.keys(fromTable).set(fromSlot, null);
+        t.values(fromTable).set(fromSlot, null);
+        stripes.bumpVersions(fromBucket, toBucket);
+      } finally {
+        stripes.unlockPair(fromBucket, toBucket);
+      }
+    }
+  }
+
+  /**
+   * Doubles the size of the tables, unless somebody else already replaced <tt>t</tt>. The
+   * items are copied by the calling thread while holding all the stripes.
+   *
+   * @throws IllegalStateException if the items can't be placed even after doubling the
+   * tables {@link #MAX_DOUBLINGS} times, or if they would exceed {@link #MAX_BUCKETS}.
+   */
+  private void resize(Table t) {
+    stripes.lockAll();
+    try {
+      if (table != t) {
+        return;
+      }
+
+      int buckets = t.buckets;
+      for (int doubling = 0; doubling < MAX_DOUBLINGS; doubling++) {
+        if (buckets >= MAX_BUCKETS) {
+          throw new IllegalStateException("the map can't grow beyond its maximum capacity");
+        }
+        buckets <<= 1;
+        final Table next = new Table(buckets, hashFunctionFactory);
+        if (copy(t, next)) {
+          table = next;
+          return;
+        }
+      }
+      throw new IllegalStateException(
+          "the items can't be placed in larger tables, the hash functions may be too weak");
+    } finally {
+      stripes.unlockAll();
+    }
+  }
+
+  /**
+   * Adds all the items of <tt>from</tt> to the unpublished table <tt>to</tt>, without
+   * locking.
+   *
+   * @return <tt>false</tt> if one of the items couldn't be placed.
+   */
+  private static boolean copy(Table from, Table to) {
+    for (int table = 0; table < 2; table++) {
+      final AtomicReferenceArray<Object> keys = from.keys(table);
+      final AtomicReferenceArray<Object> values = from.values(table);
+      for (int i = 0; i < keys.length(); i++) {
+        final Object key = keys.get(i);
+        if (key != null && !insertUnpublished(to, key, values.get(i))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean insertUnpublished(Table t, Object key, Object value) {
+    final int b1 = t.hashFunction1.hash(key);
+    final int b2 = t.hashFunction2.hash(key);
+
+    int slot;
+    int tableIndex = 0;
+    if ((slot = findFreeSlot(t, 0, b1)) < 0) {
+      tableIndex = 1;
+      if ((slot = findFreeSlot(t, 1, b2)) < 0) {
+        final CuckooStripes.Path path = searchPath(t, b1, b2);
+        if (path == null) {
+          return false;
+        }
+
+        // Nobody else can see this table, so the moves can't fail.
+        for (int i = path.buckets.length - 2; i >= 0; i--) {
+          final int from = path.buckets[i] & 1;
+          final int fromSlot = (path.buckets[i] >> 1) * SLOTS_PER_BUCKET + path.slots[i];
+          final int to = path.buckets[i + 1] & 1;
+          final int toSlot = (path.buckets[i + 1] >> 1) * SLOTS_PER_BUCKET + path.slots[i + 1];
+          t.keys(to).set(toSlot, t.keys(from).get(fromSlot));
+          t.values(to).set(toSlot, t.values(from).get(fromSlot));
+        }
+        tableIndex = path.buckets[0] & 1;
+        slot = (path.buckets[0] >> 1) * SLOTS_PER_BUCKET + path.slots[0];
+      }
+    }
+
+    t.keys(tableIndex).set(slot, key);
+    t.values(tableIndex).set(slot, value);
+    return true;
+  }
+}
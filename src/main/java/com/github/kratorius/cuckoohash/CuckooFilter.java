@@ -0,0 +1,422 @@
+package com.github.kratorius.cuckoohash;
+
+import com.github.kratorius.cuckoohash.CuckooHashMap.HashFunction;
+import com.github.kratorius.cuckoohash.CuckooHashMap.HashFunctionFactory;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate set membership filter that, unlike a Bloom filter, supports deletions.
+ * <p>
+ * The filter keeps a small fingerprint (8, 12 or 16 bits) of each item in a table of
+ * buckets of 4 slots, packed in a <code>long[]</code>. It uses partial-key cuckoo
+ * hashing: an item can be stored in either bucket <tt>i1 = hash(item)</tt> or
+ * <tt>i2 = i1 ^ hash(fingerprint)</tt>, so the alternative bucket of a fingerprint can
+ * be computed without knowing the item, and fingerprints can be moved around like the
+ * items of a {@link CuckooHashMap}. See "Cuckoo Filter: Practically Better Than Bloom"
+ * by Fan, Andersen, Kaminsky and Mitzenmacher.
+ * <p>
+ * {@link #mightContain(Object)} never returns <tt>false</tt> for an item that has
+ * been added (and not deleted), and returns <tt>true</tt> for other items with a
+ * probability close to <tt>8 / 2^fingerprintBits</tt>. Items are hashed through their
+ * <tt>hashCode()</tt>, so items with the same hash code are indistinguishable.
+ * Only items that have been added can be {@link #delete(Object) deleted}, otherwise
+ * the fingerprint of another item may be removed. The same item can be added up to 8
+ * times.
+ * <p>
+ * Note that this implementation is not synchronized and not thread safe.
+ *
+ * @param <T>  the type of the items
+ */
+@SuppressWarnings("WeakerAccess")
+public class CuckooFilter<T> {
+  static final int SLOTS_PER_BUCKET = 4;
+  private static final int[] FINGERPRINT_BITS = {8, 12, 16};
+  static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+  // The table is sized so that the expected items fill at most this fraction of the
+  // slots, close to the maximum load reachable with buckets of 4 slots.
+  private static final double MAX_LOAD = 0.95;
+
+  // Maximum number of fingerprints kicked out of their slot by a single insertion.
+  private static final int MAX_KICKS = 500;
+
+  private static final Random RANDOM = new Random();
+
+  private final int fingerprintBits;
+  private final int fingerprintMask;
+  private final int buckets;
+  private final int bucketBits;
+  private final HashFunction indexHashFunction;
+  private final HashFunction fingerprintHashFunction;
+
+  // Slot s takes bits [s * fingerprintBits, (s + 1) * fingerprintBits), and an empty
+  // slot holds a 0 fingerprint.
+  private final long[] table;
+  private int size = 0;
+
+  // A fingerprint that couldn't be placed by the last failed insertion, keeping it
+  // aside guarantees that nothing that was added is ever lost.
+  private int victimFingerprint = 0;
+  private int victimBucket;
+
+  /**
+   * Constructs an empty <tt>CuckooFilter</tt> for the given number of items with a
+   * false positive rate of about 1%.
+   *
+   * @param expectedItems  the number of items the filter must be able to hold.
+   */
+  public CuckooFilter(int expectedItems) {
+    this(expectedItems, DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * Constructs an empty <tt>CuckooFilter</tt> for the given number of items, whose
+   * fingerprints are large enough to keep the false positive rate below
+   * <tt>falsePositiveRate</tt>.
+   *
+   * @param expectedItems  the number of items the filter must be able to hold.
+   * @param falsePositiveRate  the maximum false positive rate, no lower than
+   *                           <tt>8 / 2^16</tt>.
+   */
+  public CuckooFilter(int expectedItems, double falsePositiveRate) {
+    this(expectedItems, fingerprintBits(falsePositiveRate), new MixingHashFunctionFactory());
+  }
+
+  /**
+   * Constructs an empty <tt>CuckooFilter</tt> for the given number of items with
+   * fingerprints of <tt>fingerprintBits</tt> bits.
+   *
+   * @param expectedItems  the number of items the filter must be able to hold.
+   * @param fingerprintBits  the size of fingerprints, either 8, 12 or 16 bits.
+   * @param hashFunctionFactory  the factory of the hash functions used to pick the first
+   *                             bucket and the fingerprint of the items. Unlike a map,
+   *                             the filter can't switch to other hash functions when
+   *                             they distribute the items poorly.
+   */
+  public CuckooFilter(int expectedItems, int fingerprintBits,
+                      HashFunctionFactory hashFunctionFactory) {
+    checkFingerprintBits(fingerprintBits);
+
+    this.fingerprintBits = fingerprintBits;
+    this.fingerprintMask = (1 << fingerprintBits) - 1;
+    this.bucketBits = bucketBits(expectedItems);
+    this.buckets = 1 << bucketBits;
+
+    this.indexHashFunction = hashFunctionFactory.generate(buckets);
+    this.fingerprintHashFunction = hashFunctionFactory.generate(1 << fingerprintBits);
+
+    final long bits = (long) buckets * SLOTS_PER_BUCKET * fingerprintBits;
+    this.table = new long[(int) ((bits + Long.SIZE - 1) / Long.SIZE)];
+  }
+
+  /**
+   * Factory of the default hash functions of the filters, which run the hash code of the
+   * items through the finalizer of MurmurHash3 after mixing in a random seed.
+   * <p>
+   * The hash functions of {@link CuckooHashMap} are cheaper, but items with sequential
+   * hash codes may end up with correlated buckets and fingerprints: a map can rehash
+   * when that happens, while a filter would fill up early or see more false positives.
+   */
+  static class MixingHashFunctionFactory implements HashFunctionFactory {
+    private static final Random RANDOM = new Random();
+
+    static class MixingHashFunction implements HashFunction {
+      final int seed;
+      final int hashBits;
+
+      /**
+       * @param buckets  the number of buckets, must be a power of two.
+       */
+      MixingHashFunction(int seed, int buckets) {
+        this.seed = seed;
+        this.hashBits = 31 - Integer.numberOfLeadingZeros(buckets);
+      }
+
+      @Override
+      public int hash(Object obj) {
+        int h = obj.hashCode() ^ seed;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h >>> (32 - hashBits);
+      }
+    }
+
+    @Override
+    public HashFunction generate(int buckets) {
+      return new MixingHashFunction(RANDOM.nextInt(), buckets);
+    }
+  }
+
+  /**
+   * @return the log2 of the number of buckets needed to hold <tt>expectedItems</tt>.
+   */
+  static int bucketBits(int expectedItems) {
+    if (expectedItems <= 0) {
+      throw new IllegalArgumentException("expected items must be strictly positive");
+    }
+
+    // At least two buckets, so that items have two distinct candidates.
+    final long minBuckets = (long) Math.ceil(expectedItems / (MAX_LOAD * SLOTS_PER_BUCKET));
+    final int bucketBits = Math.max(1, 64 - Long.numberOfLeadingZeros(minBuckets - 1));
+    if (bucketBits > 28) {
+      throw new IllegalArgumentException("too many expected items");
+    }
+    return bucketBits;
+  }
+
+  static void checkFingerprintBits(int fingerprintBits) {
+    if (fingerprintBits != 8 && fingerprintBits != 12 && fingerprintBits != 16) {
+      throw new IllegalArgumentException("fingerprints must be 8, 12 or 16 bits long");
+    }
+  }
+
+  /**
+   * @return the smallest supported fingerprint size whose false positive rate is no
+   * higher than <tt>falsePositiveRate</tt>.
+   */
+  static int fingerprintBits(double falsePositiveRate) {
+    if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("false positive rate must be in the (0, 1) range");
+    }
+    for (int bits : FINGERPRINT_BITS) {
+      if (falsePositiveRate(bits) <= falsePositiveRate) {
+        return bits;
+      }
+    }
+    throw new IllegalArgumentException("false positive rate must be at least "
+        + falsePositiveRate(FINGERPRINT_BITS[FINGERPRINT_BITS.length - 1]));
+  }
+
+  /**
+   * An item that is not in the filter matches one of the 8 fingerprints in its two
+   * buckets with a probability of about <tt>8 / 2^bits</tt>.
+   */
+  static double falsePositiveRate(int bits) {
+    return 2.0 * SLOTS_PER_BUCKET / (1 << bits);
+  }
+
+  /**
+   * Adds an item to the filter.
+   * <p>
+   * When both buckets of the item are full, fingerprints are kicked out to their
+   * alternative bucket a bounded number of times. If that's not enough, the item is still
+   * added but the last fingerprint kicked out is kept aside as a victim, so that nothing
+   * that was added is lost. The filter is then full: every following call returns
+   * <tt>false</tt>, even for items that would fit, until {@link #delete(Object)} frees a
+   * slot where the victim can go, or until the filter is {@link #clear() cleared}.
+   *
+   * @return <tt>true</tt> if the item was added, or <tt>false</tt> if the filter is full,
+   * in which case the filter is left unchanged.
+   */
+  public boolean add(T item) {
+    if (victimFingerprint != 0) {
+      // The last insertion already failed, and there's no room to keep another
+      // fingerprint aside.
+      return false;
+    }
+
+    int fingerprint = fingerprint(item);
+    int bucket = index(item);
+    if (insert(bucket, fingerprint) || insert(altIndex(bucket, fingerprint), fingerprint)) {
+      size++;
+      return true;
+    }
+
+    // Both buckets are full: kick out random fingerprints to their alternative bucket.
+    bucket = RANDOM.nextBoolean() ? bucket : altIndex(bucket, fingerprint);
+    for (int kick = 0; kick < MAX_KICKS; kick++) {
+      final int slot = bucket * SLOTS_PER_BUCKET + RANDOM.nextInt(SLOTS_PER_BUCKET);
+      final int evicted = readSlot(slot);
+      writeSlot(slot, fingerprint);
+
+      fingerprint = evicted;
+      bucket = altIndex(bucket, fingerprint);
+      if (insert(bucket, fingerprint)) {
+        size++;
+        return true;
+      }
+    }
+
+    // The new item is in the table but some other fingerprint is left without a slot:
+    // keep it aside so that the item it belongs to can still be found.
+    victimFingerprint = fingerprint;
+    victimBucket = bucket;
+    size++;
+    return true;
+  }
+
+  /**
+   * @return <tt>true</tt> if the item might have been added to the filter, or
+   * <tt>false</tt> if it has definitely not been added.
+   */
+  public boolean mightContain(T item) {
+    final int fingerprint = fingerprint(item);
+    final int bucket1 = index(item);
+    final int bucket2 = altIndex(bucket1, fingerprint);
+
+    return findSlot(bucket1, fingerprint) >= 0
+        || findSlot(bucket2, fingerprint) >= 0
+        || (victimFingerprint == fingerprint
+            && (victimBucket == bucket1 || victimBucket == bucket2));
+  }
+
+  /**
+   * Removes one copy of an item that was previously added to the filter.
+   *
+   * @return <tt>false</tt> if the item was not found in the filter.
+   */
+  public boolean delete(T item) {
+    final int fingerprint = fingerprint(item);
+    final int bucket1 = index(item);
+    final int bucket2 = altIndex(bucket1, fingerprint);
+
+    int slot = findSlot(bucket1, fingerprint);
+    if (slot < 0) {
+      slot = findSlot(bucket2, fingerprint);
+    }
+
+    if (slot >= 0) {
+      writeSlot(slot, 0);
+    } else if (victimFingerprint == fingerprint
+        && (victimBucket == bucket1 || victimBucket == bucket2)) {
+      // The victim was counted when it was added.
+      victimFingerprint = 0;
+      size--;
+      return true;
+    } else {
+      return false;
+    }
+
+    size--;
+    if (victimFingerprint != 0) {
+      // There might be room for the victim now.
+      final int victim = victimFingerprint;
+      victimFingerprint = 0;
+      if (!insert(victimBucket, victim) && !insert(altIndex(victimBucket, victim), victim)) {
+        victimFingerprint = victim;
+      }
+    }
+    return true;
+  }
+
+  public void clear() {
+    Arrays.fill(table, 0L);
+    victimFingerprint = 0;
+    size = 0;
+  }
+
+  /**
+   * @return the number of items in the filter.
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the number of fingerprints the filter has room for.
+   */
+  public int capacity() {
+    return buckets * SLOTS_PER_BUCKET;
+  }
+
+  public int getFingerprintBits() {
+    return fingerprintBits;
+  }
+
+  /**
+   * @return the size of the table of fingerprints, in bits.
+   */
+  public long sizeInBits() {
+    return (long) table.length * Long.SIZE;
+  }
+
+  /**
+   * @return the expected false positive rate of the filter when it's full.
+   */
+  public double expectedFalsePositiveRate() {
+    return falsePositiveRate(fingerprintBits);
+  }
+
+  private int index(T item) {
+    return indexHashFunction.hash(item);
+  }
+
+  /**
+   * @return the fingerprint of <tt>item</tt>, never 0 as that marks empty slots.
+   */
+  private int fingerprint(T item) {
+    final int fingerprint = fingerprintHashFunction.hash(item);
+    return fingerprint != 0 ? fingerprint : 1;
+  }
+
+  /**
+   * @return the other bucket of a fingerprint stored in <tt>bucket</tt>. Applying this
+   * twice gives back the original bucket.
+   */
+  private int altIndex(int bucket, int fingerprint) {
+    return altIndex(bucket, fingerprint, bucketBits);
+  }
+
+  static int altIndex(int bucket, int fingerprint, int bucketBits) {
+    // Multiplying by an odd constant spreads the fingerprint over all the bits.
+    return bucket ^ ((fingerprint * 0x5bd1e995) >>> (32 - bucketBits));
+  }
+
+  private boolean insert(int bucket, int fingerprint) {
+    final int slot = findSlot(bucket, 0);
+    if (slot < 0) {
+      return false;
+    }
+    writeSlot(slot, fingerprint);
+    return true;
+  }
+
+  /**
+   * @return the first slot of <tt>bucket</tt> holding <tt>fingerprint</tt> or
+   * <tt>-1</tt> if there's none.
+   */
+  private int findSlot(int bucket, int fingerprint) {
+    final int start = bucket * SLOTS_PER_BUCKET;
+    for (int slot = start; slot < start + SLOTS_PER_BUCKET; slot++) {
+      if (readSlot(slot) == fingerprint) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  private int readSlot(int slot) {
+    final long bit = (long) slot * fingerprintBits;
+    final int word = (int) (bit >>> 6);
+    final int shift = (int) bit & 63;
+
+    long value = table[word] >>> shift;
+    if (shift + fingerprintBits > Long.SIZE) {
+      value |= table[word + 1] << (Long.SIZE - shift);
+    }
+    return (int) value & fingerprintMask;
+  }
+
+  private void writeSlot(int slot, int fingerprint) {
+    final long bit = (long) slot * fingerprintBits;
+    final int word = (int) (bit >>> 6);
+    final int shift = (int) bit & 63;
+
+    table[word] = (table[word] & ~((long) fingerprintMask << shift))
+        | ((long) fingerprint << shift);
+    if (shift + fingerprintBits > Long.SIZE) {
+      final int high = Long.SIZE - shift;
+      table[word + 1] = (table[word + 1] & ~((long) fingerprintMask >>> high))
+          | ((long) fingerprint >>> high);
+    }
+  }
+}
@@ -1,6 +1,17 @@
 package com.github.kratorius.cuckoohash;
 
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 
 /**
  * Cuckoo hash table based implementation of the <tt>Map</tt> interface. This
@@ -18,14 +29,53 @@ import java.util.*;
  * of the map. The default capacity of an empty map is 16. The map will resize
  * its internal capacity whenever it grows past the load factor specified for the
  * current instance. The default load factor for this map is <code>0.45</code>.
+ * Removing items halves the capacity once the load drops below a quarter of the load
+ * factor (see {@link #setMinLoadFactor(float)}), and {@link #trimToSize()} shrinks it
+ * to the minimum needed by the current items.
  * Beware that this implementation can only guarantee non-amortized O(1) on
  * <tt>get</tt> iff the load factor is relatively low (generally below 0.60).
  * For more details, it's interesting to read <a href="http://www.it-c.dk/people/pagh/papers/cuckoo-jour.pdf">the
  * original Cuckoo Hash Map paper</a>.
  * <p>
+ * Each of the two internal tables is divided in buckets of <tt>slotsPerBucket</tt>
+ * slots (one by default). A lookup scans the bucket of the key in each table, so
+ * small buckets (e.g. 4 slots) keep the cost of <tt>get</tt> close to the single-slot
+ * case while allowing the map to run safely at load factors as high as
+ * <code>0.90</code>-<code>0.95</code>, that is with roughly half the memory needed by
+ * the default configuration.
+ * <p>
  * If many mappings are to be stored in a <tt>CuckooHashMap</tt> instance, creating
  * it with a sufficiently large capacity will allow the mappings to be stored more
  * efficiently than letting it perform automatic rehashing as needed to grow the table.
+ * <tt>putAll</tt> sizes the tables for all the new mappings up front, and
+ * {@link #bulkLoad(Map)} builds a map from existing mappings using all the available
+ * cores.
+ * <p>
+ * By default growing the map re-adds all the items at once, within the <tt>put</tt>
+ * that crossed the load factor. Maps created with <tt>incrementalResize</tt> set
+ * instead keep the old tables around while the items are moved to the new ones a
+ * few slots at a time by each following <tt>get</tt>, <tt>put</tt> and
+ * <tt>remove</tt>, so that no single operation has to walk the whole map. Only the
+ * rare insertion that overflows both tables and the stash still rebuilds the whole
+ * map in one go.
+ * <p>
+ * The map is {@link Serializable} as long as its {@link HashFunctionFactory} is, and
+ * {@link #writeSnapshot(OutputStream, Serializer, Serializer)} writes it in a compact
+ * binary format using custom serializers for the keys and values. Both write the
+ * items along with the parameters of the hash functions, so that restoring the map
+ * puts them straight back in their slots instead of adding them one by one.
+ * <p>
+ * Keys picked to share the same hash code (strings are easy to pick that way) can't
+ * be separated by any hash function of their hash code. When items can't be placed
+ * even though the tables are barely loaded, the map switches to hash functions keyed
+ * with random secrets that hash the content of strings and boxed primitives (see
+ * {@link SipHashFunctionFactory}), and keeps the items that still collide in an
+ * overflow next to the tables instead of growing them without bounds.
+ * <p>
+ * {@link #setStatsEnabled(boolean)} makes the map count the items moved around by
+ * insertions, the rehashes and resizes and the time they took, and which table
+ * lookups find their keys in. The counters can be read with {@link #getStats()} or
+ * through the MXBean returned by {@link #getStatsMXBean()}.
  * <p>
  * Note that this implementation is not synchronized and not thread safe. If you need
  * thread safety, you'll need to implement your own locking around the map or wrap
@@ -35,34 +85,76 @@ import java.util.*;
  * @param <V>  the type of mapped values
  */
 @SuppressWarnings("WeakerAccess")
-public class CuckooHashMap<K, V> extends AbstractMap<K, V> implements Map<K, V> {
-  // TODO implement Cloneable, Serializable and fail fast iterators.
+public class CuckooHashMap<K, V> extends AbstractMap<K, V> implements Map<K, V>, Serializable {
+  // TODO implement Cloneable.
+
+  private static final long serialVersionUID = 1L;
 
   private static final int THRESHOLD_LOOP = 8;
   private static final int DEFAULT_START_SIZE = 16;
   private static final float DEFAULT_LOAD_FACTOR = 0.45f;
+  private static final int DEFAULT_SLOTS_PER_BUCKET = 1;
+  private static final int MAX_SLOTS_PER_BUCKET = 16;
+
+  // Bounds the breadth-first search for a free slot done by putSafe(), and therefore the
+  // number of items a single insertion can move around.
+  private static final int MAX_SEARCH_NODES = 512;
+
+  // Number of items that can be kept aside when putSafe() fails, before having to
+  // rehash the whole map. A handful is enough to make rehashes rare: see "More Robust
+  // Hashing: Cuckoo Hashing with a Stash" by Kirsch, Mitzenmacher and Wieder.
+  private static final int STASH_SIZE = 4;
+
+  // Items that can't be placed in tables filled below this fraction of the load factor
+  // are considered to collide on purpose, see useKeyedHashing().
+  private static final float FLOODING_LOAD = 0.5f;
+
+  // Minimum number of slot indexes of the old tables (one slot of T1 and one of T2 each)
+  // migrated by every insertion and removal during an incremental resize.
+  private static final int MIGRATION_STEP = 8;
+
+  // Number of keys looked up together by getAll(): enough to keep many cache misses in
+  // flight, few enough for the scratch space to stay in L1.
+  static final int GET_ALL_BATCH = 32;
+
+  // Minimum number of items hashed by each task of a bulk load.
+  private static final int BULK_LOAD_CHUNK = 4096;
 
   private int defaultStartSize = DEFAULT_START_SIZE;
   private float loadFactor = DEFAULT_LOAD_FACTOR;
+  private float minLoadFactor;
 
-  private final HashFunctionFactory hashFunctionFactory;
-  private HashFunction hashFunction1;
-  private HashFunction hashFunction2;
+  private final int slotsPerBucket;
+  private final int bucketShift;
+
+  // Replaced with a SipHashFunctionFactory if the keys turn out to collide on purpose.
+  private HashFunctionFactory hashFunctionFactory;
+
+  private final boolean incrementalResize;
+  // Depends on minLoadFactor, see migrationStep().
+  private int migrationStep;
 
   private int size = 0;
+  private long stashInsertions = 0;
 
-  /**
-   * Immutable container of entries in the map.
-   */
-  private static class MapEntry<V1> {
-    final Object key;
-    final V1 value;
+  // Counters of the statistics, null while they're disabled so that keeping them costs a
+  // single null check per operation.
+  private transient CuckooHashMapStats.Recorder stats;
 
-    MapEntry(final Object key, final V1 value) {
-      this.key = key;
-      this.value = value;
-    }
-  }
+  // Number of structural modifications, used to make the iterators of the views fail-fast.
+  private transient int modCount = 0;
+
+  private transient Set<K> keySet;
+  private transient Collection<V> values;
+  private transient Set<Entry<K, V>> entrySet;
+
+  // Scratch space of the breadth-first search done by putSafe(), allocated on first use.
+  // Nodes of the search are buckets, identified by their first slot in the T1|T2
+  // sequence of slots (see slotKey()).
+  private transient int[] searchBucket;
+  private transient int[] searchParent;
+  // Slot of the parent bucket holding the item that would move to this node's bucket.
+  private transient int[] searchSlot;
 
   /**
    * Used as an internal key in the internal map in place of `null` keys supplied
@@ -80,6 +172,11 @@ public class CuckooHashMap<K, V> extends AbstractMap<K, V> implements Map<K, V>
     }
   };
 
+  /**
+   * Default value passed to lookups to tell missing keys apart from <code>null</code> values.
+   */
+  private static final Object ABSENT = new Object();
+
   public interface HashFunction {
     int hash(Object obj);
   }
@@ -88,14 +185,102 @@ public class CuckooHashMap<K, V> extends AbstractMap<K, V> implements Map<K, V>
     HashFunction generate(int buckets);
   }
 
-  private static class DefaultHashFunctionFactory implements HashFunctionFactory {
+  /**
+   * A {@link HashFunction} that only depends on the hash code of the objects.
+   * <p>
+   * When both hash functions generated for the map implement this interface, the map
+   * calls <tt>hashCode()</tt> once per key and operation, and derives the buckets of the
+   * key in T1 and T2 from that single value. Otherwise every hash function calls it again,
+   * which is costly for keys that don't cache their hash code.
+   */
+  public interface HashCodeFunction extends HashFunction {
+    int hash(int hashCode);
+
+    @Override
+    default int hash(Object obj) {
+      return hash(obj.hashCode());
+    }
+  }
+
+  /**
+   * Writes and reads objects for {@link #writeSnapshot(OutputStream, Serializer, Serializer)}
+   * and {@link #readSnapshot(InputStream, Serializer, Serializer)}.
+   *
+   * @param <T>  the type of the serialized objects
+   */
+  public interface Serializer<T> {
+    void write(T value, DataOutput out) throws IOException;
+
+    T read(DataInput in) throws IOException;
+  }
+
+  /**
+   * Serializes keys and values with the object streams passed to writeObject() and
+   * readObject(). Going through writeObject() for every item is slow, so the most
+   * common key types are written directly after a tag byte.
+   */
+  private static final Serializer<Object> OBJECT_SERIALIZER = new Serializer<Object>() {
+    private static final byte OBJECT = 0;
+    private static final byte INTEGER = 1;
+    private static final byte LONG = 2;
+    private static final byte STRING = 3;
+
+    // Longer strings may not fit the 64KB limit of writeUTF().
+    private static final int MAX_UTF_LENGTH = 0xFFFF / 3;
+
+    @Override
+    public void write(Object value, DataOutput out) throws IOException {
+      final Class<?> type = value.getClass();
+      if (type == Integer.class) {
+        out.writeByte(INTEGER);
+        out.writeInt((Integer) value);
+      } else if (type == Long.class) {
+        out.writeByte(LONG);
+        out.writeLong((Long) value);
+      } else if (type == String.class && ((String) value).length() <= MAX_UTF_LENGTH) {
+        out.writeByte(STRING);
+        out.writeUTF((String) value);
+      } else {
+        out.writeByte(OBJECT);
+        ((ObjectOutput) out).writeObject(value);
+      }
+    }
+
+    @Override
+    public Object read(DataInput in) throws IOException {
+      switch (in.readByte()) {
+        case INTEGER:
+          return in.readInt();
+        case LONG:
+          return in.readLong();
+        case STRING:
+          return in.readUTF();
+        case OBJECT:
+          try {
+            return ((ObjectInput) in).readObject();
+          } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+          }
+        default:
+          throw new StreamCorruptedException("invalid object tag");
+      }
+    }
+  };
+
+  private static final int SNAPSHOT_MAGIC = 0x434b484d;  // "CKHM"
+  private static final int SNAPSHOT_VERSION = 1;
+
+  static class DefaultHashFunctionFactory implements HashFunctionFactory, Serializable {
+    private static final long serialVersionUID = 1L;
     private static final Random RANDOM = new Random();
 
     /**
      * From Mikkel Thorup in "String Hashing for Linear Probing."
      * http://www.diku.dk/summer-school-2014/course-material/mikkel-thorup/hash.pdf_copy
      */
-    private static class DefaultHashFunction implements HashFunction {
+    static class DefaultHashFunction implements HashCodeFunction, Serializable {
+      private static final long serialVersionUID = 1L;
+
       final int a;
       final int b;
       final int hashBits;
@@ -119,9 +304,7 @@ public class CuckooHashMap<K, V> extends AbstractMap<K, V> implements Map<K, V>
       }
 
       @Override
-      public int hash(Object obj) {
-        final int h = obj.hashCode();
-
+      public int hash(int h) {
         // Split into two 16 bit words.
         final int upper = h & 0xFFFF0000;
         final int lower = h & 0x0000FFFF;
@@ -137,8 +320,85 @@ public class CuckooHashMap<K, V> extends AbstractMap<K, V> implements Map<K, V>
     }
   }
 
-  private MapEntry<V>[] T1;
-  private MapEntry<V>[] T2;
+  /**
+   * The two tables T1 and T2 along with the hash functions used to index them.
+   *
+   * T1 and T2 are stored as parallel arrays of keys and values so that no object needs
+   * to be allocated when adding or moving items around. Each table is made of
+   * `keys1.length >> bucketShift` buckets of `slotsPerBucket` slots each.
+   *
+   * Items that couldn't be placed in either table are kept in the first `stashSize`
+   * slots of the stash, which lookups check after T1 and T2. With keyed hash functions,
+   * the stash grows past STASH_SIZE items into an overflow, indexed by `stashIndex`, for
+   * the items that collide with too many others to ever fit in the tables.
+   *
+   * Growing and rehashing fill a new instance and replace the current one only once
+   * all the items have been added, so the tables in use are never half-built.
+   */
+  private static final class Tables {
+    final Object[] keys1;
+    final Object[] values1;
+    final Object[] keys2;
+    final Object[] values2;
+    final HashFunction hashFunction1;
+    final HashFunction hashFunction2;
+    // Both hash functions if they only depend on the hash code of the keys, null otherwise.
+    final HashCodeFunction hashCodeFunction1;
+    final HashCodeFunction hashCodeFunction2;
+
+    // Whether the hash functions are keyed, in which case the stash may overflow.
+    final boolean keyedHashing;
+
+    Object[] stashKeys = new Object[STASH_SIZE];
+    Object[] stashValues = new Object[STASH_SIZE];
+    int stashSize = 0;
+    // Slot of each stashed key, only once the stash has overflowed.
+    Map<Object, Integer> stashIndex;
+
+    Tables(int tableSize, HashFunction hashFunction1, HashFunction hashFunction2) {
+      this.keys1 = new Object[tableSize];
+      this.values1 = new Object[tableSize];
+      this.keys2 = new Object[tableSize];
+      this.values2 = new Object[tableSize];
+      this.hashFunction1 = hashFunction1;
+      this.hashFunction2 = hashFunction2;
+      final boolean hashCodeOnly =
+          hashFunction1 instanceof HashCodeFunction && hashFunction2 instanceof HashCodeFunction;
+      this.hashCodeFunction1 = hashCodeOnly ? (HashCodeFunction) hashFunction1 : null;
+      this.hashCodeFunction2 = hashCodeOnly ? (HashCodeFunction) hashFunction2 : null;
+      this.keyedHashing = hashFunction1 instanceof SipHashFunctionFactory.SipHashFunction
+          && hashFunction2 instanceof SipHashFunctionFactory.SipHashFunction;
+    }
+
+    /**
+     * @return the bucket of <tt>key</tt> in T1, given <tt>hashCode</tt> its hash code.
+     */
+    int bucket1(Object key, int hashCode) {
+      return hashCodeFunction1 != null
+          ? hashCodeFunction1.hash(hashCode)
+          : hashFunction1.hash(key);
+    }
+
+    /**
+     * @return the bucket of <tt>key</tt> in T2, given <tt>hashCode</tt> its hash code.
+     */
+    int bucket2(Object key, int hashCode) {
+      return hashCodeFunction2 != null
+          ? hashCodeFunction2.hash(hashCode)
+          : hashFunction2.hash(key);
+    }
+  }
+
+  private transient Tables tables;
+
+  // During an incremental resize, the tables whose items are being moved to `tables`.
+  // Slots below `migrated` have already been emptied, lookups check both generations.
+  private transient Tables oldTables;
+  private transient int migrated;
+
+  // Number of removals left before trying to shrink again, after the items couldn't be
+  // placed in the smaller tables.
+  private transient int shrinkBackoff;
 
   /**
    * Constructs an empty <tt>CuckooHashMap</tt> with the default initial capacity (16).
@@ -170,370 +430,2493 @@ public class CuckooHashMap<K, V> extends AbstractMap<K, V> implements Map<K, V>
     this(DEFAULT_START_SIZE, loadFactor, new DefaultHashFunctionFactory());
   }
 
-  @SuppressWarnings("unchecked")
   public CuckooHashMap(int initialCapacity, float loadFactor, HashFunctionFactory hashFunctionFactory) {
+    this(initialCapacity, loadFactor, DEFAULT_SLOTS_PER_BUCKET, hashFunctionFactory);
+  }
+
+  /**
+   * Constructs an empty bucketized <tt>CuckooHashMap</tt> where every bucket of the
+   * two internal tables holds up to <tt>slotsPerBucket</tt> entries.
+   *
+   * With 4 slots per bucket the map can be safely configured with a load factor of
+   * <code>0.90</code>-<code>0.95</code>.
+   *
+   * @param initialCapacity  the initial capacity.
+   * @param loadFactor  the load factor.
+   * @param slotsPerBucket  the number of slots in each bucket, must be a power of two.
+   */
+  public CuckooHashMap(int initialCapacity, float loadFactor, int slotsPerBucket) {
+    this(initialCapacity, loadFactor, slotsPerBucket, new DefaultHashFunctionFactory());
+  }
+
+  public CuckooHashMap(int initialCapacity, float loadFactor, int slotsPerBucket,
+                       HashFunctionFactory hashFunctionFactory) {
+    this(initialCapacity, loadFactor, slotsPerBucket, hashFunctionFactory, false);
+  }
+
+  /**
+   * Constructs an empty <tt>CuckooHashMap</tt> that, if <tt>incrementalResize</tt> is set,
+   * spreads the work of growing the tables over the operations following the resize
+   * instead of doing it all within a single <tt>put</tt>.
+   *
+   * @param initialCapacity  the initial capacity.
+   * @param loadFactor  the load factor.
+   * @param slotsPerBucket  the number of slots in each bucket, must be a power of two.
+   * @param hashFunctionFactory  the factory of the hash functions of the two tables.
+   * @param incrementalResize  whether to resize the map incrementally.
+   */
+  public CuckooHashMap(int initialCapacity, float loadFactor, int slotsPerBucket,
+                       HashFunctionFactory hashFunctionFactory, boolean incrementalResize) {
     if (initialCapacity <= 0) {
       throw new IllegalArgumentException("initial capacity must be strictly positive");
     }
     if (loadFactor <= 0.f || loadFactor > 1.f) {
       throw new IllegalArgumentException("load factor must be a value in the (0.0f, 1.0f] range.");
     }
+    if (slotsPerBucket <= 0 || slotsPerBucket > MAX_SLOTS_PER_BUCKET
+        || Integer.bitCount(slotsPerBucket) != 1) {
+      throw new IllegalArgumentException(
+          "slots per bucket must be a power of two no greater than " + MAX_SLOTS_PER_BUCKET);
+    }
 
-    size = 0;
-    defaultStartSize = roundPowerOfTwo(initialCapacity);
+    this.slotsPerBucket = slotsPerBucket;
+    this.bucketShift = Integer.numberOfTrailingZeros(slotsPerBucket);
 
-    // Capacity is meant to be the total capacity of the two internal tables.
-    T1 = new MapEntry[defaultStartSize / 2];
-    T2 = new MapEntry[defaultStartSize / 2];
+    size = 0;
+    // Each table needs at least two buckets.
+    defaultStartSize = Math.max(CuckooTables.roundPowerOfTwo(initialCapacity), 4 * slotsPerBucket);
 
     this.loadFactor = loadFactor;
+    this.minLoadFactor = loadFactor / 4;
     this.hashFunctionFactory = hashFunctionFactory;
 
-    regenHashFunctions(defaultStartSize / 2);
+    this.incrementalResize = incrementalResize;
+    this.migrationStep = migrationStep();
+
+    // Capacity is meant to be the total capacity of the two internal tables.
+    tables = newTables(defaultStartSize / 2);
+  }
+
+  /**
+   * Sets the load below which removing items halves the capacity of the map, never
+   * going below the initial capacity. Shrinking leaves the map at twice this load, so
+   * it has to be lower than half the load factor to keep the map from shrinking and
+   * growing back over and over when items are added and removed around the threshold.
+   *
+   * The default is a quarter of the load factor, and <tt>0</tt> disables shrinking. The
+   * closer it is to half the load factor, the more items every insertion and removal
+   * has to move during an incremental resize.
+   *
+   * @param minLoadFactor  the minimum load factor.
+   */
+  public void setMinLoadFactor(float minLoadFactor) {
+    if (minLoadFactor < 0.f || minLoadFactor >= loadFactor / 2) {
+      throw new IllegalArgumentException(
+          "min load factor must be a value in the [0.0f, loadFactor / 2) range.");
+    }
+    this.minLoadFactor = minLoadFactor;
+    this.migrationStep = migrationStep();
+  }
+
+  /**
+   * @return the number of slot indexes that every insertion and removal has to migrate
+   * for an incremental resize to complete before the next one is due.
+   */
+  private int migrationStep() {
+    // After growing to tables of n slots, the old tables have n / 2 indexes, and it takes
+    // loadFactor * n insertions to grow again or (loadFactor - 2 * minLoadFactor) * n
+    // removals to shrink.
+    float step = 1 / (2 * (loadFactor - 2 * minLoadFactor));
+    if (minLoadFactor > 0) {
+      // After shrinking to tables of n slots, the old tables have 2 * n indexes, and it
+      // takes 2 * (loadFactor - 2 * minLoadFactor) * n insertions to grow or
+      // 2 * minLoadFactor * n removals to shrink again.
+      step = Math.max(step, 1 / Math.min(loadFactor - 2 * minLoadFactor, minLoadFactor));
+    }
+    // With a minimum load factor close to half the load factor, every operation may have
+    // to migrate the whole tables.
+    return (int) Math.max(MIGRATION_STEP, Math.min(Math.ceil(step), 1 << 30));
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public boolean containsKey(Object key) {
-    return get(key) != null;
+    return getOrDefault(key, (V) ABSENT) != ABSENT;
   }
 
   @Override
   public V get(Object key) {
-    return get(key, null);
+    return lookup(key, null);
   }
 
   @SuppressWarnings("Since15")
   @Override
   public V getOrDefault(Object key, V defaultValue) {
-    return get(key, defaultValue);
+    return lookup(key, defaultValue);
   }
 
-  private V get(Object key, V defaultValue) {
+  /**
+   * Looks up a key without modifying the map. Lookups never advance an incremental
+   * resize: only insertions and removals do, see {@link #migrate()}.
+   */
+  V lookup(Object key, V defaultValue) {
     Object actualKey = key != null ? key : KEY_NULL;
-
-    MapEntry<V> v1 = T1[hashFunction1.hash(actualKey)];
-    if (v1 != null && v1.key.equals(actualKey)) {
-      return v1.value;
-    }
-
-    MapEntry<V> v2 = T2[hashFunction2.hash(actualKey)];
-    if (v2 != null && v2.key.equals(actualKey)) {
-      return v2.value;
-    }
-
-    return defaultValue;
+    return lookup(actualKey, actualKey.hashCode(), defaultValue);
   }
 
+  /**
+   * @param h  the hash code of <tt>actualKey</tt>.
+   */
   @SuppressWarnings("unchecked")
-  @Override
-  public V put(K key, V value) {
-    Object actualKey = (key != null ? key : KEY_NULL);
-
-    final V old = get(actualKey);
-    if (old == null) {
-      // If we need to grow after adding this item, it's probably best to grow before we add it.
-      final float currentLoad = (size() + 1) / (T1.length + T2.length);
-      if (currentLoad >= loadFactor) {
-        grow();
+  private V lookup(Object actualKey, int h, V defaultValue) {
+    final Tables t = tables;
+    final CuckooHashMapStats.Recorder stats = this.stats;
+
+    final int slot1 = findSlot(t.keys1, t.bucket1(actualKey, h) << bucketShift, actualKey);
+    if (slot1 >= 0) {
+      if (stats != null) {
+        stats.table1Hits.increment();
       }
+      return (V) t.values1[slot1];
     }
 
-    MapEntry<V> v;
+    final int slot2 = findSlot(t.keys2, t.bucket2(actualKey, h) << bucketShift, actualKey);
+    if (slot2 >= 0) {
+      if (stats != null) {
+        stats.table2Hits.increment();
+      }
+      return (V) t.values2[slot2];
+    }
 
-    while ((v = putSafe(actualKey, value)) != null) {
-      actualKey = v.key;
-      value = v.value;
-      if (!rehash()) {
-        grow();
+    if (t.stashSize > 0) {
+      final int stashSlot = findStashSlot(t, actualKey);
+      if (stashSlot >= 0) {
+        if (stats != null) {
+          stats.stashHits.increment();
+        }
+        return (V) t.stashValues[stashSlot];
       }
     }
 
-    if (old == null) {
-      // Do not increase the size if we're replacing the item.
-      size++;
+    final Tables old = oldTables;
+    if (old != null) {
+      final int slot = findKey(old, actualKey, h);
+      if (slot >= 0) {
+        if (stats != null) {
+          stats.oldTablesHits.increment();
+        }
+        return (V) anySlotValue(old, slot);
+      }
     }
 
-    return old;
+    if (stats != null) {
+      stats.misses.increment();
+    }
+    return defaultValue;
   }
 
   /**
-   * @return the key we failed to move because of collisions or <tt>null</tt> if
-   * successful.
+   * Looks up many keys at once, storing the value mapped to <tt>keys[i]</tt> in
+   * <tt>out[i]</tt>, or <tt>null</tt> if there's none.
+   * <p>
+   * Looking up keys one by one, the lookup of a key can't start before the previous one
+   * has completed, and every one of them is likely to miss the cache when the map is
+   * larger than it. This method instead hashes a batch of keys first, then probes all
+   * their buckets in T1, then the buckets in T2 of the keys that weren't found, so that
+   * the processor can keep several of those cache misses in flight.
+   * <p>
+   * During an incremental resize a single step of the migration is done per call,
+   * rather than one per key.
+   *
+   * @param keys  the keys to look up.
+   * @param out  the array receiving the values, at least as long as <tt>keys</tt>.
+   * @return the number of keys that are in the map.
    */
-  private MapEntry<V> putSafe(Object key, V value) {
-    MapEntry<V> newV, t1, t2;
-    int loop = 0;
+  public int getAll(K[] keys, V[] out) {
+    if (out.length < keys.length) {
+      throw new IllegalArgumentException("the output array is shorter than the keys");
+    }
 
-    while (loop++ < THRESHOLD_LOOP) {
-      newV = new MapEntry<>(key, value);
-      t1 = T1[hashFunction1.hash(key)];
-      t2 = T2[hashFunction2.hash(key)];
+    final int[] scratch = new int[3 * GET_ALL_BATCH];
+    int found = 0;
+    for (int from = 0; from < keys.length; from += GET_ALL_BATCH) {
+      found += lookupAll(keys, out, from, Math.min(from + GET_ALL_BATCH, keys.length), scratch);
+    }
+    return found;
+  }
 
-      // Check if we must just update the value first.
-      if (t1 != null && t1.key.equals(key)) {
-        T1[hashFunction1.hash(key)] = newV;
-        return null;
-      }
-      if (t2 != null && t2.key.equals(key)) {
-        T2[hashFunction2.hash(key)] = newV;
-        return null;
-      }
+  /**
+   * Looks up <tt>keys[from]</tt> to <tt>keys[to - 1]</tt> without modifying the map, like
+   * {@link #lookup(Object, Object)}.
+   *
+   * @param scratch  an array of <tt>3 * (to - from)</tt> ints or more.
+   * @return the number of keys that are in the map.
+   */
+  @SuppressWarnings("unchecked")
+  int lookupAll(Object[] keys, Object[] out, int from, int to, int[] scratch) {
+    final Tables t = tables;
+    final int count = to - from;
+    // The first third of scratch holds the start of the buckets to probe, the second third
+    // the indexes of the keys that haven't been found yet and the last one their hash codes.
+    final int pending = count;
+    final int hashCodes = 2 * count;
+
+    for (int i = 0; i < count; i++) {
+      final Object key = keys[from + i] != null ? keys[from + i] : KEY_NULL;
+      final int h = key.hashCode();
+      scratch[hashCodes + i] = h;
+      scratch[i] = t.bucket1(key, h) << bucketShift;
+    }
 
-      // We're intentionally biased towards adding items in T1 since that leads to
-      // slightly faster successful lookups.
-      if (t1 == null) {
-        T1[hashFunction1.hash(key)] = newV;
-        return null;
-      } else if (t2 == null) {
-        T2[hashFunction2.hash(key)] = newV;
-        return null;
+    int misses = 0;
+    for (int i = 0; i < count; i++) {
+      final Object key = keys[from + i] != null ? keys[from + i] : KEY_NULL;
+      final int slot = findSlot(t.keys1, scratch[i], key);
+      if (slot >= 0) {
+        out[from + i] = t.values1[slot];
       } else {
-        // Both tables have an item in the required position, we need to move things around.
-        // Prefer always moving from T1 for simplicity.
-        key = t1.key;
-        value= t1.value;
-        T1[hashFunction1.hash(key)] = newV;
+        scratch[pending + misses++] = i;
       }
     }
 
-    return new MapEntry<>(key, value);
-  }
-
-  @Override
-  public V remove(Object key) {
-    // TODO halve the size of the hashmap when we delete enough keys.
-    Object actualKey = (key != null ? key : KEY_NULL);
-
-    MapEntry<V> v1 = T1[hashFunction1.hash(actualKey)];
-    MapEntry<V> v2 = T2[hashFunction2.hash(actualKey)];
-    V oldValue;
-
-    if (v1 != null && v1.key.equals(actualKey)) {
-      oldValue = T1[hashFunction1.hash(actualKey)].value;
-      T1[hashFunction1.hash(actualKey)] = null;
-      size--;
-      return oldValue;
+    for (int j = 0; j < misses; j++) {
+      final int i = scratch[pending + j];
+      final Object key = keys[from + i] != null ? keys[from + i] : KEY_NULL;
+      scratch[j] = t.bucket2(key, scratch[hashCodes + i]) << bucketShift;
     }
 
-    if (v2 != null && v2.key.equals(actualKey)) {
-      oldValue = T2[hashFunction2.hash(actualKey)].value;
-      T2[hashFunction2.hash(actualKey)] = null;
-      size--;
-      return oldValue;
+    int found = count - misses;
+    int table2Hits = 0;
+    for (int j = 0; j < misses; j++) {
+      final int i = scratch[pending + j];
+      final Object key = keys[from + i] != null ? keys[from + i] : KEY_NULL;
+      final int slot = findSlot(t.keys2, scratch[j], key);
+      if (slot >= 0) {
+        out[from + i] = t.values2[slot];
+        found++;
+        table2Hits++;
+      } else {
+        // The stash and the old tables are rarely involved: fall back to a regular lookup.
+        final Object value = lookup(key, scratch[hashCodes + i], (V) ABSENT);
+        if (value != ABSENT) {
+          out[from + i] = value;
+          found++;
+        } else {
+          out[from + i] = null;
+        }
+      }
     }
 
-    return null;
+    final CuckooHashMapStats.Recorder stats = this.stats;
+    if (stats != null) {
+      // The keys that fell back to a regular lookup have already been counted.
+      stats.table1Hits.add(count - misses);
+      stats.table2Hits.add(table2Hits);
+    }
+    return found;
   }
 
-  @SuppressWarnings("unchecked")
-  @Override
-  public void clear() {
-    size = 0;
-    T1 = new MapEntry[defaultStartSize / 2];
-    T2 = new MapEntry[defaultStartSize / 2];
-    regenHashFunctions(defaultStartSize / 2);
+  /**
+   * @return the slot containing <tt>key</tt> (see {@link #slotKey(Tables, int)}) or
+   * <tt>-1</tt> if the key is not in <tt>t</tt>. Slots of the stash follow those of T2.
+   *
+   * @param h  the hash code of <tt>key</tt>.
+   */
+  private int findKey(Tables t, Object key, int h) {
+    final int tableSize = t.keys1.length;
+    int slot;
+
+    if ((slot = findSlot(t.keys1, t.bucket1(key, h) << bucketShift, key)) >= 0) {
+      return slot;
+    }
+    if ((slot = findSlot(t.keys2, t.bucket2(key, h) << bucketShift, key)) >= 0) {
+      return tableSize + slot;
+    }
+    if (t.stashSize > 0 && (slot = findStashSlot(t, key)) >= 0) {
+      return 2 * tableSize + slot;
+    }
+    return -1;
   }
 
-  private void regenHashFunctions(final int size) {
-    hashFunction1 = hashFunctionFactory.generate(size);
-    hashFunction2 = hashFunctionFactory.generate(size);
+  private static Object anySlotValue(Tables t, int slot) {
+    final int stashStart = 2 * t.keys1.length;
+    return slot < stashStart ? slotValue(t, slot) : t.stashValues[slot - stashStart];
   }
 
   /**
-   * Double the size of the map until we can successfully manage to re-add all the items
-   * we currently contain.
+   * @return the slot containing <tt>key</tt> in the bucket starting at <tt>bucketStart</tt>
+   * or <tt>-1</tt> if the key is not there.
    */
-  private void grow() {
-    int newSize = T1.length;
-    do {
-      newSize <<= 1;
-    } while (!grow(newSize));
-  }
-
-  @SuppressWarnings("unchecked")
-  private boolean grow(final int newSize) {
-    // Save old state as we may need to restore it if the grow fails.
-    MapEntry<V>[] oldT1 = T1;
-    MapEntry<V>[] oldT2 = T2;
-    HashFunction oldH1 = hashFunction1;
-    HashFunction oldH2 = hashFunction2;
-
-    // Already point T1 and T2 to the new tables since putSafe operates on them.
-    T1 = new MapEntry[newSize];
-    T2 = new MapEntry[newSize];
-
-    regenHashFunctions(newSize);
-
-    for (int i = 0; i < oldT1.length; i++) {
-      if (oldT1[i] != null) {
-        if (putSafe(oldT1[i].key, oldT1[i].value) != null) {
-          T1 = oldT1;
-          T2 = oldT2;
-          hashFunction1 = oldH1;
-          hashFunction2 = oldH2;
-          return false;
-        }
-      }
-      if (oldT2[i] != null) {
-        if (putSafe(oldT2[i].key, oldT2[i].value) != null) {
-          T1 = oldT1;
-          T2 = oldT2;
-          hashFunction1 = oldH1;
-          hashFunction2 = oldH2;
-          return false;
-        }
+  private int findSlot(Object[] keys, int bucketStart, Object key) {
+    for (int i = bucketStart; i < bucketStart + slotsPerBucket; i++) {
+      final Object k = keys[i];
+      if (k != null && k.equals(key)) {
+        return i;
       }
     }
-
-    return true;
+    return -1;
   }
 
-  @SuppressWarnings("unchecked")
-  private boolean rehash() {
-    // Save old state as we may need to restore it if the grow fails.
-    MapEntry<V>[] oldT1 = T1;
-    MapEntry<V>[] oldT2 = T2;
-    HashFunction oldH1 = hashFunction1;
-    HashFunction oldH2 = hashFunction2;
-
-    boolean success;
-
-    for (int threshold = 0; threshold < THRESHOLD_LOOP; threshold++) {
-      success = true;
-      hashFunction1 = hashFunctionFactory.generate(T1.length);
-      hashFunction2 = hashFunctionFactory.generate(T1.length);
-
-      // Already point T1 and T2 to the new tables since putSafe operates on them.
-      T1 = new MapEntry[oldT1.length];
-      T2 = new MapEntry[oldT2.length];
-
-      for (int i = 0; i < oldT1.length; i++) {
-        if (oldT1[i] != null) {
-          if (putSafe(oldT1[i].key, oldT1[i].value) != null) {
-            // Restore state, we need to change hash function.
-            T1 = oldT1;
-            T2 = oldT2;
-            hashFunction1 = oldH1;
-            hashFunction2 = oldH2;
-            success = false;
-            break;
-          }
-        }
-        if (oldT2[i] != null) {
-          if (putSafe(oldT2[i].key, oldT2[i].value) != null) {
-            // Restore state, we need to change hash function.
-            T1 = oldT1;
-            T2 = oldT2;
-            hashFunction1 = oldH1;
-            hashFunction2 = oldH2;
-            success = false;
-            break;
-          }
-        }
+  /**
+   * @return the slot of the stash containing <tt>key</tt> or <tt>-1</tt> if the key
+   * is not there.
+   */
+  private static int findStashSlot(Tables t, Object key) {
+    if (t.stashIndex != null) {
+      final Integer slot = t.stashIndex.get(key);
+      return slot != null ? slot : -1;
+    }
+    for (int i = 0; i < t.stashSize; i++) {
+      if (t.stashKeys[i].equals(key)) {
+        return i;
       }
+    }
+    return -1;
+  }
 
-      if (success) {
-        return true;
+  /**
+   * @return the first free slot in the bucket starting at <tt>bucketStart</tt> or
+   * <tt>-1</tt> if the bucket is full.
+   */
+  private int findFreeSlot(Object[] keys, int bucketStart) {
+    for (int i = bucketStart; i < bucketStart + slotsPerBucket; i++) {
+      if (keys[i] == null) {
+        return i;
       }
     }
+    return -1;
+  }
 
-    return false;
+  @Override
+  public V put(K key, V value) {
+    return putValue(key, value, false, false);
   }
 
+  /**
+   * If <tt>key</tt> is not mapped to a value yet (or is mapped to <tt>null</tt>), maps it
+   * to <tt>value</tt>. The key is looked up once, unlike the default implementation
+   * which looks it up again to put the value.
+   */
   @Override
-  public int size() {
-    return size;
+  public V putIfAbsent(K key, V value) {
+    return putValue(key, value, true, false);
   }
 
+  /**
+   * Replaces the value of <tt>key</tt> in place, if the key is in the map.
+   */
   @Override
-  public boolean isEmpty() {
-    return size == 0;
+  public V replace(K key, V value) {
+    return putValue(key, value, false, true);
   }
 
+  @SuppressWarnings("unchecked")
   @Override
-  public void putAll(Map<? extends K, ? extends V> m) {
-    for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
-      put(entry.getKey(), entry.getValue());
+  public boolean replace(K key, V oldValue, V newValue) {
+    final Object actualKey = (key != null ? key : KEY_NULL);
+
+    final int h = actualKey.hashCode();
+    Tables t = tables;
+    int slot = findKey(t, actualKey, h);
+    if (slot < 0 && oldTables != null) {
+      t = oldTables;
+      slot = findKey(t, actualKey, h);
+    }
+    if (slot < 0 || !Objects.equals(anySlotValue(t, slot), oldValue)) {
+      return false;
     }
+
+    updateSlot(t, slot, newValue);
+    return true;
   }
 
+  /**
+   * The implementations of {@link Map#computeIfAbsent(Object, Function)},
+   * {@link Map#computeIfPresent(Object, BiFunction)}, {@link Map#compute(Object, BiFunction)}
+   * and {@link Map#merge(Object, Object, BiFunction)} find the slot of the key once and
+   * replace its value there. Only keys that weren't in the map go through the insertion
+   * path of {@link #put(Object, Object)}.
+   *
+   * @throws ConcurrentModificationException if the function adds or removes items, as
+   * the slot of the key may have changed.
+   */
   @SuppressWarnings("unchecked")
   @Override
-  public Set<K> keySet() {
-    Set<K> set = new HashSet<>(size);
-    for (int i = 0; i < T1.length; i++) {
-      if (T1[i] != null) {
-        if (KEY_NULL.equals(T1[i].key)) {
-          set.add(null);
-        } else {
-          set.add((K) T1[i].key);
-        }
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+    Objects.requireNonNull(mappingFunction);
+    final Object actualKey = (key != null ? key : KEY_NULL);
+
+    final int h = actualKey.hashCode();
+    Tables t = tables;
+    int slot = findKey(t, actualKey, h);
+    if (slot < 0 && oldTables != null) {
+      t = oldTables;
+      slot = findKey(t, actualKey, h);
+    }
+    if (slot >= 0) {
+      final V oldValue = (V) anySlotValue(t, slot);
+      if (oldValue != null) {
+        return oldValue;
       }
-      if (T2[i] != null) {
-        if (KEY_NULL.equals(T2[i].key)) {
-          set.add(null);
-        } else {
-          set.add((K) T2[i].key);
-        }
+    }
+
+    final int expectedModCount = modCount;
+    final V value = mappingFunction.apply(key);
+    if (modCount != expectedModCount) {
+      throw new ConcurrentModificationException();
+    }
+
+    if (value != null) {
+      if (slot >= 0) {
+        updateSlot(t, slot, value);
+      } else {
+        insert(actualKey, h, value);
       }
     }
-    return set;
+    return value;
   }
 
+  /**
+   * See {@link #computeIfAbsent(Object, Function)}.
+   */
+  @SuppressWarnings("unchecked")
   @Override
-  public Collection<V> values() {
-    List<V> values = new ArrayList<>(size);
+  public V computeIfPresent(K key,
+                            BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(remappingFunction);
+    final Object actualKey = (key != null ? key : KEY_NULL);
+
+    final int h = actualKey.hashCode();
+    Tables t = tables;
+    int slot = findKey(t, actualKey, h);
+    if (slot < 0 && oldTables != null) {
+      t = oldTables;
+      slot = findKey(t, actualKey, h);
+    }
+    final V oldValue;
+    if (slot < 0 || (oldValue = (V) anySlotValue(t, slot)) == null) {
+      return null;
+    }
 
-    // Since we must not return the values in a specific order, it's more efficient to
-    // iterate over each array individually so we can exploit cache locality rather than
-    // reuse the index over T1 and T2.
-    for (int i = 0; i < T1.length; i++) {
-      if (T1[i] != null) {
-        values.add(T1[i].value);
-      }
+    final int expectedModCount = modCount;
+    final V value = remappingFunction.apply(key, oldValue);
+    if (modCount != expectedModCount) {
+      throw new ConcurrentModificationException();
     }
-    for (int i = 0; i < T2.length; i++) {
-      if (T2[i] != null) {
-        values.add(T2[i].value);
-      }
+
+    if (value != null) {
+      updateSlot(t, slot, value);
+    } else {
+      removeAt(t, slot);
     }
-    return values;
+    return value;
   }
 
+  /**
+   * See {@link #computeIfAbsent(Object, Function)}.
+   */
+  @SuppressWarnings("unchecked")
   @Override
-  public Set<Entry<K, V>> entrySet() {
-    Set<Entry<K, V>> entrySet = new HashSet<>(size);
-    for (K key : keySet()) {
-      entrySet.add(new SimpleEntry<>(key, get(key)));
+  public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(remappingFunction);
+    final Object actualKey = (key != null ? key : KEY_NULL);
+
+    final int h = actualKey.hashCode();
+    Tables t = tables;
+    int slot = findKey(t, actualKey, h);
+    if (slot < 0 && oldTables != null) {
+      t = oldTables;
+      slot = findKey(t, actualKey, h);
+    }
+    final V oldValue = slot >= 0 ? (V) anySlotValue(t, slot) : null;
+
+    final int expectedModCount = modCount;
+    final V value = remappingFunction.apply(key, oldValue);
+    if (modCount != expectedModCount) {
+      throw new ConcurrentModificationException();
     }
 
-    return entrySet;
+    if (value != null) {
+      if (slot >= 0) {
+        updateSlot(t, slot, value);
+      } else {
+        insert(actualKey, h, value);
+      }
+    } else if (slot >= 0) {
+      removeAt(t, slot);
+    }
+    return value;
   }
 
+  /**
+   * See {@link #computeIfAbsent(Object, Function)}.
+   */
+  @SuppressWarnings("unchecked")
   @Override
-  public boolean containsValue(Object value) {
-    for (int i = 0; i < T1.length; i++) {
-      if (T1[i] != null && T1[i].value.equals(value)) {
-        return true;
+  public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+    Objects.requireNonNull(value);
+    Objects.requireNonNull(remappingFunction);
+    final Object actualKey = (key != null ? key : KEY_NULL);
+
+    final int h = actualKey.hashCode();
+    Tables t = tables;
+    int slot = findKey(t, actualKey, h);
+    if (slot < 0 && oldTables != null) {
+      t = oldTables;
+      slot = findKey(t, actualKey, h);
+    }
+    final V oldValue = slot >= 0 ? (V) anySlotValue(t, slot) : null;
+
+    final V newValue;
+    if (oldValue == null) {
+      newValue = value;
+    } else {
+      final int expectedModCount = modCount;
+      newValue = remappingFunction.apply(oldValue, value);
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
       }
     }
-    for (int i = 0; i < T2.length; i++) {
-      if (T2[i] != null && T2[i].value.equals(value)) {
-        return true;
+
+    if (newValue != null) {
+      if (slot >= 0) {
+        updateSlot(t, slot, newValue);
+      } else {
+        insert(actualKey, h, newValue);
       }
+    } else {
+      removeAt(t, slot);
     }
-    return false;
+    return newValue;
   }
 
-  private static int roundPowerOfTwo(int n) {
-    n--;
+  /**
+   * Implements {@link #put(Object, Object)}, {@link #putIfAbsent(Object, Object)} and
+   * {@link #replace(Object, Object)} with a single lookup of the key.
+   *
+   * @param onlyIfAbsent  don't replace a value other than <tt>null</tt>.
+   * @param onlyIfPresent  don't add the key if it's not in the map.
+   * @return the previous value of the key, or <tt>null</tt> if there was none.
+   */
+  @SuppressWarnings("unchecked")
+  private V putValue(K key, V value, boolean onlyIfAbsent, boolean onlyIfPresent) {
+    final Object actualKey = (key != null ? key : KEY_NULL);
+
+    // New items always go to the new tables, but a key that hasn't been migrated yet
+    // must be updated where it is.
+    final int h = actualKey.hashCode();
+    Tables t = tables;
+    int slot = findKey(t, actualKey, h);
+    if (slot < 0 && oldTables != null) {
+      t = oldTables;
+      slot = findKey(t, actualKey, h);
+    }
+
+    if (slot < 0) {
+      if (!onlyIfPresent) {
+        insert(actualKey, h, value);
+      }
+      return null;
+    }
+
+    final V oldValue = (V) anySlotValue(t, slot);
+    if (!onlyIfAbsent || oldValue == null) {
+      updateSlot(t, slot, value);
+    }
+    return oldValue;
+  }
+
+  /**
+   * Adds a key that is not in the map, growing or rehashing the tables if no slot can be
+   * found for it.
+   *
+   * @param h  the hash code of <tt>actualKey</tt>.
+   */
+  private void insert(Object actualKey, int h, Object value) {
+    if (oldTables != null) {
+      migrate();
+    }
+
+    // If we need to grow after adding this item, it's probably best to grow before we add it.
+    final float currentLoad = (float) (size + 1) / (2 * tables.keys1.length);
+    if (currentLoad >= loadFactor) {
+      if (incrementalResize) {
+        startResize(tables.keys1.length << 1);
+      } else {
+        grow();
+      }
+    }
+
+    beginWrite();
+    int rehashes = 0;
+    while (!putSafe(tables, actualKey, h, value)) {
+      if (stash(tables, actualKey, value)) {
+        stashInsertions++;
+        break;
+      }
+
+      // There's no free slot within reach and the stash is full: nothing has been moved
+      // around, so the tables can be rebuilt aside before trying again. The other items
+      // may fit in every rebuild while this one never does, so give up on rehashing after
+      // a while.
+      endWrite();
+      if (rehashes++ == THRESHOLD_LOOP || !rehash()) {
+        rehashes = 0;
+        final int tableSize = tables.keys1.length;
+        if (!useKeyedHashing(tableSize) || !rebuild(tableSize)) {
+          grow();
+        }
+      }
+      beginWrite();
+    }
+
+    size++;
+    modCount++;
+    endWrite();
+  }
+
+  /**
+   * Adds an item that is not in <tt>t</tt>. When both buckets of the key are full, a
+   * breadth-first search looks for the shortest sequence of moves that frees a slot in
+   * one of them.
+   * The moves are only applied once such a path has been found, starting from its free
+   * end, so every item is always in one of its buckets.
+   *
+   * @param h  the hash code of <tt>key</tt>.
+   * @return <tt>false</tt> if no free slot could be reached within
+   * {@link #MAX_SEARCH_NODES} buckets, in which case the tables are left untouched.
+   */
+  private boolean putSafe(Tables t, Object key, int h, Object value) {
+    final int b1 = t.bucket1(key, h) << bucketShift;
+    final int b2 = t.bucket2(key, h) << bucketShift;
+
+    // We're intentionally biased towards adding items in T1 since that leads to
+    // slightly faster successful lookups.
+    int slot = findFreeSlot(t.keys1, b1);
+    if (slot < 0 && (slot = findFreeSlot(t.keys2, b2)) >= 0) {
+      slot += t.keys1.length;
+    }
+    if (slot >= 0) {
+      if (stats != null) {
+        stats.insertion(0);
+      }
+    } else if ((slot = displace(t, b1, b2)) < 0) {
+      return false;
+    }
+
+    setSlot(t, slot, key, value);
+    return true;
+  }
+
+  /**
+   * Replaces the value of a slot (see {@link #findKey(Tables, Object, int)}).
+   */
+  private void updateSlot(Tables t, int slot, Object value) {
+    final int stashStart = 2 * t.keys1.length;
+    beginWrite();
+    if (slot < stashStart) {
+      setSlot(t, slot, slotKey(t, slot), value);
+    } else {
+      t.stashValues[slot - stashStart] = value;
+    }
+    endWrite();
+  }
+
+  /**
+   * Keeps aside an item that putSafe() couldn't place. If the hash functions are keyed
+   * and the tables barely loaded, a full stash overflows: the items colliding this much
+   * will never fit in the tables.
+   *
+   * @return <tt>false</tt> if the stash is full.
+   */
+  private boolean stash(Tables t, Object key, Object value) {
+    if (t.stashSize == t.stashKeys.length) {
+      if (!t.keyedHashing || !isLowLoad(t.keys1.length)) {
+        return false;
+      }
+      growStash(t);
+    }
+    t.stashKeys[t.stashSize] = key;
+    t.stashValues[t.stashSize] = value;
+    if (t.stashIndex != null) {
+      t.stashIndex.put(key, t.stashSize);
+    }
+    t.stashSize++;
+    return true;
+  }
+
+  private static void growStash(Tables t) {
+    t.stashKeys = Arrays.copyOf(t.stashKeys, 2 * t.stashKeys.length);
+    t.stashValues = Arrays.copyOf(t.stashValues, t.stashKeys.length);
+    if (t.stashIndex == null) {
+      t.stashIndex = new HashMap<>();
+      for (int i = 0; i < t.stashSize; i++) {
+        t.stashIndex.put(t.stashKeys[i], i);
+      }
+    }
+  }
+
+  private static void removeFromStash(Tables t, int slot) {
+    // Keep the stashed items at the beginning of the stash.
+    final int last = --t.stashSize;
+    if (t.stashIndex != null) {
+      t.stashIndex.remove(t.stashKeys[slot]);
+      if (slot != last) {
+        t.stashIndex.put(t.stashKeys[last], slot);
+      }
+    }
+    t.stashKeys[slot] = t.stashKeys[last];
+    t.stashValues[slot] = t.stashValues[last];
+    t.stashKeys[last] = t.stashValues[last] = null;
+  }
+
+  /**
+   * Moves the stashed items back to T1 and T2 if there's now room for them.
+   */
+  private void unstash(Tables t) {
+    for (int i = t.stashSize - 1; i >= 0; i--) {
+      final Object key = t.stashKeys[i];
+      final Object value = t.stashValues[i];
+      removeFromStash(t, i);
+      if (!putSafe(t, key, key.hashCode(), value)) {
+        stash(t, key, value);
+      }
+    }
+  }
+
+  /**
+   * @return how many insertions ended up in the stash because no slot could be found for
+   * them in either table. Each of them avoided a full rehash of the map.
+   */
+  public long getStashInsertions() {
+    return stashInsertions;
+  }
+
+  /**
+   * Starts or stops counting the work done by the map, see {@link CuckooHashMapStats}.
+   * Enabling the statistics resets all the counters. They're disabled by default, in
+   * which case they cost a single null check per operation.
+   *
+   * @param enabled  whether to update the counters.
+   */
+  public void setStatsEnabled(boolean enabled) {
+    stats = enabled ? new CuckooHashMapStats.Recorder() : null;
+  }
+
+  public boolean isStatsEnabled() {
+    return stats != null;
+  }
+
+  /**
+   * @return a snapshot of the statistics of the map. The items of each table are
+   * counted by walking the whole tables.
+   */
+  public CuckooHashMapStats getStats() {
+    final int[] items = countItems();
+    return new CuckooHashMapStats(stats, size, tables.keys1.length, items[0], items[1],
+        items[2], stashInsertions);
+  }
+
+  /**
+   * @return the number of items of T1, T2 and the stash, including those of the old
+   * tables of an incremental resize.
+   */
+  private int[] countItems() {
+    final Tables old = oldTables;
+    final int[] items = new int[3];
+    countItems(tables, items);
+    if (old != null) {
+      countItems(old, items);
+    }
+    return items;
+  }
+
+  /**
+   * Adds the number of items of T1, T2 and the stash of <tt>t</tt> to the first three
+   * elements of <tt>items</tt>.
+   */
+  private static void countItems(Tables t, int[] items) {
+    for (int i = 0; i < t.keys1.length; i++) {
+      if (t.keys1[i] != null) {
+        items[0]++;
+      }
+      if (t.keys2[i] != null) {
+        items[1]++;
+      }
+    }
+    items[2] += t.stashSize;
+  }
+
+  /**
+   * @return a live view of the statistics of the map, to be registered with an MBean
+   * server, e.g. with <code>ManagementFactory.getPlatformMBeanServer().registerMBean(
+   * map.getStatsMXBean(), new ObjectName("com.example:type=CuckooHashMap,name=cache"))</code>.
+   * The map is not thread safe, so the items of each table may be miscounted while it's
+   * being modified.
+   */
+  public CuckooHashMapStatsMXBean getStatsMXBean() {
+    return new StatsMXBean();
+  }
+
+  /**
+   * Reads the counters directly rather than through {@link #getStats()}, so that polling
+   * them doesn't walk the tables. Only the items of T1 and T2 need to be counted.
+   */
+  private final class StatsMXBean implements CuckooHashMapStatsMXBean {
+    /**
+     * @return the sum of a counter, or <tt>0</tt> if statistics are disabled.
+     */
+    private long counter(ToLongFunction<CuckooHashMapStats.Recorder> counter) {
+      final CuckooHashMapStats.Recorder r = stats;
+      return r != null ? counter.applyAsLong(r) : 0;
+    }
+
+    @Override
+    public boolean isEnabled() {
+      return isStatsEnabled();
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+      setStatsEnabled(enabled);
+    }
+
+    @Override
+    public int getSize() {
+      return size;
+    }
+
+    @Override
+    public int getTableSlots() {
+      return tables.keys1.length;
+    }
+
+    @Override
+    public int getTable1Items() {
+      return countItems()[0];
+    }
+
+    @Override
+    public int getTable2Items() {
+      return countItems()[1];
+    }
+
+    @Override
+    public int getStashItems() {
+      final Tables old = oldTables;
+      return tables.stashSize + (old != null ? old.stashSize : 0);
+    }
+
+    @Override
+    public long getInsertions() {
+      return counter(r -> r.insertions.sum());
+    }
+
+    @Override
+    public long getKicks() {
+      return counter(r -> r.kicks.sum());
+    }
+
+    @Override
+    public long[] getKickChainHistogram() {
+      final CuckooHashMapStats.Recorder r = stats;
+      final long[] histogram = new long[CuckooHashMapStats.KICK_CHAIN_HISTOGRAM_SIZE];
+      if (r != null) {
+        for (int i = 0; i < histogram.length; i++) {
+          histogram[i] = r.kickChains[i].sum();
+        }
+      }
+      return histogram;
+    }
+
+    @Override
+    public long getFailedSearches() {
+      return counter(r -> r.failedSearches.sum());
+    }
+
+    @Override
+    public long getStashInsertions() {
+      return stashInsertions;
+    }
+
+    @Override
+    public long getRehashes() {
+      return counter(r -> r.rehashes.sum());
+    }
+
+    @Override
+    public long getFailedRehashes() {
+      return counter(r -> r.failedRehashes.sum());
+    }
+
+    @Override
+    public long getGrows() {
+      return counter(r -> r.grows.sum());
+    }
+
+    @Override
+    public long getShrinks() {
+      return counter(r -> r.shrinks.sum());
+    }
+
+    @Override
+    public long getResizeNanos() {
+      return counter(r -> r.resizeNanos.sum());
+    }
+
+    @Override
+    public long getTable1Hits() {
+      return counter(r -> r.table1Hits.sum());
+    }
+
+    @Override
+    public long getTable2Hits() {
+      return counter(r -> r.table2Hits.sum());
+    }
+
+    @Override
+    public long getStashHits() {
+      return counter(r -> r.stashHits.sum());
+    }
+
+    @Override
+    public long getOldTablesHits() {
+      return counter(r -> r.oldTablesHits.sum());
+    }
+
+    @Override
+    public long getMisses() {
+      return counter(r -> r.misses.sum());
+    }
+  }
+
+  /**
+   * Frees a slot in bucket <tt>b1</tt> of T1 or bucket <tt>b2</tt> of T2 by moving items
+   * to their other bucket.
+   *
+   * @return the freed slot (see {@link #slotKey(Tables, int)}) or <tt>-1</tt> if none
+   * could be reached within {@link #MAX_SEARCH_NODES} buckets.
+   */
+  private int displace(Tables t, int b1, int b2) {
+    if (searchBucket == null) {
+      searchBucket = new int[MAX_SEARCH_NODES];
+      searchParent = new int[MAX_SEARCH_NODES];
+      searchSlot = new int[MAX_SEARCH_NODES];
+    }
+
+    final int tableSize = t.keys1.length;
+    searchBucket[0] = b1;
+    searchParent[0] = -1;
+    searchBucket[1] = tableSize + b2;
+    searchParent[1] = -1;
+    int tail = 2;
+
+    for (int head = 0; head < tail; head++) {
+      final int bucket = searchBucket[head];
+      for (int slot = bucket; slot < bucket + slotsPerBucket; slot++) {
+        final Object key = slotKey(t, slot);
+        if (key == null) {
+          return applyPath(t, head, slot);
+        }
+
+        if (tail < MAX_SEARCH_NODES) {
+          // The item can only go to its bucket in the other table.
+          final int h = key.hashCode();
+          searchBucket[tail] = slot < tableSize
+              ? tableSize + (t.bucket2(key, h) << bucketShift)
+              : t.bucket1(key, h) << bucketShift;
+          searchParent[tail] = head;
+          searchSlot[tail] = slot;
+          tail++;
+        }
+      }
+    }
+
+    if (stats != null) {
+      stats.failedSearches.increment();
+    }
+    return -1;
+  }
+
+  /**
+   * Moves the items along the path leading to <tt>node</tt>, whose bucket has
+   * <tt>freeSlot</tt> available, starting from the free end.
+   *
+   * @return the slot freed in the first bucket of the path.
+   */
+  private int applyPath(Tables t, int node, int freeSlot) {
+    int moved = 0;
+    for (int n = node; searchParent[n] >= 0; n = searchParent[n]) {
+      final int from = searchSlot[n];
+      setSlot(t, freeSlot, slotKey(t, from), slotValue(t, from));
+      setSlot(t, from, null, null);
+      freeSlot = from;
+      moved++;
+    }
+    if (stats != null) {
+      stats.insertion(moved);
+    }
+    return freeSlot;
+  }
+
+  /**
+   * Slots are numbered as if T2 followed T1: slots below <tt>t.keys1.length</tt> are in
+   * T1, the others are in T2.
+   */
+  private static Object slotKey(Tables t, int slot) {
+    final int tableSize = t.keys1.length;
+    return slot < tableSize ? t.keys1[slot] : t.keys2[slot - tableSize];
+  }
+
+  private static Object slotValue(Tables t, int slot) {
+    final int tableSize = t.keys1.length;
+    return slot < tableSize ? t.values1[slot] : t.values2[slot - tableSize];
+  }
+
+  private static void setSlot(Tables t, int slot, Object key, Object value) {
+    final int tableSize = t.keys1.length;
+    if (slot < tableSize) {
+      t.keys1[slot] = key;
+      t.values1[slot] = value;
+    } else {
+      t.keys2[slot - tableSize] = key;
+      t.values2[slot - tableSize] = value;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V remove(Object key) {
+    final Object oldValue = removeKey(key);
+    return oldValue != ABSENT ? (V) oldValue : null;
+  }
+
+  /**
+   * @return the value that <tt>key</tt> was mapped to, or {@link #ABSENT} if the key
+   * wasn't in the map.
+   */
+  private Object removeKey(Object key) {
+    Object actualKey = (key != null ? key : KEY_NULL);
+
+    final int h = actualKey.hashCode();
+    Tables t = tables;
+    int slot = findKey(t, actualKey, h);
+    if (slot < 0 && oldTables != null) {
+      t = oldTables;
+      slot = findKey(t, actualKey, h);
+    }
+    if (slot < 0) {
+      return ABSENT;
+    }
+
+    final Object oldValue = anySlotValue(t, slot);
+    removeAt(t, slot);
+    return oldValue;
+  }
+
+  /**
+   * Removes the item of a slot (see {@link #findKey(Tables, Object, int)}), then moves the
+   * stashed items back to the tables and shrinks them if needed.
+   */
+  private void removeAt(Tables t, int slot) {
+    removeSlot(t, slot);
+    afterRemoval(t);
+  }
+
+  /**
+   * Moves the stashed items back to the tables, now that items have been removed from
+   * <tt>t</tt>, and shrinks the tables if they're below the minimum load factor.
+   */
+  private void afterRemoval(Tables t) {
+    // Nothing is ever added to the old tables of an incremental resize, as it could land
+    // in a slot that has already been migrated. Items of an overflowed stash collide with
+    // too many others for the removal to make room for them.
+    if (t == tables && t.stashSize > 0 && t.stashIndex == null) {
+      beginWrite();
+      unstash(t);
+      endWrite();
+    }
+
+    if (oldTables != null) {
+      migrate();
+      if (oldTables != null) {
+        return;
+      }
+    }
+    if (shrinkBackoff > 0) {
+      shrinkBackoff--;
+      return;
+    }
+    // Halve the tables until they're loaded enough, which takes more than one step only
+    // after removing many items at once.
+    int tableSize = tables.keys1.length;
+    while (size < minLoadFactor * 2 * tableSize && 2 * tableSize > defaultStartSize) {
+      tableSize >>= 1;
+    }
+    if (tableSize != tables.keys1.length) {
+      shrink(tableSize);
+    }
+  }
+
+  /**
+   * Empties a slot (see {@link #findKey(Tables, Object, int)}) without moving any other item,
+   * so that iterators can keep going.
+   */
+  private void removeSlot(Tables t, int slot) {
+    final int stashStart = 2 * t.keys1.length;
+    beginWrite();
+    if (slot < stashStart) {
+      setSlot(t, slot, null, null);
+    } else {
+      removeFromStash(t, slot - stashStart);
+    }
+    size--;
+    modCount++;
+    endWrite();
+  }
+
+  /**
+   * Shrinks the map to the smallest capacity that can hold the current items without
+   * growing, completing any incremental resize in progress. Useful after removing many
+   * items when shrinking is disabled, or to release memory as soon as possible.
+   */
+  public void trimToSize() {
+    // Each table needs at least two buckets.
+    int tableSize = 2 * slotsPerBucket;
+    while ((float) size / (2 * tableSize) >= loadFactor) {
+      tableSize <<= 1;
+    }
+
+    if (tableSize != tables.keys1.length || oldTables != null) {
+      if (stats != null && tableSize < tables.keys1.length) {
+        stats.shrinks.increment();
+      }
+      // Fall back to larger tables if the items can't be placed in the smallest ones.
+      while (!rehash(tableSize)) {
+        tableSize <<= 1;
+      }
+    }
+  }
+
+  private void shrink(int tableSize) {
+    if (stats != null) {
+      stats.shrinks.increment();
+    }
+    if (incrementalResize) {
+      startResize(tableSize);
+    } else if (!rehash(tableSize, false)) {
+      // Not being able to place all the items in the smaller tables is not an error, the
+      // map keeps its current tables. They're barely loaded, so this is no sign of
+      // flooding either. Wait until half of the items are gone before trying again, so
+      // that the failed rebuilds don't cost more than the removals.
+      shrinkBackoff = size / 2;
+    }
+  }
+
+  @Override
+  public void clear() {
+    final Tables empty = newTables(defaultStartSize / 2);
+    beginWrite();
+    size = 0;
+    tables = empty;
+    oldTables = null;
+    shrinkBackoff = 0;
+    modCount++;
+    endWrite();
+  }
+
+  /**
+   * @return empty tables of <tt>tableSize</tt> slots each, with new hash functions.
+   */
+  private Tables newTables(final int tableSize) {
+    return new Tables(tableSize,
+        hashFunctionFactory.generate(tableSize >> bucketShift),
+        hashFunctionFactory.generate(tableSize >> bucketShift));
+  }
+
+  /**
+   * Starts an incremental resize to tables of <tt>tableSize</tt> slots.
+   */
+  private void startResize(int tableSize) {
+    // The migration step is such that this never does anything unless the previous
+    // resize had to be interrupted by a rehash.
+    finishResize();
+
+    // Shrinks have already been counted by shrink().
+    if (stats != null && tableSize > tables.keys1.length) {
+      stats.grows.increment();
+    }
+    final Tables next = newTables(tableSize);
+    beginWrite();
+    oldTables = tables;
+    tables = next;
+    migrated = 0;
+    modCount++;
+    endWrite();
+  }
+
+  private void finishResize() {
+    while (oldTables != null) {
+      migrate();
+    }
+  }
+
+  /**
+   * Moves the items of the next <tt>migrationStep</tt> indexes of the old tables to the
+   * new ones, followed by the stashed items once all the indexes have been migrated.
+   * If the new tables can't take one of the items, all the remaining ones are re-added
+   * at once by a rehash.
+   * <p>
+   * Only insertions and removals call this, right before or after changing the map. The
+   * mappings stay the same, so it doesn't count as a modification of its own: callers
+   * that don't change the map, such as lookups and value updates, must never move items
+   * between the generations under a running iterator, forEach() or compute().
+   */
+  private void migrate() {
+    final long start = stats != null ? System.nanoTime() : 0;
+    final Tables old = oldTables;
+    final int tableSize = old.keys1.length;
+    final int end = Math.min(migrated + migrationStep, tableSize);
+    boolean placed = true;
+
+    beginWrite();
+    while (placed && migrated < end) {
+      placed = migrateSlot(old, migrated) && migrateSlot(old, tableSize + migrated);
+      if (placed) {
+        migrated++;
+      }
+    }
+    while (placed && migrated == tableSize && old.stashSize > 0) {
+      final int last = old.stashSize - 1;
+      placed = place(tables, old.stashKeys[last], old.stashValues[last]);
+      if (placed) {
+        removeFromStash(old, last);
+      }
+    }
+    if (placed && migrated == tableSize) {
+      oldTables = null;
+    }
+    endWrite();
+    if (stats != null) {
+      stats.resizeNanos.add(System.nanoTime() - start);
+    }
+
+    if (placed) {
+      return;
+    }
+    if (tables.keys1.length < tableSize) {
+      // Same as shrink(): if the items don't fit in the smaller tables, go back to the
+      // size the map had before the shrink rather than switching to keyed hashing.
+      if (!rehash(tables.keys1.length, false)) {
+        shrinkBackoff = size / 2;
+        if (!rehash(tableSize)) {
+          grow();
+        }
+      }
+    } else if (!rehash()) {
+      grow();
+    }
+  }
+
+  private boolean migrateSlot(Tables old, int slot) {
+    final Object key = slotKey(old, slot);
+    if (key == null) {
+      return true;
+    }
+    if (!place(tables, key, slotValue(old, slot))) {
+      return false;
+    }
+    setSlot(old, slot, null, null);
+    return true;
+  }
+
+  /**
+   * @return the number of slots of the two tables.
+   */
+  int capacity() {
+    return 2 * tables.keys1.length;
+  }
+
+  /**
+   * @return whether an incremental resize is in progress.
+   */
+  boolean isResizing() {
+    return oldTables != null;
+  }
+
+  /**
+   * @return an object that changes whenever the tables are replaced, by a resize or a
+   * rehash.
+   */
+  Object tablesGeneration() {
+    return tables;
+  }
+
+  /**
+   * Double the size of the map until we can successfully manage to re-add all the items
+   * we currently contain.
+   */
+  private void grow() {
+    if (stats != null) {
+      stats.grows.increment();
+    }
+    int newSize = tables.keys1.length << 1;
+    int failures = 0;
+    while (!rebuild(newSize)) {
+      // Random hash functions are unlucky every now and then, only give up on the new
+      // size once several of them failed: the items may then collide on purpose.
+      if (++failures < THRESHOLD_LOOP) {
+        continue;
+      }
+      failures = 0;
+      if (!useKeyedHashing(newSize)) {
+        newSize <<= 1;
+      }
+    }
+  }
+
+  private boolean rehash() {
+    return rehash(tables.keys1.length);
+  }
+
+  private boolean rehash(int tableSize) {
+    return rehash(tableSize, true);
+  }
+
+  /**
+   * @param keyedHashing whether to switch to keyed hash functions if the items look like
+   * they collide on purpose (see {@link #useKeyedHashing(int)}).
+   */
+  private boolean rehash(int tableSize, boolean keyedHashing) {
+    if (stats != null) {
+      stats.rehashes.increment();
+    }
+    for (int threshold = 0; threshold < THRESHOLD_LOOP; threshold++) {
+      if (rebuild(tableSize)) {
+        return true;
+      }
+    }
+    if (keyedHashing && useKeyedHashing(tableSize) && rebuild(tableSize)) {
+      return true;
+    }
+    if (stats != null) {
+      stats.failedRehashes.increment();
+    }
+    return false;
+  }
+
+  /**
+   * Called when the items couldn't be placed in tables of <tt>tableSize</tt> slots. If
+   * those tables would be barely loaded, the keys most likely collide on purpose and
+   * growing the tables won't separate them: the map switches to keyed hash functions,
+   * with which the items that still collide overflow the stash.
+   *
+   * @return <tt>true</tt> if the map switched to keyed hash functions, in which case the
+   * tables should be rebuilt with the same size.
+   */
+  private boolean useKeyedHashing(int tableSize) {
+    if (hashFunctionFactory instanceof SipHashFunctionFactory || !isLowLoad(tableSize)) {
+      return false;
+    }
+    hashFunctionFactory = new SipHashFunctionFactory();
+    return true;
+  }
+
+  /**
+   * @return whether the items would fill tables of <tt>tableSize</tt> slots below
+   * {@link #FLOODING_LOAD} times the load factor.
+   */
+  private boolean isLowLoad(int tableSize) {
+    return size < FLOODING_LOAD * loadFactor * 2 * tableSize;
+  }
+
+  /**
+   * @return whether the map switched to keyed hash functions.
+   */
+  boolean isKeyedHashing() {
+    return tables.keyedHashing;
+  }
+
+  /**
+   * Re-adds all the items to new tables of <tt>tableSize</tt> slots using new hash
+   * functions, completing any incremental resize in progress. The current tables are
+   * only replaced if all the items could be placed.
+   */
+  private boolean rebuild(final int tableSize) {
+    final Tables next = rebuildAside(tableSize);
+    if (next == null) {
+      return false;
+    }
+
+    beginWrite();
+    tables = next;
+    oldTables = null;
+    modCount++;
+    endWrite();
+    return true;
+  }
+
+  /**
+   * @return new tables of <tt>tableSize</tt> slots holding all the items, or
+   * <code>null</code> if they couldn't be placed.
+   */
+  private Tables rebuildAside(int tableSize) {
+    final long start = stats != null ? System.nanoTime() : 0;
+    final Tables next = newTables(tableSize);
+    final boolean placed =
+        placeAll(tables, next) && (oldTables == null || placeAll(oldTables, next));
+    if (stats != null) {
+      stats.resizeNanos.add(System.nanoTime() - start);
+    }
+    return placed ? next : null;
+  }
+
+  private boolean placeAll(Tables from, Tables to) {
+    for (int i = 0; i < from.keys1.length; i++) {
+      if ((from.keys1[i] != null && !place(to, from.keys1[i], from.values1[i]))
+          || (from.keys2[i] != null && !place(to, from.keys2[i], from.values2[i]))) {
+        return false;
+      }
+    }
+    for (int i = 0; i < from.stashSize; i++) {
+      if (!place(to, from.stashKeys[i], from.stashValues[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean place(Tables t, Object key, Object value) {
+    return putSafe(t, key, key.hashCode(), value) || stash(t, key, value);
+  }
+
+  /**
+   * Called before modifying the tables in place or replacing them.
+   * <p>
+   * Together with {@link #endWrite()} this lets {@link SingleWriterCuckooHashMap} tell
+   * concurrent readers that they may have seen an inconsistent state. Calls are never
+   * nested.
+   */
+  void beginWrite() {
+  }
+
+  /**
+   * Called once the tables are consistent again after {@link #beginWrite()}.
+   */
+  void endWrite() {
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Copies all of the mappings of <tt>m</tt> to this map. Unless the map resizes
+   * incrementally, the tables are first grown once to the capacity needed by all the
+   * mappings, instead of crossing the load factor again and again while they're added.
+   */
+  @Override
+  public void putAll(Map<? extends K, ? extends V> m) {
+    if (!incrementalResize) {
+      int tableSize = tables.keys1.length;
+      while ((float) ((long) size + m.size()) / (2 * tableSize) >= loadFactor) {
+        tableSize <<= 1;
+      }
+      if (tableSize != tables.keys1.length) {
+        while (!rebuild(tableSize)) {
+          if (!useKeyedHashing(tableSize)) {
+            tableSize <<= 1;
+          }
+        }
+      }
+    }
+
+    for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Builds a map holding the mappings of <tt>m</tt> with the default load factor and
+   * hash functions, using the common fork-join pool.
+   *
+   * @see #bulkLoad(Map, float, int, HashFunctionFactory, ForkJoinPool)
+   */
+  public static <K, V> CuckooHashMap<K, V> bulkLoad(Map<? extends K, ? extends V> m) {
+    return bulkLoad(m, DEFAULT_LOAD_FACTOR, DEFAULT_SLOTS_PER_BUCKET, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Builds a map holding the mappings of <tt>m</tt> with the default hash functions.
+   *
+   * @see #bulkLoad(Map, float, int, HashFunctionFactory, ForkJoinPool)
+   */
+  public static <K, V> CuckooHashMap<K, V> bulkLoad(
+      Map<? extends K, ? extends V> m, float loadFactor, int slotsPerBucket, ForkJoinPool pool) {
+    return bulkLoad(m, loadFactor, slotsPerBucket, new DefaultHashFunctionFactory(), pool);
+  }
+
+  /**
+   * Builds a map holding the mappings of <tt>m</tt> in parallel.
+   * <p>
+   * The tables are sized for all the mappings up front. The keys are hashed by the tasks
+   * of <tt>pool</tt> and partitioned by bucket, so that each task fills its own range of
+   * buckets of T1 without any locking. The items whose bucket was already full go
+   * through the same process in T2, and only the few left after that are added one at a
+   * time with the usual displacements. The hash functions must therefore be safe to use
+   * from multiple threads, which is the case of the default ones.
+   * <p>
+   * The new map behaves exactly like one created with the same parameters, its initial
+   * capacity being the default one.
+   *
+   * @param m  the mappings to add to the map.
+   * @param loadFactor  the load factor.
+   * @param slotsPerBucket  the number of slots in each bucket, must be a power of two.
+   * @param hashFunctionFactory  the factory of the hash functions of the two tables.
+   * @param pool  the pool running the tasks.
+   */
+  public static <K, V> CuckooHashMap<K, V> bulkLoad(
+      Map<? extends K, ? extends V> m, float loadFactor, int slotsPerBucket,
+      HashFunctionFactory hashFunctionFactory, ForkJoinPool pool) {
+    final CuckooHashMap<K, V> map = new CuckooHashMap<>(DEFAULT_START_SIZE, loadFactor,
+        slotsPerBucket, hashFunctionFactory);
+
+    final Object[] keys = new Object[m.size()];
+    final Object[] values = new Object[keys.length];
+    int i = 0;
+    for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+      keys[i] = entry.getKey() != null ? entry.getKey() : KEY_NULL;
+      values[i] = entry.getValue();
+      i++;
+    }
+
+    map.load(keys, values, pool);
+    return map;
+  }
+
+  /**
+   * Replaces the tables of this empty map with new ones holding the given items, whose
+   * keys must be distinct. The tables are only replaced once all the items have been
+   * placed.
+   */
+  private void load(Object[] keys, Object[] values, ForkJoinPool pool) {
+    int tableSize = tables.keys1.length;
+    while ((float) keys.length / (2 * tableSize) >= loadFactor) {
+      tableSize <<= 1;
+    }
+
+    // The map isn't shared yet, and the stash needs the final size to tell whether it
+    // may overflow.
+    size = keys.length;
+    Tables next;
+    while ((next = loadAside(tableSize, keys, values, pool)) == null) {
+      if (!useKeyedHashing(tableSize)) {
+        tableSize <<= 1;
+      }
+    }
+
+    beginWrite();
+    tables = next;
+    oldTables = null;
+    modCount++;
+    endWrite();
+  }
+
+  /**
+   * @return new tables of <tt>tableSize</tt> slots holding the given items, or
+   * <code>null</code> if they couldn't be placed with any of the hash functions tried.
+   */
+  private Tables loadAside(int tableSize, Object[] keys, Object[] values, ForkJoinPool pool) {
+    final int[] items = new int[keys.length];
+    for (int threshold = 0; threshold < THRESHOLD_LOOP; threshold++) {
+      final Tables t = newTables(tableSize);
+      for (int i = 0; i < items.length; i++) {
+        items[i] = i;
+      }
+
+      int remaining = loadTable(t.keys1, t.values1, t.hashFunction1, keys, values, items,
+          items.length, pool);
+      remaining = loadTable(t.keys2, t.values2, t.hashFunction2, keys, values, items,
+          remaining, pool);
+
+      boolean placed = true;
+      for (int i = 0; placed && i < remaining; i++) {
+        placed = place(t, keys[items[i]], values[items[i]]);
+      }
+      if (placed) {
+        return t;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds the first <tt>count</tt> items listed in <tt>items</tt> to the free slots of
+   * their bucket in one of the two tables, without moving any other item.
+   *
+   * @return the number of items whose bucket was full, which are moved to the beginning
+   * of <tt>items</tt>.
+   */
+  private int loadTable(Object[] tableKeys, Object[] tableValues, HashFunction hashFunction,
+                        Object[] keys, Object[] values, int[] items, int count,
+                        ForkJoinPool pool) {
+    final int bucketBits = Integer.numberOfTrailingZeros(tableKeys.length >> bucketShift);
+    final int tasks = 4 * pool.getParallelism();
+    final int chunks = Math.max(1, Math.min(tasks, count / BULK_LOAD_CHUNK));
+    // Each partition is a range of consecutive buckets, only ever touched by one task.
+    final int partitionBits = Math.min(bucketBits, 32 - Integer.numberOfLeadingZeros(tasks - 1));
+    final int partitions = 1 << partitionBits;
+    final int partitionShift = bucketBits - partitionBits;
+
+    // Hash the keys, counting the items of each partition in every chunk.
+    final int[] buckets = new int[count];
+    final int[][] offsets = new int[chunks][partitions];
+    pool.invoke(new ForEachTask(0, chunks, c -> {
+      final int[] counts = offsets[c];
+      for (int i = chunkStart(c, chunks, count); i < chunkStart(c + 1, chunks, count); i++) {
+        final int bucket = hashFunction.hash(keys[items[i]]);
+        buckets[i] = bucket;
+        counts[bucket >>> partitionShift]++;
+      }
+    }));
+
+    // Items are sorted by partition and, within a partition, by chunk.
+    final int[] partitionStart = new int[partitions + 1];
+    int next = 0;
+    for (int p = 0; p < partitions; p++) {
+      partitionStart[p] = next;
+      for (int c = 0; c < chunks; c++) {
+        final int n = offsets[c][p];
+        offsets[c][p] = next;
+        next += n;
+      }
+    }
+    partitionStart[partitions] = count;
+
+    final int[] sorted = new int[count];
+    pool.invoke(new ForEachTask(0, chunks, c -> {
+      final int[] offset = offsets[c];
+      for (int i = chunkStart(c, chunks, count); i < chunkStart(c + 1, chunks, count); i++) {
+        sorted[offset[buckets[i] >>> partitionShift]++] = i;
+      }
+    }));
+
+    // Fill the buckets of each partition, keeping the items that don't fit at the
+    // beginning of the partition.
+    final int[] rejected = new int[partitions];
+    pool.invoke(new ForEachTask(0, partitions, p -> {
+      int r = partitionStart[p];
+      for (int s = partitionStart[p]; s < partitionStart[p + 1]; s++) {
+        final int i = sorted[s];
+        final int slot = findFreeSlot(tableKeys, buckets[i] << bucketShift);
+        if (slot >= 0) {
+          tableKeys[slot] = keys[items[i]];
+          tableValues[slot] = values[items[i]];
+        } else {
+          sorted[r++] = items[i];
+        }
+      }
+      rejected[p] = r - partitionStart[p];
+    }));
+
+    int remaining = 0;
+    for (int p = 0; p < partitions; p++) {
+      System.arraycopy(sorted, partitionStart[p], items, remaining, rejected[p]);
+      remaining += rejected[p];
+    }
+    return remaining;
+  }
+
+  private static int chunkStart(int chunk, int chunks, int count) {
+    return (int) ((long) count * chunk / chunks);
+  }
+
+  /**
+   * Runs an action for every index of a range, splitting the range among the threads
+   * of the pool.
+   */
+  private static final class ForEachTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private final IntConsumer action;
+
+    ForEachTask(int from, int to, IntConsumer action) {
+      this.from = from;
+      this.to = to;
+      this.action = action;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        action.accept(from);
+      } else if (to > from) {
+        final int middle = (from + to) >>> 1;
+        invokeAll(new ForEachTask(from, middle, action), new ForEachTask(middle, to, action));
+      }
+    }
+  }
+
+  /**
+   * Runs <tt>action</tt> for every item, walking the tables slot by slot rather than
+   * going through an iterator. Items are visited in the same order as the views.
+   *
+   * @throws ConcurrentModificationException if <tt>action</tt> adds or removes items.
+   */
+  @Override
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    Objects.requireNonNull(action);
+    final int expectedModCount = modCount;
+    forEach(tables, action);
+    if (oldTables != null) {
+      forEach(oldTables, action);
+    }
+    if (modCount != expectedModCount) {
+      throw new ConcurrentModificationException();
+    }
+  }
+
+  private static <K, V> void forEach(Tables t, BiConsumer<? super K, ? super V> action) {
+    forEach(t.keys1, t.values1, t.keys1.length, action);
+    forEach(t.keys2, t.values2, t.keys2.length, action);
+    forEach(t.stashKeys, t.stashValues, t.stashSize, action);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> void forEach(Object[] keys, Object[] values, int length,
+                                     BiConsumer<? super K, ? super V> action) {
+    for (int i = 0; i < length; i++) {
+      final Object key = keys[i];
+      if (key != null) {
+        action.accept(key == KEY_NULL ? null : (K) key, (V) values[i]);
+      }
+    }
+  }
+
+  /**
+   * Replaces the value of every item in its slot, without looking up any key.
+   *
+   * @throws ConcurrentModificationException if <tt>function</tt> adds or removes items.
+   */
+  @Override
+  public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+    Objects.requireNonNull(function);
+    replaceAll(tables, function);
+    if (oldTables != null) {
+      replaceAll(oldTables, function);
+    }
+  }
+
+  private void replaceAll(Tables t, BiFunction<? super K, ? super V, ? extends V> function) {
+    replaceAll(t.keys1, t.values1, t.keys1.length, function);
+    replaceAll(t.keys2, t.values2, t.keys2.length, function);
+    replaceAll(t.stashKeys, t.stashValues, t.stashSize, function);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void replaceAll(Object[] keys, Object[] values, int length,
+                          BiFunction<? super K, ? super V, ? extends V> function) {
+    final int expectedModCount = modCount;
+    for (int i = 0; i < length; i++) {
+      final Object key = keys[i];
+      if (key != null) {
+        final V value = function.apply(key == KEY_NULL ? null : (K) key, (V) values[i]);
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        beginWrite();
+        values[i] = value;
+        endWrite();
+      }
+    }
+  }
+
+  /**
+   * Removes the items for which <tt>filter</tt> returns <tt>true</tt>, walking the tables
+   * slot by slot and emptying the slots in place. This backs <tt>removeIf()</tt>,
+   * <tt>removeAll()</tt> and <tt>retainAll()</tt> of the views.
+   *
+   * @return <tt>true</tt> if any item was removed.
+   * @throws ConcurrentModificationException if <tt>filter</tt> adds or removes items.
+   */
+  boolean removeIf(BiPredicate<? super K, ? super V> filter) {
+    Objects.requireNonNull(filter);
+    boolean removed = removeIf(tables, filter);
+    if (oldTables != null) {
+      removed |= removeIf(oldTables, filter);
+    }
+    if (removed) {
+      afterRemoval(tables);
+    }
+    return removed;
+  }
+
+  @SuppressWarnings("unchecked")
+  private boolean removeIf(Tables t, BiPredicate<? super K, ? super V> filter) {
+    final int tableSize = t.keys1.length;
+    final int sizeBefore = size;
+    int expectedModCount = modCount;
+
+    for (int slot = 0; slot < 2 * tableSize; slot++) {
+      final Object key = slot < tableSize ? t.keys1[slot] : t.keys2[slot - tableSize];
+      if (key == null) {
+        continue;
+      }
+      final boolean remove = filter.test(key == KEY_NULL ? null : (K) key,
+          (V) (slot < tableSize ? t.values1[slot] : t.values2[slot - tableSize]));
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (remove) {
+        removeSlot(t, slot);
+        expectedModCount = modCount;
+      }
+    }
+
+    // Removing an item from the stash moves the last one in its place, so go backwards.
+    for (int i = t.stashSize - 1; i >= 0; i--) {
+      final Object key = t.stashKeys[i];
+      final boolean remove = filter.test(key == KEY_NULL ? null : (K) key,
+          (V) t.stashValues[i]);
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (remove) {
+        removeSlot(t, 2 * tableSize + i);
+        expectedModCount = modCount;
+      }
+    }
+    return size != sizeBefore;
+  }
+
+  /**
+   * Returns a {@link Set} view of the keys contained in this map. The set is backed by
+   * the map, so changes to the map are reflected in the set, and vice-versa. Its
+   * iterator walks the tables directly and is fail-fast.
+   */
+  @Override
+  public Set<K> keySet() {
+    Set<K> ks = keySet;
+    if (ks == null) {
+      ks = keySet = new KeySet();
+    }
+    return ks;
+  }
+
+  /**
+   * Returns a {@link Collection} view of the values contained in this map. The
+   * collection is backed by the map, so changes to the map are reflected in the
+   * collection, and vice-versa. Its iterator walks the tables directly and is fail-fast.
+   */
+  @Override
+  public Collection<V> values() {
+    Collection<V> vs = values;
+    if (vs == null) {
+      vs = values = new Values();
+    }
+    return vs;
+  }
+
+  /**
+   * Returns a {@link Set} view of the mappings contained in this map. The set is backed
+   * by the map, so changes to the map are reflected in the set, and vice-versa. Its
+   * iterator walks the tables directly and is fail-fast.
+   */
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    Set<Entry<K, V>> es = entrySet;
+    if (es == null) {
+      es = entrySet = new EntrySet();
+    }
+    return es;
+  }
+
+  private final class KeySet extends AbstractSet<K> {
+    @Override
+    public Iterator<K> iterator() {
+      return new KeyIterator();
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return containsKey(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      return removeKey(o) != ABSENT;
+    }
+
+    @Override
+    public void forEach(Consumer<? super K> action) {
+      Objects.requireNonNull(action);
+      CuckooHashMap.this.forEach((k, v) -> action.accept(k));
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super K> filter) {
+      Objects.requireNonNull(filter);
+      return CuckooHashMap.this.removeIf((k, v) -> filter.test(k));
+    }
+
+    /**
+     * Removes the keys of <tt>c</tt> one by one if it's smaller than the map, otherwise
+     * walks the map looking them up in <tt>c</tt>.
+     */
+    @Override
+    public boolean removeAll(Collection<?> c) {
+      Objects.requireNonNull(c);
+      if (c.size() < size) {
+        boolean removed = false;
+        for (Object o : c) {
+          removed |= removeKey(o) != ABSENT;
+        }
+        return removed;
+      }
+      return CuckooHashMap.this.removeIf((k, v) -> c.contains(k));
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+      Objects.requireNonNull(c);
+      return CuckooHashMap.this.removeIf((k, v) -> !c.contains(k));
+    }
+
+    @Override
+    public void clear() {
+      CuckooHashMap.this.clear();
+    }
+  }
+
+  private final class Values extends AbstractCollection<V> {
+    @Override
+    public Iterator<V> iterator() {
+      return new ValueIterator();
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return containsValue(o);
+    }
+
+    @Override
+    public void forEach(Consumer<? super V> action) {
+      Objects.requireNonNull(action);
+      CuckooHashMap.this.forEach((k, v) -> action.accept(v));
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super V> filter) {
+      Objects.requireNonNull(filter);
+      return CuckooHashMap.this.removeIf((k, v) -> filter.test(v));
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+      Objects.requireNonNull(c);
+      return CuckooHashMap.this.removeIf((k, v) -> c.contains(v));
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+      Objects.requireNonNull(c);
+      return CuckooHashMap.this.removeIf((k, v) -> !c.contains(v));
+    }
+
+    @Override
+    public void clear() {
+      CuckooHashMap.this.clear();
+    }
+  }
+
+  private final class EntrySet extends AbstractSet<Entry<K, V>> {
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+      return new EntryIterator();
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      final Entry<?, ?> e = (Entry<?, ?>) o;
+      final Object value = getOrDefault(e.getKey(), (V) ABSENT);
+      return value != ABSENT && Objects.equals(value, e.getValue());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      if (!contains(o)) {
+        return false;
+      }
+      CuckooHashMap.this.remove(((Entry<?, ?>) o).getKey());
+      return true;
+    }
+
+    @Override
+    public void forEach(Consumer<? super Entry<K, V>> action) {
+      Objects.requireNonNull(action);
+      CuckooHashMap.this.forEach((k, v) -> action.accept(new SlotEntry(k, v)));
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Entry<K, V>> filter) {
+      Objects.requireNonNull(filter);
+      return CuckooHashMap.this.removeIf((k, v) -> filter.test(new SlotEntry(k, v)));
+    }
+
+    @Override
+    public void clear() {
+      CuckooHashMap.this.clear();
+    }
+  }
+
+  /**
+   * Walks the slots of T1 and T2 in order (see {@link #slotKey(Tables, int)}), followed by
+   * the stash from its last item to its first so that removing an item never moves one
+   * that has yet to be visited. During an incremental resize the new tables are walked
+   * first, then the old ones: only insertions and removals move items between them, and
+   * those make the iterator fail.
+   */
+  private abstract class SlotIterator<E> implements Iterator<E> {
+    private Tables t;
+    private Tables next;
+    private int stashStart;
+    private int stashIndex;
+    private int nextSlot;
+    private Tables lastTables;
+    private int lastSlot = -1;
+    private int expectedModCount;
+
+    SlotIterator() {
+      next = oldTables;
+      walk(tables);
+      expectedModCount = modCount;
+      nextSlot = advance(-1);
+    }
+
+    private void walk(Tables t) {
+      this.t = t;
+      stashStart = 2 * t.keys1.length;
+      stashIndex = t.stashSize;
+    }
+
+    private int advance(int slot) {
+      while (true) {
+        for (slot++; slot < stashStart; slot++) {
+          if (slotKey(t, slot) != null) {
+            return slot;
+          }
+        }
+        if (stashIndex > 0) {
+          return stashStart + --stashIndex;
+        }
+        if (next == null) {
+          return -1;
+        }
+        walk(next);
+        next = null;
+        slot = -1;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextSlot >= 0;
+    }
+
+    int nextSlot() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (nextSlot < 0) {
+        throw new NoSuchElementException();
+      }
+      lastTables = t;
+      lastSlot = nextSlot;
+      nextSlot = advance(nextSlot);
+      return lastSlot;
+    }
+
+    /**
+     * @return the key in <tt>slot</tt> of the tables walked by the last call to
+     * {@link #nextSlot()}.
+     */
+    @SuppressWarnings("unchecked")
+    K key(int slot) {
+      final int lastStashStart = 2 * lastTables.keys1.length;
+      final Object key = slot < lastStashStart
+          ? slotKey(lastTables, slot)
+          : lastTables.stashKeys[slot - lastStashStart];
+      return key == KEY_NULL ? null : (K) key;
+    }
+
+    @SuppressWarnings("unchecked")
+    V value(int slot) {
+      return (V) anySlotValue(lastTables, slot);
+    }
+
+    @Override
+    public void remove() {
+      if (lastSlot < 0) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      // Unlike CuckooHashMap.remove(), this never unstashes items, migrates them nor
+      // shrinks the map.
+      removeSlot(lastTables, lastSlot);
+      lastSlot = -1;
+      expectedModCount = modCount;
+    }
+  }
+
+  private final class KeyIterator extends SlotIterator<K> {
+    @Override
+    public K next() {
+      return key(nextSlot());
+    }
+  }
+
+  private final class ValueIterator extends SlotIterator<V> {
+    @Override
+    public V next() {
+      return value(nextSlot());
+    }
+  }
+
+  private final class EntryIterator extends SlotIterator<Entry<K, V>> {
+    @Override
+    public Entry<K, V> next() {
+      final int slot = nextSlot();
+      return new SlotEntry(key(slot), value(slot));
+    }
+  }
+
+  /**
+   * Entry returned by the entry set iterator and passed to its forEach() and removeIf(),
+   * writing through to the map.
+   */
+  private final class SlotEntry extends SimpleEntry<K, V> {
+    private static final long serialVersionUID = 1L;
+
+    SlotEntry(K key, V value) {
+      super(key, value);
+    }
+
+    @Override
+    public V setValue(V value) {
+      // Replacing the value of a key is not a structural modification, so this doesn't
+      // invalidate the iterator.
+      put(getKey(), value);
+      return super.setValue(value);
+    }
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    return containsValue(tables, value) || (oldTables != null && containsValue(oldTables, value));
+  }
+
+  private static boolean containsValue(Tables t, Object value) {
+    for (int i = 0; i < t.keys1.length; i++) {
+      if (t.keys1[i] != null && Objects.equals(t.values1[i], value)) {
+        return true;
+      }
+    }
+    for (int i = 0; i < t.keys2.length; i++) {
+      if (t.keys2[i] != null && Objects.equals(t.values2[i], value)) {
+        return true;
+      }
+    }
+    for (int i = 0; i < t.stashSize; i++) {
+      if (Objects.equals(t.stashValues[i], value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Writes the map to <tt>out</tt> in a compact binary format, which can be read back by
+   * {@link #readSnapshot(InputStream, Serializer, Serializer)}. The stream is flushed but
+   * not closed.
+   * <p>
+   * If the map uses the default hash functions, the items are written along with their
+   * slot and the parameters of the hash functions, so that restoring the map doesn't
+   * need to add them one by one. Items whose key hashes differently when restored (for
+   * instance because its <tt>hashCode()</tt> is not stable across JVMs) are added as
+   * usual.
+   *
+   * @param out  the stream to write the map to.
+   * @param keySerializer  the serializer of the keys, never given <code>null</code>.
+   * @param valueSerializer  the serializer of the values, never given <code>null</code>.
+   */
+  public void writeSnapshot(OutputStream out, Serializer<? super K> keySerializer,
+                            Serializer<? super V> valueSerializer) throws IOException {
+    final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(SNAPSHOT_MAGIC);
+    data.writeInt(SNAPSHOT_VERSION);
+    data.writeInt(slotsPerBucket);
+    data.writeFloat(loadFactor);
+    data.writeFloat(minLoadFactor);
+    data.writeInt(defaultStartSize);
+    data.writeBoolean(incrementalResize);
+    writeTables(data, keySerializer, valueSerializer);
+    data.flush();
+  }
+
+  /**
+   * Reads a map written by {@link #writeSnapshot(OutputStream, Serializer, Serializer)}.
+   * The restored map uses the default hash functions. As the snapshot is read in small
+   * pieces, <tt>in</tt> should be buffered.
+   *
+   * @param in  the stream to read the map from.
+   * @param keySerializer  the serializer of the keys.
+   * @param valueSerializer  the serializer of the values.
+   * @throws StreamCorruptedException if the stream doesn't contain a valid snapshot.
+   */
+  public static <K, V> CuckooHashMap<K, V> readSnapshot(
+      InputStream in, Serializer<? extends K> keySerializer,
+      Serializer<? extends V> valueSerializer) throws IOException {
+    final DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != SNAPSHOT_MAGIC) {
+      throw new StreamCorruptedException("not a cuckoo hash map snapshot");
+    }
+    if (data.readInt() != SNAPSHOT_VERSION) {
+      throw new StreamCorruptedException("unsupported cuckoo hash map snapshot version");
+    }
+
+    final int slotsPerBucket = data.readInt();
+    final float loadFactor = data.readFloat();
+    final float minLoadFactor = data.readFloat();
+    final int defaultStartSize = data.readInt();
+    final boolean incrementalResize = data.readBoolean();
+
+    final CuckooHashMap<K, V> m;
+    try {
+      m = new CuckooHashMap<>(defaultStartSize, loadFactor, slotsPerBucket,
+          new DefaultHashFunctionFactory(), incrementalResize);
+      m.setMinLoadFactor(minLoadFactor);
+    } catch (IllegalArgumentException e) {
+      throw new StreamCorruptedException(e.getMessage());
+    }
+    m.readTables(data, keySerializer, valueSerializer);
+    return m;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    writeTables(out, OBJECT_SERIALIZER, OBJECT_SERIALIZER);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    readTables(in, OBJECT_SERIALIZER, OBJECT_SERIALIZER);
+  }
+
+  /**
+   * Writes the size of the tables, the number of items and whether they're written
+   * along with their slot, followed by the parameters of the hash functions in that
+   * case, the value of the <code>null</code> key if any and then all the other items.
+   * Values are preceded by a flag telling whether they're <code>null</code>.
+   */
+  @SuppressWarnings("unchecked")
+  private void writeTables(DataOutput out, Serializer<? super K> keySerializer,
+                           Serializer<? super V> valueSerializer) throws IOException {
+    final Tables t = tables;
+    // Slots are only meaningful if the hash functions can be rebuilt from their parameters.
+    final boolean slotted = oldTables == null
+        && t.hashFunction1 instanceof DefaultHashFunctionFactory.DefaultHashFunction
+        && t.hashFunction2 instanceof DefaultHashFunctionFactory.DefaultHashFunction;
+
+    out.writeInt(t.keys1.length);
+    out.writeInt(size);
+    out.writeBoolean(slotted);
+    if (slotted) {
+      final DefaultHashFunctionFactory.DefaultHashFunction hashFunction1 =
+          (DefaultHashFunctionFactory.DefaultHashFunction) t.hashFunction1;
+      final DefaultHashFunctionFactory.DefaultHashFunction hashFunction2 =
+          (DefaultHashFunctionFactory.DefaultHashFunction) t.hashFunction2;
+      out.writeInt(hashFunction1.a);
+      out.writeInt(hashFunction1.b);
+      out.writeInt(hashFunction2.a);
+      out.writeInt(hashFunction2.b);
+    }
+
+    // KEY_NULL hashes differently in every JVM, so the null key is always added as usual.
+    final Object nullValue = lookup(null, (V) ABSENT);
+    out.writeBoolean(nullValue != ABSENT);
+    if (nullValue != ABSENT) {
+      writeValue(out, (V) nullValue, valueSerializer);
+    }
+
+    writeItems(out, t, slotted, keySerializer, valueSerializer);
+    if (oldTables != null) {
+      writeItems(out, oldTables, false, keySerializer, valueSerializer);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void writeItems(DataOutput out, Tables t, boolean slotted,
+                          Serializer<? super K> keySerializer,
+                          Serializer<? super V> valueSerializer) throws IOException {
+    final int stashStart = 2 * t.keys1.length;
+    for (int slot = 0; slot < stashStart + t.stashSize; slot++) {
+      final Object key = slot < stashStart ? slotKey(t, slot) : t.stashKeys[slot - stashStart];
+      if (key == null || key == KEY_NULL) {
+        continue;
+      }
+      if (slotted) {
+        out.writeInt(slot);
+      }
+      keySerializer.write((K) key, out);
+      writeValue(out, (V) anySlotValue(t, slot), valueSerializer);
+    }
+  }
+
+  private static <V> void writeValue(DataOutput out, V value, Serializer<? super V> serializer)
+      throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      serializer.write(value, out);
+    }
+  }
+
+  /**
+   * Replaces the tables with the ones written by {@link #writeTables}.
+   * <p>
+   * This is also called while deserializing, before the fields of subclasses are
+   * restored, so unlike put() it never calls the {@link #beginWrite()} and
+   * {@link #endWrite()} hooks.
+   */
+  private void readTables(DataInput in, Serializer<?> keySerializer,
+                          Serializer<?> valueSerializer) throws IOException {
+    final int tableSize = in.readInt();
+    final int count = in.readInt();
+    final boolean slotted = in.readBoolean();
+    if (tableSize < 2 * slotsPerBucket || Integer.bitCount(tableSize) != 1 || count < 0) {
+      throw new StreamCorruptedException("invalid cuckoo hash map tables");
+    }
+
+    final Tables t;
+    if (slotted) {
+      final int buckets = tableSize >> bucketShift;
+      t = new Tables(tableSize,
+          new DefaultHashFunctionFactory.DefaultHashFunction(in.readInt(), in.readInt(), buckets),
+          new DefaultHashFunctionFactory.DefaultHashFunction(in.readInt(), in.readInt(), buckets));
+    } else {
+      t = newTables(tableSize);
+    }
+    tables = t;
+    oldTables = null;
+    size = 0;
+
+    final boolean hasNullKey = in.readBoolean();
+    final Object nullValue = hasNullKey ? readValue(in, valueSerializer) : null;
+
+    // Items that can't go back in their slot, added once all the others are in place.
+    List<Object> misplaced = new ArrayList<>();
+    for (int i = hasNullKey ? 1 : 0; i < count; i++) {
+      final int slot = slotted ? in.readInt() : -1;
+      final Object key = keySerializer.read(in);
+      final Object value = readValue(in, valueSerializer);
+      if (key == null) {
+        throw new StreamCorruptedException("unexpected null key");
+      }
+
+      if (slotted && restoreSlot(t, slot, key, value)) {
+        size++;
+      } else {
+        misplaced.add(key);
+        misplaced.add(value);
+      }
+    }
+
+    for (int i = 0; i < misplaced.size(); i += 2) {
+      restore(misplaced.get(i), misplaced.get(i + 1));
+    }
+    if (hasNullKey) {
+      restore(KEY_NULL, nullValue);
+    }
+  }
+
+  /**
+   * Puts an item back in the slot it was written from.
+   *
+   * @return <tt>false</tt> if the item doesn't belong to that slot.
+   */
+  private boolean restoreSlot(Tables t, int slot, Object key, Object value) {
+    final int tableSize = t.keys1.length;
+    final int bucketMask = -slotsPerBucket;
+
+    if (slot < 0 || slot >= 2 * tableSize + STASH_SIZE) {
+      return false;
+    } else if (slot >= 2 * tableSize) {
+      return stash(t, key, value);
+    } else if (slotKey(t, slot) != null) {
+      return false;
+    } else if (slot < tableSize
+        ? (t.bucket1(key, key.hashCode()) << bucketShift) != (slot & bucketMask)
+        : (t.bucket2(key, key.hashCode()) << bucketShift) != ((slot - tableSize) & bucketMask)) {
+      return false;
+    }
+
+    setSlot(t, slot, key, value);
+    return true;
+  }
+
+  /**
+   * Adds an item known not to be in the map, like put() but without calling the hooks.
+   */
+  private void restore(Object key, Object value) {
+    if ((float) (size + 1) / (2 * tables.keys1.length) >= loadFactor) {
+      growAside();
+    }
+    while (!place(tables, key, value)) {
+      growAside();
+    }
+    size++;
+  }
 
-    n |= n >>> 1;
-    n |= n >>> 2;
-    n |= n >>> 4;
-    n |= n >>> 8;
-    n |= n >>> 16;
+  private void growAside() {
+    int newSize = tables.keys1.length << 1;
+    Tables next;
+    while ((next = rebuildAside(newSize)) == null) {
+      if (!useKeyedHashing(newSize)) {
+        newSize <<= 1;
+      }
+    }
+    tables = next;
+  }
 
-    return (n < 0) ? 1 : n + 1;
+  private static Object readValue(DataInput in, Serializer<?> serializer) throws IOException {
+    return in.readBoolean() ? serializer.read(in) : null;
   }
 }
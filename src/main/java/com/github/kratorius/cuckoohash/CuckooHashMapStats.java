@@ -0,0 +1,282 @@
+package com.github.kratorius.cuckoohash;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Snapshot of the statistics of a {@link CuckooHashMap}, returned by
+ * {@link CuckooHashMap#getStats()}.
+ * <p>
+ * The size of the map and the number of items in each table are always available.
+ * The counters are only updated while statistics are enabled with
+ * {@link CuckooHashMap#setStatsEnabled(boolean)}, and start from zero every time they
+ * get enabled. They count the work done by resizes as well: each item re-added to new
+ * tables is an insertion, and may kick other items out of their slot.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class CuckooHashMapStats {
+  /**
+   * Number of entries of {@link #getKickChainHistogram()}. The last one counts all the
+   * kick chains longer than the others.
+   */
+  public static final int KICK_CHAIN_HISTOGRAM_SIZE = 16;
+
+  /**
+   * The counters of a map, updated from the threads using it. Every counter is a
+   * {@link LongAdder} so that readers of a {@link SingleWriterCuckooHashMap} don't
+   * contend on the same cache line when counting their hits.
+   */
+  static final class Recorder {
+    final LongAdder insertions = new LongAdder();
+    final LongAdder kicks = new LongAdder();
+    final LongAdder[] kickChains = new LongAdder[KICK_CHAIN_HISTOGRAM_SIZE];
+    final LongAdder failedSearches = new LongAdder();
+    final LongAdder rehashes = new LongAdder();
+    final LongAdder failedRehashes = new LongAdder();
+    final LongAdder grows = new LongAdder();
+    final LongAdder shrinks = new LongAdder();
+    final LongAdder resizeNanos = new LongAdder();
+    final LongAdder table1Hits = new LongAdder();
+    final LongAdder table2Hits = new LongAdder();
+    final LongAdder stashHits = new LongAdder();
+    final LongAdder oldTablesHits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+
+    Recorder() {
+      for (int i = 0; i < kickChains.length; i++) {
+        kickChains[i] = new LongAdder();
+      }
+    }
+
+    /**
+     * Records an item added to the tables by moving <tt>length</tt> other items.
+     */
+    void insertion(int length) {
+      insertions.increment();
+      if (length > 0) {
+        kicks.add(length);
+      }
+      kickChains[Math.min(length, KICK_CHAIN_HISTOGRAM_SIZE - 1)].increment();
+    }
+  }
+
+  private final boolean enabled;
+  private final int size;
+  private final int tableSlots;
+  private final int table1Items;
+  private final int table2Items;
+  private final int stashItems;
+  private final long stashInsertions;
+
+  private final long insertions;
+  private final long kicks;
+  private final long[] kickChainHistogram = new long[KICK_CHAIN_HISTOGRAM_SIZE];
+  private final long failedSearches;
+  private final long rehashes;
+  private final long failedRehashes;
+  private final long grows;
+  private final long shrinks;
+  private final long resizeNanos;
+  private final long table1Hits;
+  private final long table2Hits;
+  private final long stashHits;
+  private final long oldTablesHits;
+  private final long misses;
+
+  /**
+   * @param recorder  the counters of the map, or <code>null</code> if statistics are
+   * disabled.
+   */
+  CuckooHashMapStats(Recorder recorder, int size, int tableSlots, int table1Items,
+                     int table2Items, int stashItems, long stashInsertions) {
+    this.enabled = recorder != null;
+    this.size = size;
+    this.tableSlots = tableSlots;
+    this.table1Items = table1Items;
+    this.table2Items = table2Items;
+    this.stashItems = stashItems;
+    this.stashInsertions = stashInsertions;
+
+    if (recorder == null) {
+      insertions = kicks = failedSearches = rehashes = failedRehashes = grows = shrinks = 0;
+      resizeNanos = table1Hits = table2Hits = stashHits = oldTablesHits = misses = 0;
+      return;
+    }
+    insertions = recorder.insertions.sum();
+    kicks = recorder.kicks.sum();
+    for (int i = 0; i < kickChainHistogram.length; i++) {
+      kickChainHistogram[i] = recorder.kickChains[i].sum();
+    }
+    failedSearches = recorder.failedSearches.sum();
+    rehashes = recorder.rehashes.sum();
+    failedRehashes = recorder.failedRehashes.sum();
+    grows = recorder.grows.sum();
+    shrinks = recorder.shrinks.sum();
+    resizeNanos = recorder.resizeNanos.sum();
+    table1Hits = recorder.table1Hits.sum();
+    table2Hits = recorder.table2Hits.sum();
+    stashHits = recorder.stashHits.sum();
+    oldTablesHits = recorder.oldTablesHits.sum();
+    misses = recorder.misses.sum();
+  }
+
+  /**
+   * @return whether the counters were being updated when the snapshot was taken.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return the number of slots of each of the two tables.
+   */
+  public int getTableSlots() {
+    return tableSlots;
+  }
+
+  /**
+   * @return the number of items in T1, including those of the old tables of an
+   * incremental resize.
+   */
+  public int getTable1Items() {
+    return table1Items;
+  }
+
+  /**
+   * @return the number of items in T2, including those of the old tables of an
+   * incremental resize.
+   */
+  public int getTable2Items() {
+    return table2Items;
+  }
+
+  /**
+   * @return the number of items that couldn't be placed in either table.
+   */
+  public int getStashItems() {
+    return stashItems;
+  }
+
+  /**
+   * @return the number of items added to the tables.
+   */
+  public long getInsertions() {
+    return insertions;
+  }
+
+  /**
+   * @return the number of items moved to their other table to make room for another.
+   */
+  public long getKicks() {
+    return kicks;
+  }
+
+  /**
+   * @return the number of insertions that moved <tt>i</tt> items, for each index
+   * <tt>i</tt>. The last entry counts all the insertions that moved
+   * {@link #KICK_CHAIN_HISTOGRAM_SIZE}<tt> - 1</tt> items or more.
+   */
+  public long[] getKickChainHistogram() {
+    return kickChainHistogram.clone();
+  }
+
+  /**
+   * @return the number of insertions that found no free slot within reach, and had to
+   * stash the item or rehash the map.
+   */
+  public long getFailedSearches() {
+    return failedSearches;
+  }
+
+  /**
+   * @return how many insertions ended up in the stash, counted even while statistics
+   * are disabled.
+   */
+  public long getStashInsertions() {
+    return stashInsertions;
+  }
+
+  /**
+   * @return the number of times the items were re-added to new tables with new hash
+   * functions, without growing the map, because an item couldn't be placed or to shrink
+   * the map.
+   */
+  public long getRehashes() {
+    return rehashes;
+  }
+
+  /**
+   * @return the number of rehashes that couldn't place all the items.
+   */
+  public long getFailedRehashes() {
+    return failedRehashes;
+  }
+
+  public long getGrows() {
+    return grows;
+  }
+
+  public long getShrinks() {
+    return shrinks;
+  }
+
+  /**
+   * @return the time spent moving items to new tables, by growing, shrinking and
+   * rehashing the map, in nanoseconds.
+   */
+  public long getResizeNanos() {
+    return resizeNanos;
+  }
+
+  /**
+   * @return the number of lookups that found their key in T1.
+   */
+  public long getTable1Hits() {
+    return table1Hits;
+  }
+
+  /**
+   * @return the number of lookups that found their key in T2.
+   */
+  public long getTable2Hits() {
+    return table2Hits;
+  }
+
+  /**
+   * @return the number of lookups that found their key in the stash.
+   */
+  public long getStashHits() {
+    return stashHits;
+  }
+
+  /**
+   * @return the number of lookups that found their key in the old tables of an
+   * incremental resize.
+   */
+  public long getOldTablesHits() {
+    return oldTablesHits;
+  }
+
+  /**
+   * @return the number of lookups of keys that weren't in the map.
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  @Override
+  public String toString() {
+    return "CuckooHashMapStats{size=" + size + ", tableSlots=" + tableSlots
+        + ", table1Items=" + table1Items + ", table2Items=" + table2Items
+        + ", stashItems=" + stashItems + ", insertions=" + insertions + ", kicks=" + kicks
+        + ", failedSearches=" + failedSearches + ", stashInsertions=" + stashInsertions
+        + ", rehashes=" + rehashes + ", failedRehashes=" + failedRehashes
+        + ", grows=" + grows + ", shrinks=" + shrinks + ", resizeNanos=" + resizeNanos
+        + ", table1Hits=" + table1Hits + ", table2Hits=" + table2Hits
+        + ", stashHits=" + stashHits + ", oldTablesHits=" + oldTablesHits
+        + ", misses=" + misses + "}";
+  }
+}
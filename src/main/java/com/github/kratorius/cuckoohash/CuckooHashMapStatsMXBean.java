@@ -0,0 +1,53 @@
+package com.github.kratorius.cuckoohash;
+
+/**
+ * Management interface exposing the statistics of a {@link CuckooHashMap}, see
+ * {@link CuckooHashMap#getStatsMXBean()}. The attributes are those of
+ * {@link CuckooHashMapStats}, each read from a new snapshot, and setting
+ * <tt>Enabled</tt> starts or stops counting.
+ */
+public interface CuckooHashMapStatsMXBean {
+  boolean isEnabled();
+
+  void setEnabled(boolean enabled);
+
+  int getSize();
+
+  int getTableSlots();
+
+  int getTable1Items();
+
+  int getTable2Items();
+
+  int getStashItems();
+
+  long getInsertions();
+
+  long getKicks();
+
+  long[] getKickChainHistogram();
+
+  long getFailedSearches();
+
+  long getStashInsertions();
+
+  long getRehashes();
+
+  long getFailedRehashes();
+
+  long getGrows();
+
+  long getShrinks();
+
+  long getResizeNanos();
+
+  long getTable1Hits();
+
+  long getTable2Hits();
+
+  long getStashHits();
+
+  long getOldTablesHits();
+
+  long getMisses();
+}
@@ -0,0 +1,191 @@
+package com.github.kratorius.cuckoohash;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks and version counters protecting the buckets of a concurrent cuckoo table,
+ * along with the breadth-first search of displacement paths, shared by
+ * {@link ConcurrentCuckooHashMap} and {@link ConcurrentCuckooFilter}.
+ * <p>
+ * A bucket is protected by the stripe <tt>bucket &amp; (stripes - 1)</tt>. Writers lock
+ * the stripes of the buckets they modify and call {@link #bumpVersions(int, int)} right
+ * before and right after modifying them, so that readers can check the versions instead
+ * of locking.
+ */
+final class CuckooStripes {
+  // Versions are spread 8 longs apart so that two stripes never share a cache line.
+  private static final int VERSION_SPACING_SHIFT = 3;
+
+  /**
+   * The buckets explored by {@link #searchPath}.
+   */
+  interface Buckets {
+    /**
+     * @return the bucket that the item in <tt>slot</tt> of <tt>bucket</tt> would be moved
+     * to, or <tt>-1</tt> if the slot is free.
+     */
+    int alternative(int bucket, int slot);
+  }
+
+  /**
+   * Result of the breadth-first search: the buckets to go through, from one of the two
+   * buckets of the item being added to the bucket with a free slot, and for each of them
+   * the slot whose item is moved to the next bucket. The last slot is the free one.
+   */
+  static final class Path {
+    final int[] buckets;
+    final int[] slots;
+
+    Path(int length) {
+      buckets = new int[length];
+      slots = new int[length];
+    }
+  }
+
+  private final ReentrantLock[] locks;
+  private final AtomicLongArray versions;
+  private final int stripeMask;
+
+  /**
+   * @param stripes  the number of stripes, a power of two.
+   */
+  CuckooStripes(int stripes) {
+    this.stripeMask = stripes - 1;
+    this.locks = new ReentrantLock[stripes];
+    for (int i = 0; i < stripes; i++) {
+      locks[i] = new ReentrantLock();
+    }
+    this.versions = new AtomicLongArray(stripes << VERSION_SPACING_SHIFT);
+  }
+
+  int stripe(int bucket) {
+    return bucket & stripeMask;
+  }
+
+  long version(int stripe) {
+    return versions.get(stripe << VERSION_SPACING_SHIFT);
+  }
+
+  /**
+   * @return the versions of all the stripes, or <tt>null</tt> if a writer is modifying
+   * one of the buckets.
+   */
+  long[] versions() {
+    final long[] stripeVersions = new long[locks.length];
+    for (int stripe = 0; stripe < stripeVersions.length; stripe++) {
+      if (((stripeVersions[stripe] = version(stripe)) & 1) != 0) {
+        return null;
+      }
+    }
+    return stripeVersions;
+  }
+
+  /**
+   * Must be called right before and right after modifying the buckets, while holding
+   * their stripes: an odd version tells readers that a write is in progress, and a
+   * version that changed during a read tells them to retry.
+   */
+  void bumpVersions(int b1, int b2) {
+    final int s1 = b1 & stripeMask;
+    final int s2 = b2 & stripeMask;
+    versions.incrementAndGet(s1 << VERSION_SPACING_SHIFT);
+    if (s1 != s2) {
+      versions.incrementAndGet(s2 << VERSION_SPACING_SHIFT);
+    }
+  }
+
+  /**
+   * Locks the stripes of the two buckets, lowest stripe first.
+   */
+  void lockPair(int b1, int b2) {
+    final int s1 = b1 & stripeMask;
+    final int s2 = b2 & stripeMask;
+    if (s1 == s2) {
+      locks[s1].lock();
+    } else {
+      locks[Math.min(s1, s2)].lock();
+      locks[Math.max(s1, s2)].lock();
+    }
+  }
+
+  void unlockPair(int b1, int b2) {
+    final int s1 = b1 & stripeMask;
+    final int s2 = b2 & stripeMask;
+    locks[s1].unlock();
+    if (s1 != s2) {
+      locks[s2].unlock();
+    }
+  }
+
+  void lockAll() {
+    for (ReentrantLock lock : locks) {
+      lock.lock();
+    }
+  }
+
+  void unlockAll() {
+    for (int i = locks.length - 1; i >= 0; i--) {
+      locks[i].unlock();
+    }
+  }
+
+  /**
+   * Breadth-first search of the shortest sequence of displacements that frees a slot in
+   * <tt>b1</tt> or <tt>b2</tt>. The buckets are usually read without locks, so the path
+   * may be stale by the time it's applied.
+   *
+   * @param maxNodes  the maximum number of buckets to explore.
+   * @return the path or <tt>null</tt> if there is none within <tt>maxNodes</tt> buckets.
+   */
+  static Path searchPath(Buckets buckets, int slotsPerBucket, int maxNodes, int b1, int b2) {
+    final int[] nodeBucket = new int[maxNodes];
+    final int[] parent = new int[maxNodes];
+    // Slot of the parent bucket holding the item that moves to this node.
+    final int[] parentSlot = new int[maxNodes];
+
+    nodeBucket[0] = b1;
+    parent[0] = -1;
+    nodeBucket[1] = b2;
+    parent[1] = -1;
+    int tail = 2;
+
+    for (int head = 0; head < tail; head++) {
+      for (int slot = 0; slot < slotsPerBucket; slot++) {
+        final int next = buckets.alternative(nodeBucket[head], slot);
+        if (next < 0) {
+          return buildPath(head, slot, nodeBucket, parent, parentSlot);
+        }
+        if (tail < maxNodes) {
+          nodeBucket[tail] = next;
+          parent[tail] = head;
+          parentSlot[tail] = slot;
+          tail++;
+        }
+      }
+    }
+
+    return null;
+  }
+
+  private static Path buildPath(int node, int freeSlot, int[] nodeBucket, int[] parent,
+                                int[] parentSlot) {
+    int length = 1;
+    for (int n = node; parent[n] >= 0; n = parent[n]) {
+      length++;
+    }
+
+    final Path path = new Path(length);
+    int n = node;
+    int slot = freeSlot;
+    for (int i = length - 1; i >= 0; i--) {
+      path.buckets[i] = nodeBucket[n];
+      path.slots[i] = slot;
+      if (i > 0) {
+        slot = parentSlot[n];
+        n = parent[n];
+      }
+    }
+    return path;
+  }
+}
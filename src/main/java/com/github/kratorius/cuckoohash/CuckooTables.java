@@ -0,0 +1,76 @@
+package com.github.kratorius.cuckoohash;
+
+import java.util.Random;
+
+/**
+ * Sizing and hashing helpers shared by the maps of this package.
+ */
+final class CuckooTables {
+  /**
+   * Largest power of two that an array can hold, and so the largest size of a table.
+   */
+  static final int MAX_TABLE_SIZE = 1 << 30;
+
+  private CuckooTables() {
+  }
+
+  /**
+   * @return the smallest power of two greater than or equal to <tt>n</tt>, or 1 if
+   * <tt>n</tt> is not positive.
+   */
+  static int roundPowerOfTwo(int n) {
+    n--;
+
+    n |= n >>> 1;
+    n |= n >>> 2;
+    n |= n >>> 4;
+    n |= n >>> 8;
+    n |= n >>> 16;
+
+    return (n < 0) ? 1 : n + 1;
+  }
+
+  /**
+   * @return twice <tt>tableSize</tt>.
+   * @throws IllegalStateException if that would exceed {@link #MAX_TABLE_SIZE}.
+   */
+  static int grownTableSize(int tableSize) {
+    if (tableSize >= MAX_TABLE_SIZE) {
+      throw new IllegalStateException("the tables can't grow beyond " + MAX_TABLE_SIZE + " slots");
+    }
+    return tableSize << 1;
+  }
+
+  /**
+   * @return a random odd multiplier for {@link #multiplyShift(int, int, int)}.
+   */
+  static int intMultiplier(Random random) {
+    return random.nextInt() | 1;
+  }
+
+  /**
+   * @return a random odd multiplier for {@link #multiplyShift(long, long, int)}.
+   */
+  static long longMultiplier(Random random) {
+    return random.nextLong() | 1L;
+  }
+
+  /**
+   * @return the shift that leaves only the bits required to index a table of
+   * <tt>tableSize</tt> slots out of a hash of <tt>hashBits</tt> bits.
+   */
+  static int hashShift(int hashBits, int tableSize) {
+    return hashBits - Integer.numberOfTrailingZeros(tableSize);
+  }
+
+  /**
+   * Multiply-shift hash function: the highest bits of <tt>key * a</tt>.
+   */
+  static int multiplyShift(int key, int a, int shift) {
+    return (key * a) >>> shift;
+  }
+
+  static int multiplyShift(long key, long a, int shift) {
+    return (int) ((key * a) >>> shift);
+  }
+}
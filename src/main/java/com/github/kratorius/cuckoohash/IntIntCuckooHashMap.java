@@ -0,0 +1,352 @@
+package com.github.kratorius.cuckoohash;
+
+import java.util.Random;
+
+/**
+ * Cuckoo hash map specialized for primitive <code>int</code> keys and values.
+ * <p>
+ * This map uses the same two-table layout and displacement strategy as
+ * {@link CuckooHashMap}, but keys and values are kept in plain <code>int</code> arrays:
+ * nothing is boxed, no entry object is allocated on <tt>put</tt> and keys are hashed
+ * directly with a multiply-shift hash function rather than through <tt>hashCode()</tt>.
+ * <p>
+ * The <code>0</code> key is used internally to mark free slots, so it's stored aside
+ * from the tables. Methods that return a value return {@link #NO_VALUE} when the key
+ * is not in the map; use {@link #containsKey(int)} to tell a missing key apart from a
+ * key mapped to <code>0</code>.
+ * <p>
+ * Note that this implementation is not synchronized and not thread safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public class IntIntCuckooHashMap {
+  /**
+   * Value returned by {@link #get(int)}, {@link #put(int, int)} and {@link #remove(int)}
+   * when the key is not in the map.
+   */
+  public static final int NO_VALUE = 0;
+
+  private static final int THRESHOLD_LOOP = 8;
+  private static final int DEFAULT_START_SIZE = 16;
+  private static final float DEFAULT_LOAD_FACTOR = 0.45f;
+  private static final Random RANDOM = new Random();
+
+  private final int defaultStartSize;
+  private final float loadFactor;
+
+  // Odd multipliers of the two hash functions and the shift that leaves only the bits
+  // required to index a table.
+  private int a1;
+  private int a2;
+  private int hashShift;
+
+  private int[] keys1;
+  private int[] values1;
+  private int[] keys2;
+  private int[] values2;
+
+  private boolean hasZeroKey = false;
+  private int zeroValue = NO_VALUE;
+
+  private int size = 0;
+
+  // Item left without a slot by the last failed putSafe().
+  private int pendingKey;
+  private int pendingValue;
+
+  /**
+   * Constructs an empty <tt>IntIntCuckooHashMap</tt> with the default initial capacity (16).
+   */
+  public IntIntCuckooHashMap() {
+    this(DEFAULT_START_SIZE, DEFAULT_LOAD_FACTOR);
+  }
+
+  /**
+   * Constructs an empty <tt>IntIntCuckooHashMap</tt> with the specified initial capacity.
+   * The given capacity will be rounded to the nearest power of two.
+   *
+   * @param initialCapacity  the initial capacity.
+   */
+  public IntIntCuckooHashMap(int initialCapacity) {
+    this(initialCapacity, DEFAULT_LOAD_FACTOR);
+  }
+
+  public IntIntCuckooHashMap(int initialCapacity, float loadFactor) {
+    if (initialCapacity <= 0) {
+      throw new IllegalArgumentException("initial capacity must be strictly positive");
+    }
+    if (loadFactor <= 0.f || loadFactor > 1.f) {
+      throw new IllegalArgumentException("load factor must be a value in the (0.0f, 1.0f] range.");
+    }
+
+    this.defaultStartSize = Math.max(CuckooTables.roundPowerOfTwo(initialCapacity), 4);
+    this.loadFactor = loadFactor;
+
+    allocate(defaultStartSize / 2);
+  }
+
+  public boolean containsKey(int key) {
+    if (key == 0) {
+      return hasZeroKey;
+    }
+    return keys1[hash1(key)] == key || keys2[hash2(key)] == key;
+  }
+
+  /**
+   * @return the value associated to <tt>key</tt> or {@link #NO_VALUE} if the key is not
+   * in the map.
+   */
+  public int get(int key) {
+    return getOrDefault(key, NO_VALUE);
+  }
+
+  public int getOrDefault(int key, int defaultValue) {
+    if (key == 0) {
+      return hasZeroKey ? zeroValue : defaultValue;
+    }
+
+    int h = hash1(key);
+    if (keys1[h] == key) {
+      return values1[h];
+    }
+
+    h = hash2(key);
+    if (keys2[h] == key) {
+      return values2[h];
+    }
+
+    return defaultValue;
+  }
+
+  /**
+   * @return the previous value associated to <tt>key</tt> or {@link #NO_VALUE} if the key
+   * was not in the map.
+   */
+  public int put(int key, int value) {
+    int old;
+
+    if (key == 0) {
+      old = zeroValue;
+      zeroValue = value;
+      if (hasZeroKey) {
+        return old;
+      }
+      hasZeroKey = true;
+      size++;
+      return NO_VALUE;
+    }
+
+    // Just update the value if the key is already in the map.
+    int h = hash1(key);
+    if (keys1[h] == key) {
+      old = values1[h];
+      values1[h] = value;
+      return old;
+    }
+    h = hash2(key);
+    if (keys2[h] == key) {
+      old = values2[h];
+      values2[h] = value;
+      return old;
+    }
+
+    // If we need to grow after adding this item, it's probably best to grow before we add it.
+    final float currentLoad = (float) (size + 1) / (keys1.length + keys2.length);
+    if (currentLoad >= loadFactor) {
+      grow();
+    }
+
+    while (!putSafe(key, value)) {
+      key = pendingKey;
+      value = pendingValue;
+      if (!rehash()) {
+        grow();
+      }
+    }
+
+    size++;
+    return NO_VALUE;
+  }
+
+  /**
+   * Adds a key that is known not to be in the tables.
+   *
+   * @return <tt>false</tt> if we failed to find a slot for one of the items, which is then
+   * left in <tt>pendingKey</tt> and <tt>pendingValue</tt>.
+   */
+  private boolean putSafe(int key, int value) {
+    int h, evictedKey, evictedValue;
+    boolean evictFromT1 = true;
+
+    for (int loop = 0; loop < THRESHOLD_LOOP; loop++) {
+      // We're intentionally biased towards adding items in T1 since that leads to
+      // slightly faster successful lookups.
+      h = hash1(key);
+      if (keys1[h] == 0) {
+        keys1[h] = key;
+        values1[h] = value;
+        return true;
+      }
+      h = hash2(key);
+      if (keys2[h] == 0) {
+        keys2[h] = key;
+        values2[h] = value;
+        return true;
+      }
+
+      // Both tables have an item in the required position, alternate between T1 and T2
+      // when choosing which one to kick out.
+      if (evictFromT1) {
+        h = hash1(key);
+        evictedKey = keys1[h];
+        evictedValue = values1[h];
+        keys1[h] = key;
+        values1[h] = value;
+      } else {
+        evictedKey = keys2[h];
+        evictedValue = values2[h];
+        keys2[h] = key;
+        values2[h] = value;
+      }
+      key = evictedKey;
+      value = evictedValue;
+      evictFromT1 = !evictFromT1;
+    }
+
+    pendingKey = key;
+    pendingValue = value;
+    return false;
+  }
+
+  /**
+   * @return the value that was associated to <tt>key</tt> or {@link #NO_VALUE} if the
+   * key was not in the map.
+   */
+  public int remove(int key) {
+    int old;
+
+    if (key == 0) {
+      if (!hasZeroKey) {
+        return NO_VALUE;
+      }
+      old = zeroValue;
+      hasZeroKey = false;
+      zeroValue = NO_VALUE;
+      size--;
+      return old;
+    }
+
+    int h = hash1(key);
+    if (keys1[h] == key) {
+      old = values1[h];
+      keys1[h] = 0;
+      values1[h] = 0;
+      size--;
+      return old;
+    }
+
+    h = hash2(key);
+    if (keys2[h] == key) {
+      old = values2[h];
+      keys2[h] = 0;
+      values2[h] = 0;
+      size--;
+      return old;
+    }
+
+    return NO_VALUE;
+  }
+
+  public void clear() {
+    size = 0;
+    hasZeroKey = false;
+    zeroValue = NO_VALUE;
+    allocate(defaultStartSize / 2);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  private int hash1(int key) {
+    return CuckooTables.multiplyShift(key, a1, hashShift);
+  }
+
+  private int hash2(int key) {
+    return CuckooTables.multiplyShift(key, a2, hashShift);
+  }
+
+  /**
+   * Replaces both tables with empty ones of <tt>tableSize</tt> slots and picks new
+   * hash functions.
+   */
+  private void allocate(int tableSize) {
+    keys1 = new int[tableSize];
+    values1 = new int[tableSize];
+    keys2 = new int[tableSize];
+    values2 = new int[tableSize];
+
+    a1 = CuckooTables.intMultiplier(RANDOM);
+    a2 = CuckooTables.intMultiplier(RANDOM);
+    hashShift = CuckooTables.hashShift(Integer.SIZE, tableSize);
+  }
+
+  /**
+   * Double the size of the map until we can successfully manage to re-add all the items
+   * we currently contain.
+   *
+   * @throws IllegalStateException if the tables would exceed
+   * {@link CuckooTables#MAX_TABLE_SIZE} slots.
+   */
+  private void grow() {
+    int newSize = keys1.length;
+    do {
+      newSize = CuckooTables.grownTableSize(newSize);
+    } while (!rebuild(newSize));
+  }
+
+  private boolean rehash() {
+    for (int threshold = 0; threshold < THRESHOLD_LOOP; threshold++) {
+      if (rebuild(keys1.length)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Re-adds all the items to new tables of <tt>tableSize</tt> slots, restoring the old
+   * state if any of them can't be placed.
+   */
+  private boolean rebuild(int tableSize) {
+    // Save old state as we may need to restore it if the rebuild fails.
+    final int[] oldKeys1 = keys1;
+    final int[] oldValues1 = values1;
+    final int[] oldKeys2 = keys2;
+    final int[] oldValues2 = values2;
+    final int oldA1 = a1;
+    final int oldA2 = a2;
+    final int oldHashShift = hashShift;
+
+    allocate(tableSize);
+
+    for (int i = 0; i < oldKeys1.length; i++) {
+      if ((oldKeys1[i] != 0 && !putSafe(oldKeys1[i], oldValues1[i]))
+          || (oldKeys2[i] != 0 && !putSafe(oldKeys2[i], oldValues2[i]))) {
+        keys1 = oldKeys1;
+        values1 = oldValues1;
+        keys2 = oldKeys2;
+        values2 = oldValues2;
+        a1 = oldA1;
+        a2 = oldA2;
+        hashShift = oldHashShift;
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
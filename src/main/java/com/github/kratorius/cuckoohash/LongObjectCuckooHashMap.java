@@ -0,0 +1,357 @@
+package com.github.kratorius.cuckoohash;
+
+import java.util.Random;
+
+/**
+ * Cuckoo hash map specialized for primitive <code>long</code> keys.
+ * <p>
+ * This map uses the same two-table layout and displacement strategy as
+ * {@link CuckooHashMap}, but keys are kept in plain <code>long</code> arrays and values
+ * in a parallel array: keys are never boxed, no entry object is allocated on
+ * <tt>put</tt> and keys are hashed directly with a multiply-shift hash function rather
+ * than through <tt>hashCode()</tt>.
+ * <p>
+ * The <code>0</code> key is used internally to mark free slots, so it's stored aside
+ * from the tables. <code>null</code> values are permitted; use
+ * {@link #containsKey(long)} to tell a missing key apart from a key mapped to
+ * <code>null</code>.
+ * <p>
+ * Note that this implementation is not synchronized and not thread safe.
+ *
+ * @param <V>  the type of mapped values
+ */
+@SuppressWarnings("WeakerAccess")
+public class LongObjectCuckooHashMap<V> {
+
+  private static final int THRESHOLD_LOOP = 8;
+  private static final int DEFAULT_START_SIZE = 16;
+  private static final float DEFAULT_LOAD_FACTOR = 0.45f;
+  private static final Random RANDOM = new Random();
+
+  private final int defaultStartSize;
+  private final float loadFactor;
+
+  // Odd multipliers of the two hash functions and the shift that leaves only the bits
+  // required to index a table.
+  private long a1;
+  private long a2;
+  private int hashShift;
+
+  private long[] keys1;
+  private Object[] values1;
+  private long[] keys2;
+  private Object[] values2;
+
+  private boolean hasZeroKey = false;
+  private V zeroValue = null;
+
+  private int size = 0;
+
+  // Item left without a slot by the last failed putSafe().
+  private long pendingKey;
+  private Object pendingValue;
+
+  /**
+   * Constructs an empty <tt>LongObjectCuckooHashMap</tt> with the default initial capacity (16).
+   */
+  public LongObjectCuckooHashMap() {
+    this(DEFAULT_START_SIZE, DEFAULT_LOAD_FACTOR);
+  }
+
+  /**
+   * Constructs an empty <tt>LongObjectCuckooHashMap</tt> with the specified initial capacity.
+   * The given capacity will be rounded to the nearest power of two.
+   *
+   * @param initialCapacity  the initial capacity.
+   */
+  public LongObjectCuckooHashMap(int initialCapacity) {
+    this(initialCapacity, DEFAULT_LOAD_FACTOR);
+  }
+
+  public LongObjectCuckooHashMap(int initialCapacity, float loadFactor) {
+    if (initialCapacity <= 0) {
+      throw new IllegalArgumentException("initial capacity must be strictly positive");
+    }
+    if (loadFactor <= 0.f || loadFactor > 1.f) {
+      throw new IllegalArgumentException("load factor must be a value in the (0.0f, 1.0f] range.");
+    }
+
+    this.defaultStartSize = Math.max(CuckooTables.roundPowerOfTwo(initialCapacity), 4);
+    this.loadFactor = loadFactor;
+
+    allocate(defaultStartSize / 2);
+  }
+
+  public boolean containsKey(long key) {
+    if (key == 0) {
+      return hasZeroKey;
+    }
+    return keys1[hash1(key)] == key || keys2[hash2(key)] == key;
+  }
+
+  /**
+   * @return the value associated to <tt>key</tt> or <tt>null</tt> if the key is not
+   * in the map.
+   */
+  public V get(long key) {
+    return getOrDefault(key, null);
+  }
+
+  @SuppressWarnings("unchecked")
+  public V getOrDefault(long key, V defaultValue) {
+    if (key == 0) {
+      return hasZeroKey ? zeroValue : defaultValue;
+    }
+
+    int h = hash1(key);
+    if (keys1[h] == key) {
+      return (V) values1[h];
+    }
+
+    h = hash2(key);
+    if (keys2[h] == key) {
+      return (V) values2[h];
+    }
+
+    return defaultValue;
+  }
+
+  /**
+   * @return the previous value associated to <tt>key</tt> or <tt>null</tt> if the key
+   * was not in the map.
+   */
+  @SuppressWarnings("unchecked")
+  public V put(long key, V value) {
+    V old;
+
+    if (key == 0) {
+      old = zeroValue;
+      zeroValue = value;
+      if (hasZeroKey) {
+        return old;
+      }
+      hasZeroKey = true;
+      size++;
+      return null;
+    }
+
+    // Just update the value if the key is already in the map.
+    int h = hash1(key);
+    if (keys1[h] == key) {
+      old = (V) values1[h];
+      values1[h] = value;
+      return old;
+    }
+    h = hash2(key);
+    if (keys2[h] == key) {
+      old = (V) values2[h];
+      values2[h] = value;
+      return old;
+    }
+
+    // If we need to grow after adding this item, it's probably best to grow before we add it.
+    final float currentLoad = (float) (size + 1) / (keys1.length + keys2.length);
+    if (currentLoad >= loadFactor) {
+      grow();
+    }
+
+    Object v = value;
+    while (!putSafe(key, v)) {
+      key = pendingKey;
+      v = pendingValue;
+      if (!rehash()) {
+        grow();
+      }
+    }
+    pendingValue = null;
+
+    size++;
+    return null;
+  }
+
+  /**
+   * Adds a key that is known not to be in the tables.
+   *
+   * @return <tt>false</tt> if we failed to find a slot for one of the items, which is then
+   * left in <tt>pendingKey</tt> and <tt>pendingValue</tt>.
+   */
+  private boolean putSafe(long key, Object value) {
+    int h;
+    long evictedKey;
+    Object evictedValue;
+    boolean evictFromT1 = true;
+
+    for (int loop = 0; loop < THRESHOLD_LOOP; loop++) {
+      // We're intentionally biased towards adding items in T1 since that leads to
+      // slightly faster successful lookups.
+      h = hash1(key);
+      if (keys1[h] == 0) {
+        keys1[h] = key;
+        values1[h] = value;
+        return true;
+      }
+      h = hash2(key);
+      if (keys2[h] == 0) {
+        keys2[h] = key;
+        values2[h] = value;
+        return true;
+      }
+
+      // Both tables have an item in the required position, alternate between T1 and T2
+      // when choosing which one to kick out.
+      if (evictFromT1) {
+        h = hash1(key);
+        evictedKey = keys1[h];
+        evictedValue = values1[h];
+        keys1[h] = key;
+        values1[h] = value;
+      } else {
+        evictedKey = keys2[h];
+        evictedValue = values2[h];
+        keys2[h] = key;
+        values2[h] = value;
+      }
+      key = evictedKey;
+      value = evictedValue;
+      evictFromT1 = !evictFromT1;
+    }
+
+    pendingKey = key;
+    pendingValue = value;
+    return false;
+  }
+
+  /**
+   * @return the value that was associated to <tt>key</tt> or <tt>null</tt> if the key
+   * was not in the map.
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(long key) {
+    V old;
+
+    if (key == 0) {
+      if (!hasZeroKey) {
+        return null;
+      }
+      old = zeroValue;
+      hasZeroKey = false;
+      zeroValue = null;
+      size--;
+      return old;
+    }
+
+    int h = hash1(key);
+    if (keys1[h] == key) {
+      old = (V) values1[h];
+      keys1[h] = 0;
+      values1[h] = null;
+      size--;
+      return old;
+    }
+
+    h = hash2(key);
+    if (keys2[h] == key) {
+      old = (V) values2[h];
+      keys2[h] = 0;
+      values2[h] = null;
+      size--;
+      return old;
+    }
+
+    return null;
+  }
+
+  public void clear() {
+    size = 0;
+    hasZeroKey = false;
+    zeroValue = null;
+    allocate(defaultStartSize / 2);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  private int hash1(long key) {
+    return CuckooTables.multiplyShift(key, a1, hashShift);
+  }
+
+  private int hash2(long key) {
+    return CuckooTables.multiplyShift(key, a2, hashShift);
+  }
+
+  /**
+   * Replaces both tables with empty ones of <tt>tableSize</tt> slots and picks new
+   * hash functions.
+   */
+  private void allocate(int tableSize) {
+    keys1 = new long[tableSize];
+    values1 = new Object[tableSize];
+    keys2 = new long[tableSize];
+    values2 = new Object[tableSize];
+
+    a1 = CuckooTables.longMultiplier(RANDOM);
+    a2 = CuckooTables.longMultiplier(RANDOM);
+    hashShift = CuckooTables.hashShift(Long.SIZE, tableSize);
+  }
+
+  /**
+   * Double the size of the map until we can successfully manage to re-add all the items
+   * we currently contain.
+   *
+   * @throws IllegalStateException if the tables would exceed
+   * {@link CuckooTables#MAX_TABLE_SIZE} slots.
+   */
+  private void grow() {
+    int newSize = keys1.length;
+    do {
+      newSize = CuckooTables.grownTableSize(newSize);
+    } while (!rebuild(newSize));
+  }
+
+  private boolean rehash() {
+    for (int threshold = 0; threshold < THRESHOLD_LOOP; threshold++) {
+      if (rebuild(keys1.length)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Re-adds all the items to new tables of <tt>tableSize</tt> slots, restoring the old
+   * state if any of them can't be placed.
+   */
+  private boolean rebuild(int tableSize) {
+    // Save old state as we may need to restore it if the rebuild fails.
+    final long[] oldKeys1 = keys1;
+    final Object[] oldValues1 = values1;
+    final long[] oldKeys2 = keys2;
+    final Object[] oldValues2 = values2;
+    final long oldA1 = a1;
+    final long oldA2 = a2;
+    final int oldHashShift = hashShift;
+
+    allocate(tableSize);
+
+    for (int i = 0; i < oldKeys1.length; i++) {
+      if ((oldKeys1[i] != 0 && !putSafe(oldKeys1[i], oldValues1[i]))
+          || (oldKeys2[i] != 0 && !putSafe(oldKeys2[i], oldValues2[i]))) {
+        keys1 = oldKeys1;
+        values1 = oldValues1;
+        keys2 = oldKeys2;
+        values2 = oldValues2;
+        a1 = oldA1;
+        a2 = oldA2;
+        hashShift = oldHashShift;
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,311 @@
+package com.github.kratorius.cuckoohash;
+
+import com.github.kratorius.cuckoohash.CuckooHashMap.DefaultHashFunctionFactory;
+import com.github.kratorius.cuckoohash.CuckooHashMap.DefaultHashFunctionFactory.DefaultHashFunction;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link OffHeapCuckooHashMap} whose tables live in a memory-mapped file, so that a
+ * table built by one process can be {@link #open(Path, Codec, Codec) opened} by
+ * another in constant time and serve lookups straight from the page cache.
+ * <p>
+ * The file starts with a header holding the layout of the slots, the number of items
+ * and the multipliers of the hash functions of the two tables, followed by the slots
+ * of T1 and then those of T2. As the hash functions have to be stored in the file,
+ * this map always uses the default hash functions.
+ * <p>
+ * Keys are hashed through their <tt>hashCode()</tt>, so a table can only be opened by a
+ * process in which the keys have the same hash codes as in the one that wrote it. This
+ * holds for keys whose hash code is specified, like <tt>Long</tt> or <tt>String</tt>,
+ * but not for enums or for keys relying on the identity hash code of
+ * <tt>Object</tt>: they would be looked up in the wrong buckets.
+ * <p>
+ * Changes are written to the mapped file as they happen, but are only guaranteed to
+ * be on disk after {@link #force()}. Growing the map writes the new tables to a
+ * temporary file next to the table, which is forced to disk and then atomically
+ * renamed over the old one, so a crash while growing never leaves a half-built table
+ * behind. An insertion only moves items of the table once it has found a free slot,
+ * copying each of them before freeing its old slot, so an item that was written to the
+ * file stays in it even if the insertion fails. I/O errors while growing are thrown as
+ * {@link UncheckedIOException}s, leaving the map as it was before the insertion.
+ * <p>
+ * The files are unmapped once the map is garbage collected. Note that this
+ * implementation is not synchronized and not thread safe, and that a file must not be
+ * opened by more than one map at a time.
+ *
+ * @param <K>  the type of keys maintained by this map
+ * @param <V>  the type of mapped values
+ */
+@SuppressWarnings("WeakerAccess")
+public class MappedCuckooHashMap<K, V> extends OffHeapCuckooHashMap<K, V> {
+  private static final int MAGIC = 0x4375636b;  // "Cuck"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 64;
+
+  // Offsets of the header fields.
+  private static final int MAGIC_OFFSET = 0;
+  private static final int VERSION_OFFSET = 4;
+  private static final int KEY_WIDTH_OFFSET = 8;
+  private static final int VALUE_WIDTH_OFFSET = 12;
+  private static final int SLOTS_PER_BUCKET_OFFSET = 16;
+  private static final int LOAD_FACTOR_OFFSET = 20;
+  private static final int START_SIZE_OFFSET = 24;
+  private static final int TABLE_SIZE_OFFSET = 28;
+  private static final int SIZE_OFFSET = 32;
+  private static final int HASH1_A_OFFSET = 36;
+  private static final int HASH1_B_OFFSET = 40;
+  private static final int HASH2_A_OFFSET = 44;
+  private static final int HASH2_B_OFFSET = 48;
+
+  private final Path path;
+  private final Path tmpPath;
+  private final DefaultHashFunctionFactory hashFunctionFactory;
+  private final int keyWidth;
+  private final int valueWidth;
+
+  private MappedByteBuffer header;
+  // Header of the file written by the last call to newTables(), made current by
+  // replaceTables().
+  private MappedByteBuffer nextHeader;
+
+  /**
+   * Leaves the tables unset, see {@link #create(Path, Codec, Codec, int, float, int)}.
+   */
+  MappedCuckooHashMap(Path path, Codec<K> keyCodec, Codec<V> valueCodec,
+                      int initialCapacity, float loadFactor, int slotsPerBucket,
+                      DefaultHashFunctionFactory hashFunctionFactory) {
+    super(keyCodec, valueCodec, initialCapacity, loadFactor, slotsPerBucket, hashFunctionFactory,
+        false);
+    this.path = path;
+    this.tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+    this.hashFunctionFactory = hashFunctionFactory;
+    this.keyWidth = keyCodec.width();
+    this.valueWidth = valueCodec.width();
+  }
+
+  /**
+   * Creates an empty table at <tt>path</tt> with the default load factor, replacing any
+   * existing file.
+   *
+   * @param path  the file of the table.
+   * @param keyCodec  the codec of the keys.
+   * @param valueCodec  the codec of the values.
+   * @param initialCapacity  the initial capacity.
+   */
+  public static <K, V> MappedCuckooHashMap<K, V> create(
+      Path path, Codec<K> keyCodec, Codec<V> valueCodec, int initialCapacity) throws IOException {
+    return create(path, keyCodec, valueCodec, initialCapacity, DEFAULT_LOAD_FACTOR,
+        DEFAULT_SLOTS_PER_BUCKET);
+  }
+
+  /**
+   * Creates an empty table at <tt>path</tt>, replacing any existing file.
+   *
+   * @param path  the file of the table.
+   * @param keyCodec  the codec of the keys.
+   * @param valueCodec  the codec of the values.
+   * @param initialCapacity  the initial capacity.
+   * @param loadFactor  the load factor.
+   * @param slotsPerBucket  the number of slots in each bucket, must be a power of two.
+   */
+  public static <K, V> MappedCuckooHashMap<K, V> create(
+      Path path, Codec<K> keyCodec, Codec<V> valueCodec, int initialCapacity,
+      float loadFactor, int slotsPerBucket) throws IOException {
+    final MappedCuckooHashMap<K, V> m = new MappedCuckooHashMap<>(path, keyCodec, valueCodec,
+        initialCapacity, loadFactor, slotsPerBucket, new DefaultHashFunctionFactory());
+    try {
+      m.replaceTables(m.newTables(m.defaultStartSize / 2));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return m;
+  }
+
+  /**
+   * Opens a table previously created by {@link #create(Path, Codec, Codec, int)}. Only
+   * the header is read, the slots are loaded lazily by the operating system.
+   *
+   * @param path  the file of the table.
+   * @param keyCodec  the codec of the keys, must have the same width used to create it.
+   *                  The keys must have the same hash codes as when the table was written.
+   * @param valueCodec  the codec of the values, must have the same width used to create it.
+   * @throws IOException if the file can't be read or is not a table.
+   */
+  public static <K, V> MappedCuckooHashMap<K, V> open(
+      Path path, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      if (channel.size() < HEADER_BYTES) {
+        throw new IOException("not a cuckoo hash table: " + path);
+      }
+
+      final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+      if (header.getInt(MAGIC_OFFSET) != MAGIC) {
+        throw new IOException("not a cuckoo hash table: " + path);
+      }
+      if (header.getInt(VERSION_OFFSET) != VERSION) {
+        throw new IOException("unsupported cuckoo hash table version "
+            + header.getInt(VERSION_OFFSET) + ": " + path);
+      }
+      if (header.getInt(KEY_WIDTH_OFFSET) != keyCodec.width()
+          || header.getInt(VALUE_WIDTH_OFFSET) != valueCodec.width()) {
+        throw new IllegalArgumentException("the table was created with keys of "
+            + header.getInt(KEY_WIDTH_OFFSET) + " bytes and values of "
+            + header.getInt(VALUE_WIDTH_OFFSET) + " bytes");
+      }
+
+      final MappedCuckooHashMap<K, V> m = new MappedCuckooHashMap<>(path, keyCodec, valueCodec,
+          header.getInt(START_SIZE_OFFSET), header.getFloat(LOAD_FACTOR_OFFSET),
+          header.getInt(SLOTS_PER_BUCKET_OFFSET), new DefaultHashFunctionFactory());
+
+      final int tableSize = header.getInt(TABLE_SIZE_OFFSET);
+      // The size is used as a mask to index the tables.
+      if (tableSize <= 0 || (tableSize & (tableSize - 1)) != 0
+          || (tableSize >> m.bucketShift) == 0) {
+        throw new IOException("invalid cuckoo hash table size " + tableSize + ": " + path);
+      }
+      if (channel.size() != m.fileSize(tableSize)) {
+        throw new IOException("truncated cuckoo hash table: " + path);
+      }
+
+      final int buckets = tableSize >> m.bucketShift;
+      m.tables = m.mapTables(channel, tableSize,
+          new DefaultHashFunction(
+              header.getInt(HASH1_A_OFFSET), header.getInt(HASH1_B_OFFSET), buckets),
+          new DefaultHashFunction(
+              header.getInt(HASH2_A_OFFSET), header.getInt(HASH2_B_OFFSET), buckets));
+      m.size = header.getInt(SIZE_OFFSET);
+      m.header = header;
+      return m;
+    }
+  }
+
+  @Override
+  public V put(K key, V value) {
+    final V old = super.put(key, value);
+    header.putInt(SIZE_OFFSET, size);
+    return old;
+  }
+
+  @Override
+  public V remove(K key) {
+    final V old = super.remove(key);
+    header.putInt(SIZE_OFFSET, size);
+    return old;
+  }
+
+  /**
+   * Writes all the changes made to the table to disk.
+   */
+  public void force() {
+    force(tables, header);
+  }
+
+  private static void force(Tables t, MappedByteBuffer header) {
+    for (ByteBuffer chunk : t.table1) {
+      ((MappedByteBuffer) chunk).force();
+    }
+    for (ByteBuffer chunk : t.table2) {
+      ((MappedByteBuffer) chunk).force();
+    }
+    header.force();
+  }
+
+  /**
+   * Writes empty tables to the temporary file, which replaces the current one in
+   * {@link #replaceTables(Tables)}.
+   */
+  @Override
+  Tables newTables(int tableSize) {
+    final int buckets = tableSize >> bucketShift;
+    final DefaultHashFunction hashFunction1 =
+        (DefaultHashFunction) hashFunctionFactory.generate(buckets);
+    final DefaultHashFunction hashFunction2 =
+        (DefaultHashFunction) hashFunctionFactory.generate(buckets);
+
+    try (RandomAccessFile file = new RandomAccessFile(tmpPath.toFile(), "rw")) {
+      // Extending the file fills it with zeros, that is with free slots.
+      file.setLength(0);
+      file.setLength(fileSize(tableSize));
+
+      final FileChannel channel = file.getChannel();
+      final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+      header.putInt(MAGIC_OFFSET, MAGIC);
+      header.putInt(VERSION_OFFSET, VERSION);
+      header.putInt(KEY_WIDTH_OFFSET, keyWidth);
+      header.putInt(VALUE_WIDTH_OFFSET, valueWidth);
+      header.putInt(SLOTS_PER_BUCKET_OFFSET, slotsPerBucket);
+      header.putFloat(LOAD_FACTOR_OFFSET, loadFactor);
+      header.putInt(START_SIZE_OFFSET, defaultStartSize);
+      header.putInt(TABLE_SIZE_OFFSET, tableSize);
+      header.putInt(HASH1_A_OFFSET, hashFunction1.a);
+      header.putInt(HASH1_B_OFFSET, hashFunction1.b);
+      header.putInt(HASH2_A_OFFSET, hashFunction2.a);
+      header.putInt(HASH2_B_OFFSET, hashFunction2.b);
+
+      final Tables next = mapTables(channel, tableSize, hashFunction1, hashFunction2);
+      nextHeader = header;
+      return next;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  void replaceTables(Tables next) {
+    nextHeader.putInt(SIZE_OFFSET, size);
+    // The new file must be complete on disk before it replaces the old one.
+    force(next, nextHeader);
+    try {
+      moveTables(tmpPath, path);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    header = nextHeader;
+    nextHeader = null;
+    super.replaceTables(next);
+  }
+
+  /**
+   * Renames the file of the new tables over the current one, which is left as is if
+   * this fails.
+   */
+  void moveTables(Path source, Path target) throws IOException {
+    Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private Tables mapTables(FileChannel channel, int tableSize, DefaultHashFunction hashFunction1,
+                           DefaultHashFunction hashFunction2) throws IOException {
+    final long tableBytes = (long) tableSize * slotWidth;
+    return new Tables(tableSize,
+        mapTable(channel, HEADER_BYTES, tableSize),
+        mapTable(channel, HEADER_BYTES + tableBytes, tableSize),
+        hashFunction1, hashFunction2);
+  }
+
+  private ByteBuffer[] mapTable(FileChannel channel, long start, int tableSize)
+      throws IOException {
+    final int slotsPerChunk = slotsPerChunk(tableSize);
+    final long chunkBytes = (long) slotsPerChunk * slotWidth;
+    final ByteBuffer[] chunks = new ByteBuffer[tableSize / slotsPerChunk];
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start + i * chunkBytes, chunkBytes);
+    }
+    return chunks;
+  }
+
+  private long fileSize(int tableSize) {
+    return HEADER_BYTES + 2L * tableSize * slotWidth;
+  }
+}
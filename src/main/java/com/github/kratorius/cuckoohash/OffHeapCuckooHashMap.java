@@ -0,0 +1,634 @@
+package com.github.kratorius.cuckoohash;
+
+import com.github.kratorius.cuckoohash.CuckooHashMap.HashCodeFunction;
+import com.github.kratorius.cuckoohash.CuckooHashMap.HashFunction;
+import com.github.kratorius.cuckoohash.CuckooHashMap.HashFunctionFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cuckoo hash map for fixed-width keys and values stored outside of the Java heap.
+ * <p>
+ * This map uses the same two-table layout as {@link CuckooHashMap} and the same
+ * {@link HashFunctionFactory} to hash the keys, but every slot of the two tables is a
+ * fixed sequence of bytes in a direct {@link ByteBuffer}: a state byte followed by the
+ * key and the value, encoded by the given {@link Codec}s. Keys and values only exist as
+ * objects while they're being passed in or out of the map, so the heap used by the map
+ * doesn't depend on the number of items it contains.
+ * <p>
+ * Keys are compared by their encoded bytes, so two keys are considered equal iff their
+ * encoding is the same; the key codec must be consistent with <tt>hashCode()</tt>.
+ * <code>null</code> keys and values are not permitted.
+ * <p>
+ * Growing the map allocates new buffers and re-adds all the items, the memory of the
+ * old buffers is released once they're garbage collected.
+ * <p>
+ * Note that this implementation is not synchronized and not thread safe.
+ *
+ * @param <K>  the type of keys maintained by this map
+ * @param <V>  the type of mapped values
+ */
+@SuppressWarnings("WeakerAccess")
+public class OffHeapCuckooHashMap<K, V> {
+  /**
+   * Converts objects to and from a fixed number of bytes.
+   *
+   * @param <T>  the type of the encoded objects
+   */
+  public interface Codec<T> {
+    /**
+     * @return the number of bytes taken by every encoded object.
+     */
+    int width();
+
+    /**
+     * Writes <tt>value</tt> in the {@link #width()} bytes starting at <tt>offset</tt>,
+     * without modifying the position of <tt>buffer</tt>.
+     */
+    void encode(T value, ByteBuffer buffer, int offset);
+
+    /**
+     * Reads the object written by {@link #encode(Object, ByteBuffer, int)} at
+     * <tt>offset</tt>, without modifying the position of <tt>buffer</tt>.
+     */
+    T decode(ByteBuffer buffer, int offset);
+
+    /**
+     * @return the hash code of the object written at <tt>offset</tt>, which must be the
+     * same as <tt>decode(buffer, offset).hashCode()</tt>. Moving items around only needs
+     * the hash code of their keys, so codecs that can compute it without decoding the
+     * object save an allocation per move.
+     */
+    default int hashCode(ByteBuffer buffer, int offset) {
+      return decode(buffer, offset).hashCode();
+    }
+  }
+
+  public static final Codec<Integer> INT_CODEC = new Codec<Integer>() {
+    @Override
+    public int width() {
+      return Integer.BYTES;
+    }
+
+    @Override
+    public void encode(Integer value, ByteBuffer buffer, int offset) {
+      buffer.putInt(offset, value);
+    }
+
+    @Override
+    public Integer decode(ByteBuffer buffer, int offset) {
+      return buffer.getInt(offset);
+    }
+
+    @Override
+    public int hashCode(ByteBuffer buffer, int offset) {
+      return Integer.hashCode(buffer.getInt(offset));
+    }
+  };
+
+  public static final Codec<Long> LONG_CODEC = new Codec<Long>() {
+    @Override
+    public int width() {
+      return Long.BYTES;
+    }
+
+    @Override
+    public void encode(Long value, ByteBuffer buffer, int offset) {
+      buffer.putLong(offset, value);
+    }
+
+    @Override
+    public Long decode(ByteBuffer buffer, int offset) {
+      return buffer.getLong(offset);
+    }
+
+    @Override
+    public int hashCode(ByteBuffer buffer, int offset) {
+      return Long.hashCode(buffer.getLong(offset));
+    }
+  };
+
+  private static final int THRESHOLD_LOOP = 8;
+  private static final int DEFAULT_START_SIZE = 16;
+  static final float DEFAULT_LOAD_FACTOR = 0.45f;
+  static final int DEFAULT_SLOTS_PER_BUCKET = 1;
+  private static final int MAX_SLOTS_PER_BUCKET = 16;
+
+  // Bounds the breadth-first search for a free slot done by putSafe(), and therefore the
+  // number of items a single insertion can move around.
+  private static final int MAX_SEARCH_NODES = 512;
+
+  // A single buffer can't be larger than 2GB, so each table is split in chunks holding
+  // a power of two number of slots, of at most this many bytes.
+  private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+  // First byte of every slot.
+  private static final byte FREE = 0;
+  private static final byte USED = 1;
+
+  private final Codec<K> keyCodec;
+  private final Codec<V> valueCodec;
+  private final int keyWidth;
+  final int slotWidth;
+  private final int chunkShift;
+
+  final int defaultStartSize;
+  final float loadFactor;
+  final int slotsPerBucket;
+  final int bucketShift;
+  private final HashFunctionFactory hashFunctionFactory;
+
+  /**
+   * The two tables T1 and T2, each split in chunks of <tt>1 << chunkShift</tt> slots,
+   * along with the hash functions used to index them.
+   */
+  static final class Tables {
+    final int tableSize;
+    final ByteBuffer[] table1;
+    final ByteBuffer[] table2;
+    final HashFunction hashFunction1;
+    final HashFunction hashFunction2;
+
+    Tables(int tableSize, ByteBuffer[] table1, ByteBuffer[] table2,
+           HashFunction hashFunction1, HashFunction hashFunction2) {
+      this.tableSize = tableSize;
+      this.table1 = table1;
+      this.table2 = table2;
+      this.hashFunction1 = hashFunction1;
+      this.hashFunction2 = hashFunction2;
+    }
+  }
+
+  Tables tables;
+  int size = 0;
+
+  // Heap buffers holding the encoded key being looked up and the item being added,
+  // allocated once so that lookups and insertions don't allocate.
+  private final ByteBuffer lookupKey;
+  private final ByteBuffer carry;
+
+  // Scratch space of the breadth-first search done by putSafe(), allocated on first use.
+  // Node i is the bucket starting at slot searchBucket[i] (see slotChunk()), reached by
+  // moving the item of slot searchSlot[i] out of the bucket of node searchParent[i].
+  private int[] searchBucket;
+  private int[] searchParent;
+  private int[] searchSlot;
+
+  /**
+   * Constructs an empty <tt>OffHeapCuckooHashMap</tt> with the default initial capacity (16).
+   *
+   * @param keyCodec  the codec of the keys.
+   * @param valueCodec  the codec of the values.
+   */
+  public OffHeapCuckooHashMap(Codec<K> keyCodec, Codec<V> valueCodec) {
+    this(keyCodec, valueCodec, DEFAULT_START_SIZE);
+  }
+
+  /**
+   * Constructs an empty <tt>OffHeapCuckooHashMap</tt> with the specified initial capacity.
+   * The given capacity will be rounded to the nearest power of two.
+   *
+   * @param keyCodec  the codec of the keys.
+   * @param valueCodec  the codec of the values.
+   * @param initialCapacity  the initial capacity.
+   */
+  public OffHeapCuckooHashMap(Codec<K> keyCodec, Codec<V> valueCodec, int initialCapacity) {
+    this(keyCodec, valueCodec, initialCapacity, DEFAULT_LOAD_FACTOR, DEFAULT_SLOTS_PER_BUCKET);
+  }
+
+  public OffHeapCuckooHashMap(Codec<K> keyCodec, Codec<V> valueCodec, int initialCapacity,
+                              float loadFactor, int slotsPerBucket) {
+    this(keyCodec, valueCodec, initialCapacity, loadFactor, slotsPerBucket,
+        new CuckooHashMap.DefaultHashFunctionFactory());
+  }
+
+  public OffHeapCuckooHashMap(Codec<K> keyCodec, Codec<V> valueCodec, int initialCapacity,
+                              float loadFactor, int slotsPerBucket,
+                              HashFunctionFactory hashFunctionFactory) {
+    this(keyCodec, valueCodec, initialCapacity, loadFactor, slotsPerBucket, hashFunctionFactory,
+        true);
+  }
+
+  /**
+   * Lets subclasses that set up <tt>tables</tt> themselves skip the allocation of the
+   * initial tables.
+   */
+  OffHeapCuckooHashMap(Codec<K> keyCodec, Codec<V> valueCodec, int initialCapacity,
+                       float loadFactor, int slotsPerBucket,
+                       HashFunctionFactory hashFunctionFactory, boolean allocateTables) {
+    if (keyCodec.width() <= 0) {
+      throw new IllegalArgumentException("keys must take at least one byte");
+    }
+    if (initialCapacity <= 0) {
+      throw new IllegalArgumentException("initial capacity must be strictly positive");
+    }
+    if (loadFactor <= 0.f || loadFactor > 1.f) {
+      throw new IllegalArgumentException("load factor must be a value in the (0.0f, 1.0f] range.");
+    }
+    if (slotsPerBucket <= 0 || slotsPerBucket > MAX_SLOTS_PER_BUCKET
+        || Integer.bitCount(slotsPerBucket) != 1) {
+      throw new IllegalArgumentException(
+          "slots per bucket must be a power of two no greater than " + MAX_SLOTS_PER_BUCKET);
+    }
+
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    this.keyWidth = keyCodec.width();
+    this.slotWidth = 1 + keyWidth + valueCodec.width();
+    this.chunkShift = 31 - Integer.numberOfLeadingZeros(MAX_CHUNK_BYTES / slotWidth);
+
+    this.loadFactor = loadFactor;
+    this.slotsPerBucket = slotsPerBucket;
+    this.bucketShift = Integer.numberOfTrailingZeros(slotsPerBucket);
+    this.hashFunctionFactory = hashFunctionFactory;
+
+    this.lookupKey = ByteBuffer.allocate(keyWidth);
+    this.carry = ByteBuffer.allocate(slotWidth);
+
+    // Each table needs at least two buckets.
+    this.defaultStartSize = Math.max(CuckooTables.roundPowerOfTwo(initialCapacity), 4 * slotsPerBucket);
+    if (allocateTables) {
+      tables = newTables(defaultStartSize / 2);
+    }
+  }
+
+  public boolean containsKey(K key) {
+    return get(key) != null;
+  }
+
+  /**
+   * @return the value associated to <tt>key</tt> or <code>null</code> if the key is not
+   * in the map.
+   */
+  public V get(K key) {
+    if (key == null) {
+      throw new NullPointerException();
+    }
+
+    keyCodec.encode(key, lookupKey, 0);
+    final Tables t = tables;
+
+    int slot = findSlot(t.table1, t.hashFunction1.hash(key) << bucketShift);
+    if (slot >= 0) {
+      return readValue(t.table1, slot);
+    }
+
+    slot = findSlot(t.table2, t.hashFunction2.hash(key) << bucketShift);
+    if (slot >= 0) {
+      return readValue(t.table2, slot);
+    }
+
+    return null;
+  }
+
+  /**
+   * @return the previous value associated to <tt>key</tt> or <code>null</code> if the key
+   * was not in the map.
+   */
+  public V put(K key, V value) {
+    if (key == null || value == null) {
+      throw new NullPointerException();
+    }
+
+    keyCodec.encode(key, lookupKey, 0);
+    Tables t = tables;
+
+    // Just update the value if the key is already in the map.
+    ByteBuffer[] table = t.table1;
+    int slot = findSlot(table, t.hashFunction1.hash(key) << bucketShift);
+    if (slot < 0) {
+      table = t.table2;
+      slot = findSlot(table, t.hashFunction2.hash(key) << bucketShift);
+    }
+    if (slot >= 0) {
+      final V old = readValue(table, slot);
+      valueCodec.encode(value, chunk(table, slot), offset(slot) + 1 + keyWidth);
+      return old;
+    }
+
+    // If we need to grow after adding this item, it's probably best to grow before we add it.
+    final float currentLoad = (float) (size + 1) / (2 * t.tableSize);
+    if (currentLoad >= loadFactor) {
+      grow();
+    }
+
+    carry.put(0, USED);
+    keyCodec.encode(key, carry, 1);
+    valueCodec.encode(value, carry, 1 + keyWidth);
+
+    int rehashes = 0;
+    while (!putSafe(tables, tables.hashFunction1.hash(key) << bucketShift,
+        tables.hashFunction2.hash(key) << bucketShift, carry, 0)) {
+      // Nothing has been moved around, so the tables can be rebuilt before trying again.
+      // The other items may fit in every rebuild while this one never does, so give up
+      // on rehashing after a while.
+      if (rehashes++ == THRESHOLD_LOOP || !rehash()) {
+        rehashes = 0;
+        grow();
+      }
+    }
+
+    size++;
+    return null;
+  }
+
+  /**
+   * Adds the item encoded at <tt>srcOffset</tt> of <tt>src</tt>, whose key is known not
+   * to be in <tt>t</tt> and belongs to the buckets starting at <tt>b1</tt> in T1 and
+   * <tt>b2</tt> in T2. When both buckets are full, a breadth-first search looks for the
+   * shortest sequence of moves that frees a slot in one of them, and the moves are only
+   * applied once such a path has been found, starting from its free end.
+   *
+   * @return <tt>false</tt> if no free slot could be reached within
+   * {@link #MAX_SEARCH_NODES} buckets, in which case the tables are left untouched.
+   */
+  private boolean putSafe(Tables t, int b1, int b2, ByteBuffer src, int srcOffset) {
+    // We're intentionally biased towards adding items in T1 since that leads to
+    // slightly faster successful lookups.
+    int slot = findFreeSlot(t.table1, b1);
+    if (slot < 0 && (slot = findFreeSlot(t.table2, b2)) >= 0) {
+      slot += t.tableSize;
+    }
+    if (slot < 0 && (slot = displace(t, b1, b2)) < 0) {
+      return false;
+    }
+
+    copy(src, srcOffset, slotChunk(t, slot), slotOffset(t, slot), slotWidth);
+    return true;
+  }
+
+  /**
+   * Frees a slot in bucket <tt>b1</tt> of T1 or bucket <tt>b2</tt> of T2 by moving items
+   * to their other bucket.
+   *
+   * @return the freed slot (see {@link #slotChunk(Tables, int)}) or <tt>-1</tt> if none
+   * could be reached within {@link #MAX_SEARCH_NODES} buckets.
+   */
+  private int displace(Tables t, int b1, int b2) {
+    if (searchBucket == null) {
+      searchBucket = new int[MAX_SEARCH_NODES];
+      searchParent = new int[MAX_SEARCH_NODES];
+      searchSlot = new int[MAX_SEARCH_NODES];
+    }
+
+    final int tableSize = t.tableSize;
+    searchBucket[0] = b1;
+    searchParent[0] = -1;
+    searchBucket[1] = tableSize + b2;
+    searchParent[1] = -1;
+    int tail = 2;
+
+    for (int head = 0; head < tail; head++) {
+      final int bucket = searchBucket[head];
+      for (int slot = bucket; slot < bucket + slotsPerBucket; slot++) {
+        final ByteBuffer chunk = slotChunk(t, slot);
+        final int offset = slotOffset(t, slot);
+        if (chunk.get(offset) == FREE) {
+          return applyPath(t, head, slot);
+        }
+
+        if (tail < MAX_SEARCH_NODES) {
+          // The item can only go to its bucket in the other table.
+          searchBucket[tail] = slot < tableSize
+              ? tableSize + bucket(t.hashFunction2, chunk, offset + 1)
+              : bucket(t.hashFunction1, chunk, offset + 1);
+          searchParent[tail] = head;
+          searchSlot[tail] = slot;
+          tail++;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Moves the items along the path leading to <tt>node</tt>, whose bucket has
+   * <tt>freeSlot</tt> available, starting from the free end. Each item is copied to its
+   * new slot before its old slot is freed, so that an item that was stored is always in
+   * one of the buffers, or briefly in two of them.
+   *
+   * @return the slot freed in the first bucket of the path.
+   */
+  private int applyPath(Tables t, int node, int freeSlot) {
+    for (int n = node; searchParent[n] >= 0; n = searchParent[n]) {
+      final int from = searchSlot[n];
+      final ByteBuffer chunk = slotChunk(t, from);
+      final int offset = slotOffset(t, from);
+      copy(chunk, offset, slotChunk(t, freeSlot), slotOffset(t, freeSlot), slotWidth);
+      chunk.put(offset, FREE);
+      freeSlot = from;
+    }
+    return freeSlot;
+  }
+
+  /**
+   * @return the first slot of the bucket of the key encoded at <tt>offset</tt> of
+   * <tt>chunk</tt>. Hash functions that only depend on hash codes get it from the codec,
+   * without decoding the key.
+   */
+  private int bucket(HashFunction hashFunction, ByteBuffer chunk, int offset) {
+    final int bucket = hashFunction instanceof HashCodeFunction
+        ? ((HashCodeFunction) hashFunction).hash(keyCodec.hashCode(chunk, offset))
+        : hashFunction.hash(keyCodec.decode(chunk, offset));
+    return bucket << bucketShift;
+  }
+
+  /**
+   * @return the value that was associated to <tt>key</tt> or <code>null</code> if the
+   * key was not in the map.
+   */
+  public V remove(K key) {
+    if (key == null) {
+      throw new NullPointerException();
+    }
+
+    keyCodec.encode(key, lookupKey, 0);
+    final Tables t = tables;
+
+    ByteBuffer[] table = t.table1;
+    int slot = findSlot(table, t.hashFunction1.hash(key) << bucketShift);
+    if (slot < 0) {
+      table = t.table2;
+      slot = findSlot(table, t.hashFunction2.hash(key) << bucketShift);
+    }
+    if (slot < 0) {
+      return null;
+    }
+
+    final V old = readValue(table, slot);
+    chunk(table, slot).put(offset(slot), FREE);
+    size--;
+    return old;
+  }
+
+  public void clear() {
+    size = 0;
+    replaceTables(newTables(defaultStartSize / 2));
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  private ByteBuffer chunk(ByteBuffer[] table, int slot) {
+    return table[slot >>> chunkShift];
+  }
+
+  private int offset(int slot) {
+    return (slot & ((1 << chunkShift) - 1)) * slotWidth;
+  }
+
+  /**
+   * @return the slot holding the key encoded in <tt>lookupKey</tt> in the bucket starting
+   * at <tt>bucketStart</tt> or <tt>-1</tt> if the key is not there.
+   */
+  private int findSlot(ByteBuffer[] table, int bucketStart) {
+    for (int slot = bucketStart; slot < bucketStart + slotsPerBucket; slot++) {
+      final ByteBuffer chunk = chunk(table, slot);
+      final int offset = offset(slot);
+      if (chunk.get(offset) == USED && keyEquals(chunk, offset + 1)) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the first free slot in the bucket starting at <tt>bucketStart</tt> or
+   * <tt>-1</tt> if the bucket is full.
+   */
+  private int findFreeSlot(ByteBuffer[] table, int bucketStart) {
+    for (int slot = bucketStart; slot < bucketStart + slotsPerBucket; slot++) {
+      if (chunk(table, slot).get(offset(slot)) == FREE) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  private boolean keyEquals(ByteBuffer chunk, int offset) {
+    int i = 0;
+    for (; i + Long.BYTES <= keyWidth; i += Long.BYTES) {
+      if (chunk.getLong(offset + i) != lookupKey.getLong(i)) {
+        return false;
+      }
+    }
+    for (; i < keyWidth; i++) {
+      if (chunk.get(offset + i) != lookupKey.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Slots are numbered as if T2 followed T1: slots below <tt>t.tableSize</tt> are in T1,
+   * the others are in T2.
+   *
+   * @return the chunk holding <tt>slot</tt>.
+   */
+  private ByteBuffer slotChunk(Tables t, int slot) {
+    return slot < t.tableSize ? chunk(t.table1, slot) : chunk(t.table2, slot - t.tableSize);
+  }
+
+  /**
+   * @return the offset of <tt>slot</tt> (see {@link #slotChunk(Tables, int)}) in its chunk.
+   */
+  private int slotOffset(Tables t, int slot) {
+    return offset(slot < t.tableSize ? slot : slot - t.tableSize);
+  }
+
+  private V readValue(ByteBuffer[] table, int slot) {
+    return valueCodec.decode(chunk(table, slot), offset(slot) + 1 + keyWidth);
+  }
+
+  private static void copy(ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset,
+                           int length) {
+    int i = 0;
+    for (; i + Long.BYTES <= length; i += Long.BYTES) {
+      dst.putLong(dstOffset + i, src.getLong(srcOffset + i));
+    }
+    for (; i < length; i++) {
+      dst.put(dstOffset + i, src.get(srcOffset + i));
+    }
+  }
+
+  /**
+   * @return empty tables of <tt>tableSize</tt> slots each, with new hash functions.
+   */
+  Tables newTables(int tableSize) {
+    return new Tables(tableSize, allocate(tableSize), allocate(tableSize),
+        hashFunctionFactory.generate(tableSize >> bucketShift),
+        hashFunctionFactory.generate(tableSize >> bucketShift));
+  }
+
+  /**
+   * Installs tables returned by {@link #newTables(int)} once they've been filled.
+   */
+  void replaceTables(Tables next) {
+    tables = next;
+  }
+
+  /**
+   * @return the number of slots in each chunk of a table of <tt>tableSize</tt> slots.
+   */
+  int slotsPerChunk(int tableSize) {
+    return Math.min(tableSize, 1 << chunkShift);
+  }
+
+  private ByteBuffer[] allocate(int tableSize) {
+    final int slotsPerChunk = slotsPerChunk(tableSize);
+    final ByteBuffer[] chunks = new ByteBuffer[tableSize / slotsPerChunk];
+    for (int i = 0; i < chunks.length; i++) {
+      // Direct buffers are zeroed, so all the slots start FREE.
+      chunks[i] = ByteBuffer.allocateDirect(slotsPerChunk * slotWidth);
+    }
+    return chunks;
+  }
+
+  /**
+   * Double the size of the map until we can successfully manage to re-add all the items
+   * we currently contain.
+   */
+  private void grow() {
+    int newSize = tables.tableSize;
+    do {
+      newSize <<= 1;
+    } while (!rebuild(newSize));
+  }
+
+  private boolean rehash() {
+    for (int threshold = 0; threshold < THRESHOLD_LOOP; threshold++) {
+      if (rebuild(tables.tableSize)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Re-adds all the items to new tables of <tt>tableSize</tt> slots using new hash
+   * functions. The current tables are only replaced if all the items could be placed.
+   */
+  private boolean rebuild(int tableSize) {
+    final Tables old = tables;
+    final Tables next = newTables(tableSize);
+
+    for (int slot = 0; slot < 2 * old.tableSize; slot++) {
+      final ByteBuffer chunk = slotChunk(old, slot);
+      final int offset = slotOffset(old, slot);
+      if (chunk.get(offset) == USED
+          && !putSafe(next, bucket(next.hashFunction1, chunk, offset + 1),
+              bucket(next.hashFunction2, chunk, offset + 1), chunk, offset)) {
+        return false;
+      }
+    }
+
+    replaceTables(next);
+    return true;
+  }
+}
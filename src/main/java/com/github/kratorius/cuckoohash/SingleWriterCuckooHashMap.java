@@ -0,0 +1,184 @@
+package com.github.kratorius.cuckoohash;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@link CuckooHashMap} that can be modified by one writer thread while any number of
+ * reader threads look up keys, without readers ever taking a lock in the common case.
+ * <p>
+ * Only {@link #get(Object)}, {@link #getOrDefault(Object, Object)},
+ * {@link #getAll(Object[], Object[])}, {@link #containsKey(Object)}, {@link #size()} and
+ * {@link #isEmpty()} may be called from reader threads. Every other method, including
+ * iterating over the views, must be called from the single writer thread (or with
+ * external synchronization between writers).
+ * <p>
+ * The writer bumps a sequence counter (a {@link StampedLock} write stamp) around every
+ * in-place change of the tables: moving items around while adding a key, removing a key
+ * and swapping in the tables built by a resize. Readers run the regular two-probe lookup
+ * without locking and only retry if the counter shows that one of those changes
+ * overlapped with the lookup, so a reader never misses a key that is being moved
+ * between T1 and T2.
+ * <p>
+ * Resizing the map builds the new tables aside, so readers keep using the old ones and
+ * are never blocked by a <tt>grow()</tt>; only the final swap of the tables makes them
+ * retry.
+ *
+ * @param <K>  the type of keys maintained by this map
+ * @param <V>  the type of mapped values
+ */
+@SuppressWarnings("WeakerAccess")
+public class SingleWriterCuckooHashMap<K, V> extends CuckooHashMap<K, V> {
+  private static final long serialVersionUID = 1L;
+
+  // Readers stop spinning and wait for the writer after these many failed attempts.
+  private static final int MAX_OPTIMISTIC_READS = 64;
+
+  private final StampedLock sequence = new StampedLock();
+  private long writeStamp;
+
+  /**
+   * Constructs an empty <tt>SingleWriterCuckooHashMap</tt> with the default initial
+   * capacity (16).
+   */
+  public SingleWriterCuckooHashMap() {
+    super();
+  }
+
+  /**
+   * Constructs an empty <tt>SingleWriterCuckooHashMap</tt> with the specified initial
+   * capacity. The given capacity will be rounded to the nearest power of two.
+   *
+   * @param initialCapacity  the initial capacity.
+   */
+  public SingleWriterCuckooHashMap(int initialCapacity) {
+    super(initialCapacity);
+  }
+
+  public SingleWriterCuckooHashMap(int initialCapacity, float loadFactor, int slotsPerBucket) {
+    super(initialCapacity, loadFactor, slotsPerBucket);
+  }
+
+  public SingleWriterCuckooHashMap(int initialCapacity, float loadFactor, int slotsPerBucket,
+                                   HashFunctionFactory hashFunctionFactory) {
+    super(initialCapacity, loadFactor, slotsPerBucket, hashFunctionFactory);
+  }
+
+  @Override
+  public V get(Object key) {
+    return getOrDefault(key, null);
+  }
+
+  @Override
+  public V getOrDefault(Object key, V defaultValue) {
+    for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+      final long stamp = sequence.tryOptimisticRead();
+      if (stamp == 0L) {
+        // The writer is in the middle of a change.
+        continue;
+      }
+
+      final V value;
+      try {
+        value = lookup(key, defaultValue);
+      } catch (RuntimeException e) {
+        // We may have raced with the writer and seen a broken state, in which case the
+        // exception doesn't mean anything and we can retry.
+        if (sequence.validate(stamp)) {
+          throw e;
+        }
+        continue;
+      }
+
+      if (sequence.validate(stamp)) {
+        return value;
+      }
+    }
+
+    final long stamp = sequence.readLock();
+    try {
+      return lookup(key, defaultValue);
+    } finally {
+      sequence.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Looks up many keys at once like {@link CuckooHashMap#getAll(Object[], Object[])}.
+   * Each batch of keys is read consistently, but batches may see different states of the
+   * map.
+   */
+  @Override
+  public int getAll(K[] keys, V[] out) {
+    if (out.length < keys.length) {
+      throw new IllegalArgumentException("the output array is shorter than the keys");
+    }
+
+    final int[] scratch = new int[3 * GET_ALL_BATCH];
+    int found = 0;
+    for (int from = 0; from < keys.length; from += GET_ALL_BATCH) {
+      found += readBatch(keys, out, from, Math.min(from + GET_ALL_BATCH, keys.length), scratch);
+    }
+    return found;
+  }
+
+  private int readBatch(K[] keys, V[] out, int from, int to, int[] scratch) {
+    for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+      final long stamp = sequence.tryOptimisticRead();
+      if (stamp == 0L) {
+        continue;
+      }
+
+      final int found;
+      try {
+        found = lookupAll(keys, out, from, to, scratch);
+      } catch (RuntimeException e) {
+        if (sequence.validate(stamp)) {
+          throw e;
+        }
+        continue;
+      }
+
+      if (sequence.validate(stamp)) {
+        return found;
+      }
+    }
+
+    final long stamp = sequence.readLock();
+    try {
+      return lookupAll(keys, out, from, to, scratch);
+    } finally {
+      sequence.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public int size() {
+    long stamp = sequence.tryOptimisticRead();
+    final int size = super.size();
+    if (sequence.validate(stamp)) {
+      return size;
+    }
+
+    stamp = sequence.readLock();
+    try {
+      return super.size();
+    } finally {
+      sequence.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  void beginWrite() {
+    writeStamp = sequence.writeLock();
+  }
+
+  @Override
+  void endWrite() {
+    sequence.unlockWrite(writeStamp);
+  }
+}
@@ -0,0 +1,120 @@
+package com.github.kratorius.cuckoohash;
+
+import java.io.Serializable;
+import java.security.SecureRandom;
+
+/**
+ * Hash functions keyed with random secrets, which hash the content of strings and boxed
+ * primitives with SipHash-2-4 instead of relying on their <tt>hashCode()</tt>. Other
+ * keys are hashed through their hash code, so keys with equal hash codes still collide.
+ * <p>
+ * Many distinct strings share the same hash code, and those collisions are easy to
+ * find, while finding keys that collide with these functions requires knowing their
+ * secrets. They are however several times slower than the default ones, so
+ * {@link CuckooHashMap} only switches to them once it detects that its keys keep
+ * colliding (see "SipHash: a fast short-input PRF" by Aumasson and Bernstein).
+ */
+@SuppressWarnings("WeakerAccess")
+public class SipHashFunctionFactory implements CuckooHashMap.HashFunctionFactory, Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  @Override
+  public CuckooHashMap.HashFunction generate(int buckets) {
+    return new SipHashFunction(RANDOM.nextLong(), RANDOM.nextLong(), buckets);
+  }
+
+  static class SipHashFunction implements CuckooHashMap.HashFunction, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final long k0;
+    final long k1;
+    final int hashBits;
+
+    SipHashFunction(long k0, long k1, int buckets) {
+      this.k0 = k0;
+      this.k1 = k1;
+      this.hashBits = 31 - Integer.numberOfLeadingZeros(buckets);
+    }
+
+    @Override
+    public int hash(Object obj) {
+      final long h = hashContent(obj);
+      return hashBits == 0 ? 0 : (int) (h >>> (64 - hashBits));
+    }
+
+    long hashContent(Object obj) {
+      final Class<?> type = obj.getClass();
+      if (type == String.class) {
+        return sipHash((String) obj, 0, 2 * ((String) obj).length());
+      } else if (type == Long.class) {
+        return sipHash(null, (Long) obj, 8);
+      } else if (type == Double.class) {
+        return sipHash(null, Double.doubleToLongBits((Double) obj), 8);
+      } else if (type == Integer.class) {
+        return sipHash(null, (Integer) obj & 0xFFFFFFFFL, 4);
+      } else if (type == Float.class) {
+        return sipHash(null, Float.floatToIntBits((Float) obj) & 0xFFFFFFFFL, 4);
+      } else if (type == Character.class) {
+        return sipHash(null, (Character) obj, 2);
+      } else if (type == Short.class) {
+        return sipHash(null, (Short) obj & 0xFFFFL, 2);
+      } else if (type == Byte.class) {
+        return sipHash(null, (Byte) obj & 0xFFL, 1);
+      }
+      return sipHash(null, obj.hashCode() & 0xFFFFFFFFL, 4);
+    }
+
+    /**
+     * @return the SipHash-2-4 of the UTF-16LE encoding of <tt>chars</tt> or, if it's
+     * <code>null</code>, of the first <tt>length</tt> bytes of <tt>value</tt> in little
+     * endian order.
+     */
+    long sipHash(String chars, long value, int length) {
+      long v0 = k0 ^ 0x736f6d6570736575L;
+      long v1 = k1 ^ 0x646f72616e646f6dL;
+      long v2 = k0 ^ 0x6c7967656e657261L;
+      long v3 = k1 ^ 0x7465646279746573L;
+
+      final int words = length >>> 3;
+      for (int w = 0; w <= words; w++) {
+        long m;
+        if (chars != null) {
+          m = pack(chars, 4 * w, Math.min(4, (length >>> 1) - 4 * w));
+        } else {
+          m = length == 8 && w == words ? 0 : value;
+        }
+        if (w == words) {
+          // The last word holds the remaining bytes and the length of the message.
+          m |= (long) length << 56;
+        }
+
+        v3 ^= m;
+        for (int round = 0; round < 2; round++) {
+          v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+          v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+          v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+          v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        v0 ^= m;
+      }
+
+      v2 ^= 0xFF;
+      for (int round = 0; round < 4; round++) {
+        v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+        v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+        v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+        v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+      }
+      return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    private static long pack(String chars, int from, int count) {
+      long word = 0;
+      for (int i = 0; i < count; i++) {
+        word |= (long) chars.charAt(from + i) << (16 * i);
+      }
+      return word;
+    }
+  }
+}
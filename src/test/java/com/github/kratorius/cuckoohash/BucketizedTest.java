@@ -0,0 +1,78 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for cuckoo hash maps with more than one slot per bucket.
+ */
+public class BucketizedTest extends TestCase {
+  public void testHighLoadFactor() {
+    final int size = 1024 * 128;
+    CuckooHashMap<String, Integer> m = new CuckooHashMap<>(16, 0.95f, 4);
+
+    for (int i = 0; i < size; i++) {
+      m.put("key-" + i, i);
+      assertEquals(i, (int) m.get("key-" + i));
+    }
+    assertEquals(size, m.size());
+
+    for (int i = 0; i < size; i++) {
+      assertEquals(i, (int) m.get("key-" + i));
+    }
+    assertNull(m.get("key-" + size));
+  }
+
+  public void testUpdateAndRemove() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(16, 0.9f, 4);
+
+    for (int i = 0; i < 1024; i++) {
+      m.put(i, i);
+    }
+    for (int i = 0; i < 1024; i++) {
+      assertEquals(i, (int) m.put(i, -i));
+    }
+    assertEquals(1024, m.size());
+
+    for (int i = 0; i < 1024; i += 2) {
+      assertEquals(-i, (int) m.remove(i));
+    }
+    assertEquals(512, m.size());
+
+    for (int i = 0; i < 1024; i++) {
+      if (i % 2 == 0) {
+        assertNull(m.get(i));
+      } else {
+        assertEquals(-i, (int) m.get(i));
+      }
+    }
+  }
+
+  public void testNullKey() {
+    CuckooHashMap<String, String> m = new CuckooHashMap<>(16, 0.9f, 8);
+    m.put(null, "null");
+    m.put("A", "hello");
+
+    assertEquals("null", m.get(null));
+    assertEquals("hello", m.get("A"));
+    assertEquals("null", m.remove(null));
+    assertFalse(m.containsKey(null));
+  }
+
+  public void testSlotsPerBucket_mustBePowerOfTwo() {
+    try {
+      new CuckooHashMap<>(16, 0.9f, 3);
+      fail("3 accepted as a valid number of slots per bucket.");
+    } catch (IllegalArgumentException ex) {
+      // Expected.
+    }
+  }
+
+  public void testSlotsPerBucket_zeroIsNotValid() {
+    try {
+      new CuckooHashMap<>(16, 0.9f, 0);
+      fail("0 accepted as a valid number of slots per bucket.");
+    } catch (IllegalArgumentException ex) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests for building maps from many mappings at once.
+ */
+public class BulkLoadTest extends TestCase {
+  private static Map<Integer, String> mappings(int size) {
+    Map<Integer, String> m = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      m.put(i, "v" + i);
+    }
+    return m;
+  }
+
+  private static void assertMappings(Map<Integer, String> m, int size) {
+    assertEquals(size, m.size());
+    for (int i = 0; i < size; i++) {
+      assertEquals("v" + i, m.get(i));
+    }
+    assertNull(m.get(size));
+  }
+
+  public void testBulkLoad() {
+    for (int size : new int[] {0, 1, 1000, 200000}) {
+      CuckooHashMap<Integer, String> m = CuckooHashMap.bulkLoad(mappings(size));
+      assertMappings(m, size);
+      assertTrue((float) size / m.capacity() < 0.45f);
+
+      // The map keeps working as usual.
+      for (int i = size; i < size + 1000; i++) {
+        m.put(i, "v" + i);
+      }
+      for (int i = 0; i < size + 1000; i += 2) {
+        assertEquals("v" + i, m.remove(i));
+      }
+      assertEquals((size + 1000) / 2, m.size());
+    }
+  }
+
+  public void testBulkLoadBucketized() {
+    ForkJoinPool pool = new ForkJoinPool(3);
+    try {
+      for (int slotsPerBucket : new int[] {1, 4, 8}) {
+        CuckooHashMap<Integer, String> m =
+            CuckooHashMap.bulkLoad(mappings(100000), 0.9f, slotsPerBucket, pool);
+        assertMappings(m, 100000);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  public void testBulkLoadCollisions() {
+    // Every key has the same buckets: everything beyond the two buckets and the stash
+    // forces the map to try other hash functions and eventually to grow.
+    final CuckooHashMap.HashFunctionFactory factory = new CuckooHashMap.HashFunctionFactory() {
+      private int generated = 0;
+
+      @Override
+      public CuckooHashMap.HashFunction generate(int buckets) {
+        generated++;
+        return generated <= 4
+            ? obj -> 0
+            : new CuckooHashMap.DefaultHashFunctionFactory().generate(buckets);
+      }
+    };
+
+    CuckooHashMap<Integer, String> m = CuckooHashMap.bulkLoad(mappings(100), 0.45f, 1, factory,
+        ForkJoinPool.commonPool());
+    assertMappings(m, 100);
+  }
+
+  public void testBulkLoadNulls() {
+    Map<Integer, String> mappings = mappings(10);
+    mappings.put(null, "null");
+    mappings.put(10, null);
+
+    CuckooHashMap<Integer, String> m = CuckooHashMap.bulkLoad(mappings);
+    assertEquals(12, m.size());
+    assertEquals("null", m.get(null));
+    assertTrue(m.containsKey(10));
+    assertNull(m.get(10));
+    assertEquals(mappings, m);
+  }
+
+  public void testPutAllGrowsOnce() {
+    CuckooHashMap<Integer, String> m = new CuckooHashMap<>();
+    m.put(-1, "v-1");
+    m.putAll(mappings(10000));
+    final int capacity = m.capacity();
+    assertTrue((float) 10001 / capacity < 0.45f);
+    assertTrue((float) 10001 / capacity >= 0.45f / 2);
+    assertEquals("v-1", m.remove(-1));
+    assertMappings(m, 10000);
+  }
+}
@@ -0,0 +1,171 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for forEach(), replaceAll() and the removeIf(), removeAll() and retainAll() methods
+ * of the views, which walk the tables instead of going through iterators.
+ */
+public class BulkOperationsTest extends TestCase {
+  private static CuckooHashMap<Integer, Integer> newMap(int size, boolean incrementalResize) {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(16, 0.9f, 4,
+        new CuckooHashMap.DefaultHashFunctionFactory(), incrementalResize);
+    for (int i = 0; i < size; i++) {
+      m.put(i, i);
+    }
+    return m;
+  }
+
+  public void testForEach() {
+    for (boolean incrementalResize : new boolean[] {false, true}) {
+      CuckooHashMap<Integer, Integer> m = newMap(10000, incrementalResize);
+      m.put(null, -1);
+
+      Map<Integer, Integer> seen = new HashMap<>();
+      m.forEach((k, v) -> assertNull(seen.put(k, v)));
+      assertEquals(m, seen);
+
+      Set<Integer> keys = new HashSet<>();
+      m.keySet().forEach(k -> assertTrue(keys.add(k)));
+      assertEquals(m.keySet(), keys);
+
+      List<Integer> values = new ArrayList<>();
+      m.values().forEach(values::add);
+      assertEquals(m.size(), values.size());
+
+      m.entrySet().forEach(e -> e.setValue(e.getValue() + 1));
+      for (int i = 0; i < 10000; i++) {
+        assertEquals(i + 1, (int) m.get(i));
+      }
+    }
+  }
+
+  public void testForEachFailFast() {
+    CuckooHashMap<Integer, Integer> m = newMap(100, false);
+    try {
+      m.forEach((k, v) -> m.remove(k));
+      fail();
+    } catch (ConcurrentModificationException ignored) {
+    }
+  }
+
+  public void testReplaceAll() {
+    for (boolean incrementalResize : new boolean[] {false, true}) {
+      CuckooHashMap<Integer, Integer> m = newMap(10000, incrementalResize);
+      m.put(null, 0);
+      m.replaceAll((k, v) -> k == null ? -1 : v * 2);
+
+      assertEquals(10001, m.size());
+      assertEquals(-1, (int) m.get(null));
+      for (int i = 0; i < 10000; i++) {
+        assertEquals(2 * i, (int) m.get(i));
+      }
+    }
+
+    CuckooHashMap<Integer, Integer> m = newMap(100, false);
+    try {
+      m.replaceAll((k, v) -> m.put(k + 1000, v));
+      fail();
+    } catch (ConcurrentModificationException ignored) {
+    }
+  }
+
+  public void testReadDuringResize() {
+    CuckooHashMap<Integer, Integer> m = newMap(10000, true);
+    int n = 10000;
+    while (!m.isResizing()) {
+      m.put(n, n);
+      n++;
+    }
+
+    // Looking keys up from the callbacks must neither fail nor move items between the
+    // old and the new tables, which would make the walk skip or repeat them.
+    Map<Integer, Integer> seen = new HashMap<>();
+    m.forEach((k, v) -> {
+      assertEquals(v, m.get(k));
+      assertNull(seen.put(k, v));
+    });
+    assertEquals(n, seen.size());
+
+    m.replaceAll((k, v) -> m.getOrDefault(k, 0) + 1);
+    assertTrue(m.isResizing());
+    for (int i = 0; i < n; i++) {
+      assertEquals(i + 1, (int) m.get(i));
+    }
+  }
+
+  public void testRemoveIf() {
+    for (boolean incrementalResize : new boolean[] {false, true}) {
+      CuckooHashMap<Integer, Integer> m = newMap(10000, incrementalResize);
+      assertTrue(m.keySet().removeIf(k -> k % 2 == 0));
+      assertFalse(m.keySet().removeIf(k -> k % 2 == 0));
+      assertTrue(m.values().removeIf(v -> v % 3 == 0));
+      assertTrue(m.entrySet().removeIf(e -> e.getKey() % 5 == 0));
+
+      for (int i = 0; i < 10000; i++) {
+        assertEquals(i % 2 != 0 && i % 3 != 0 && i % 5 != 0, m.containsKey(i));
+      }
+      int expected = 0;
+      for (int i = 0; i < 10000; i++) {
+        expected += i % 2 != 0 && i % 3 != 0 && i % 5 != 0 ? 1 : 0;
+      }
+      assertEquals(expected, m.size());
+    }
+  }
+
+  public void testRemoveIfShrinks() {
+    CuckooHashMap<Integer, Integer> m = newMap(100000, false);
+    final int capacity = m.capacity();
+    m.keySet().removeIf(k -> k >= 100);
+
+    assertEquals(100, m.size());
+    assertTrue(m.capacity() < capacity / 16);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, (int) m.get(i));
+    }
+  }
+
+  public void testRemoveIfStash() {
+    // Every key goes to the first bucket of each table, so only two of them fit in the
+    // tables and the others are stashed.
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(64, 1.f, 1, buckets -> obj -> 0);
+    for (int i = 0; i < 6; i++) {
+      m.put(i, i);
+    }
+    assertTrue(m.keySet().removeIf(k -> k % 2 == 0));
+    assertEquals(3, m.size());
+    for (int i = 0; i < 6; i++) {
+      assertEquals(i % 2 != 0, m.containsKey(i));
+    }
+  }
+
+  public void testRemoveAllAndRetainAll() {
+    CuckooHashMap<Integer, Integer> m = newMap(1000, false);
+    // Smaller than the map, then larger.
+    assertTrue(m.keySet().removeAll(Arrays.asList(0, 1, 2, 5000)));
+    assertFalse(m.keySet().removeAll(Arrays.asList(0, 1, 2, 5000)));
+    Set<Integer> large = new HashSet<>();
+    for (int i = 0; i < 2000; i += 2) {
+      large.add(i);
+    }
+    assertTrue(m.keySet().removeAll(large));
+    assertEquals(499, m.size());
+
+    assertTrue(m.keySet().retainAll(Arrays.asList(3, 5, 7, 8)));
+    assertEquals(new HashSet<>(Arrays.asList(3, 5, 7)), m.keySet());
+
+    assertTrue(m.values().removeAll(Arrays.asList(3)));
+    assertTrue(m.values().retainAll(Arrays.asList(5)));
+    assertEquals(1, m.size());
+    assertEquals(5, (int) m.get(5));
+  }
+}
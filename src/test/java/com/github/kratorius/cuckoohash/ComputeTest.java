@@ -0,0 +1,176 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Tests for putIfAbsent(), replace(), compute(), computeIfAbsent(), computeIfPresent() and
+ * merge(), which the map implements without going through get() and put().
+ */
+public class ComputeTest extends TestCase {
+  public void testPutIfAbsent() {
+    CuckooHashMap<String, Integer> m = new CuckooHashMap<>();
+    assertNull(m.putIfAbsent("a", 1));
+    assertEquals(1, (int) m.putIfAbsent("a", 2));
+    assertEquals(1, (int) m.get("a"));
+
+    // A key mapped to null counts as absent.
+    m.put("b", null);
+    assertNull(m.putIfAbsent("b", 3));
+    assertEquals(3, (int) m.get("b"));
+
+    assertNull(m.putIfAbsent(null, 4));
+    assertEquals(4, (int) m.putIfAbsent(null, 5));
+    assertEquals(3, m.size());
+  }
+
+  public void testReplace() {
+    CuckooHashMap<String, Integer> m = new CuckooHashMap<>();
+    assertNull(m.replace("a", 1));
+    assertFalse(m.containsKey("a"));
+
+    m.put("a", 1);
+    assertEquals(1, (int) m.replace("a", 2));
+    assertEquals(2, (int) m.get("a"));
+
+    assertFalse(m.replace("a", 1, 3));
+    assertTrue(m.replace("a", 2, 3));
+    assertEquals(3, (int) m.get("a"));
+    assertFalse(m.replace("b", null, 3));
+
+    m.put("b", null);
+    assertTrue(m.replace("b", null, 4));
+    assertEquals(4, (int) m.get("b"));
+    assertEquals(2, m.size());
+  }
+
+  public void testComputeIfAbsent() {
+    CuckooHashMap<String, Integer> m = new CuckooHashMap<>();
+    assertEquals(1, (int) m.computeIfAbsent("a", k -> 1));
+    assertEquals(1, (int) m.computeIfAbsent("a", k -> 2));
+    assertNull(m.computeIfAbsent("b", k -> null));
+    assertFalse(m.containsKey("b"));
+
+    m.put("c", null);
+    assertEquals(3, (int) m.computeIfAbsent("c", k -> 3));
+    assertEquals(3, (int) m.get("c"));
+    assertEquals(2, m.size());
+  }
+
+  public void testComputeIfPresent() {
+    CuckooHashMap<String, Integer> m = new CuckooHashMap<>();
+    assertNull(m.computeIfPresent("a", (k, v) -> 1));
+    assertFalse(m.containsKey("a"));
+
+    m.put("a", 1);
+    assertEquals(2, (int) m.computeIfPresent("a", (k, v) -> v + 1));
+    assertEquals(2, (int) m.get("a"));
+
+    assertNull(m.computeIfPresent("a", (k, v) -> null));
+    assertFalse(m.containsKey("a"));
+    assertTrue(m.isEmpty());
+  }
+
+  public void testCompute() {
+    CuckooHashMap<String, Integer> m = new CuckooHashMap<>();
+    assertEquals(1, (int) m.compute("a", (k, v) -> v == null ? 1 : v + 1));
+    assertEquals(2, (int) m.compute("a", (k, v) -> v == null ? 1 : v + 1));
+    assertEquals(2, (int) m.get("a"));
+
+    assertNull(m.compute("a", (k, v) -> null));
+    assertFalse(m.containsKey("a"));
+    assertNull(m.compute("b", (k, v) -> null));
+    assertFalse(m.containsKey("b"));
+    assertTrue(m.isEmpty());
+  }
+
+  public void testMerge() {
+    CuckooHashMap<String, Integer> m = new CuckooHashMap<>();
+    assertEquals(1, (int) m.merge("a", 1, Integer::sum));
+    assertEquals(3, (int) m.merge("a", 2, Integer::sum));
+    assertEquals(3, (int) m.get("a"));
+
+    assertNull(m.merge("a", 1, (a, b) -> null));
+    assertFalse(m.containsKey("a"));
+    assertTrue(m.isEmpty());
+
+    try {
+      m.merge("a", null, Integer::sum);
+      fail();
+    } catch (NullPointerException ignored) {
+    }
+  }
+
+  public void testModifiedByFunction() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    try {
+      m.computeIfAbsent(1, k -> m.put(2, 2));
+      fail();
+    } catch (ConcurrentModificationException ignored) {
+    }
+
+    // Updating the value of another key doesn't move anything.
+    m.put(3, 3);
+    assertEquals(4, (int) m.compute(3, (k, v) -> {
+      m.put(2, 4);
+      return v + 1;
+    }));
+    assertEquals(4, (int) m.get(2));
+    assertEquals(4, (int) m.get(3));
+  }
+
+  public void testReadByFunctionDuringResize() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(16, 0.9f, 4,
+        new CuckooHashMap.DefaultHashFunctionFactory(), true);
+    // Large enough for the resize to take many operations.
+    int n = 0;
+    while (n < 10000 || !m.isResizing()) {
+      m.put(n, n);
+      n++;
+    }
+
+    // Lookups and value updates don't move items between the old and the new tables, so
+    // they don't invalidate the slot found by compute() nor the walk of forEach().
+    for (int i = 0; i < n; i++) {
+      final int key = i;
+      assertEquals(2 * i, (int) m.compute(i, (k, v) -> v + m.get(key)));
+      assertEquals(2 * i, (int) m.merge(i, 0, (a, b) -> m.getOrDefault(key, -1)));
+    }
+    m.entrySet().forEach(e -> {
+      assertEquals(e.getValue(), m.get(e.getKey()));
+      e.setValue(e.getValue() + 1);
+    });
+    assertTrue(m.isResizing());
+    for (int i = 0; i < n; i++) {
+      assertEquals(2 * i + 1, (int) m.get(i));
+    }
+  }
+
+  public void testMergeManyKeys() {
+    // Mostly insertions at first, then mostly updates and removals, across growths and
+    // shrinks, on both resize strategies.
+    for (boolean incrementalResize : new boolean[] {false, true}) {
+      CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(16, 0.9f, 4,
+          new CuckooHashMap.DefaultHashFunctionFactory(), incrementalResize);
+      HashMap<Integer, Integer> expected = new HashMap<>();
+      Random random = new Random(42);
+
+      for (int i = 0; i < 200000; i++) {
+        final int key = random.nextInt(i < 100000 ? 100000 : 1000);
+        final int value = random.nextInt(4);
+        assertEquals(expected.merge(key, value, (a, b) -> a + b < 8 ? a + b : null),
+            m.merge(key, value, (a, b) -> a + b < 8 ? a + b : null));
+      }
+
+      assertEquals(expected, m);
+      for (int key = 0; key < 100000; key++) {
+        assertEquals(expected.computeIfPresent(key, (k, v) -> v > 4 ? null : v * 2),
+            m.computeIfPresent(key, (k, v) -> v > 4 ? null : v * 2));
+      }
+      assertEquals(expected, m);
+    }
+  }
+}
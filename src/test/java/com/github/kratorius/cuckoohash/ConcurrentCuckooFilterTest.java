@@ -0,0 +1,173 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the thread safe cuckoo filter.
+ */
+public class ConcurrentCuckooFilterTest extends TestCase {
+  public void testAddAndDelete() {
+    for (int bits : new int[] {8, 12, 16}) {
+      ConcurrentCuckooFilter<Integer> filter = new ConcurrentCuckooFilter<>(100000, bits, 42);
+      for (int i = 0; i < 100000; i++) {
+        assertTrue(filter.add(i));
+      }
+      assertEquals(100000, filter.size());
+      for (int i = 0; i < 100000; i++) {
+        assertTrue(filter.mightContain(i));
+      }
+
+      for (int i = 0; i < 100000; i += 2) {
+        assertTrue(filter.delete(i));
+      }
+      assertEquals(50000, filter.size());
+      for (int i = 1; i < 100000; i += 2) {
+        assertTrue(filter.mightContain(i));
+      }
+    }
+  }
+
+  public void testFalsePositiveRate() {
+    ConcurrentCuckooFilter<Integer> filter = new ConcurrentCuckooFilter<>(100000, 0.002);
+    assertEquals(12, filter.getFingerprintBits());
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      filter.add(random.nextInt() & ~1);
+    }
+
+    final int falsePositives =
+        CuckooFilterTest.falsePositives(random, 1000000, filter::mightContain);
+    assertTrue("false positives: " + falsePositives, falsePositives < 4000);
+  }
+
+  public void testFull() {
+    ConcurrentCuckooFilter<Integer> filter = new ConcurrentCuckooFilter<>(1000, 12, 42);
+    int added = 0;
+    while (filter.add(added)) {
+      added++;
+    }
+    assertTrue(added > 0.9 * filter.capacity());
+    assertEquals(added, filter.size());
+    for (int i = 0; i < added; i++) {
+      assertTrue(filter.mightContain(i));
+    }
+  }
+
+  public void testConcurrentAdds() throws InterruptedException {
+    final int threads = 8;
+    final int perThread = 50000;
+    final ConcurrentCuckooFilter<Integer> filter =
+        new ConcurrentCuckooFilter<>(threads * perThread);
+    final AtomicInteger failures = new AtomicInteger();
+
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int first = t * perThread;
+      workers.add(new Thread(() -> {
+        for (int i = first; i < first + perThread; i++) {
+          if (!filter.add(i)) {
+            failures.incrementAndGet();
+          }
+          // Items added by this thread must never go missing while others are
+          // displacing fingerprints.
+          if (!filter.mightContain(first + (i - first) / 2)) {
+            failures.incrementAndGet();
+          }
+        }
+      }));
+    }
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    assertEquals(0, failures.get());
+    assertEquals(threads * perThread, filter.size());
+    for (int i = 0; i < threads * perThread; i++) {
+      assertTrue(filter.mightContain(i));
+    }
+  }
+
+  public void testMerge() {
+    ConcurrentCuckooFilter<Integer> f1 = new ConcurrentCuckooFilter<>(10000, 16, 1);
+    ConcurrentCuckooFilter<Integer> f2 = new ConcurrentCuckooFilter<>(10000, 16, 1);
+    for (int i = 0; i < 5000; i++) {
+      f1.add(i);
+      f2.add(-i - 1);
+    }
+
+    assertTrue(f1.merge(f2));
+    assertEquals(10000, f1.size());
+    for (int i = 0; i < 5000; i++) {
+      assertTrue(f1.mightContain(i));
+      assertTrue(f1.mightContain(-i - 1));
+    }
+
+    try {
+      f1.merge(new ConcurrentCuckooFilter<>(10000, 16, 2));
+      fail("filters with different seeds can't be merged");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  public void testWriteAndRead() throws IOException {
+    ConcurrentCuckooFilter<Integer> filter = new ConcurrentCuckooFilter<>(100000);
+    for (int i = 0; i < 90000; i++) {
+      filter.add(i);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    filter.writeTo(bytes);
+    assertEquals(4 * Long.BYTES + filter.sizeInBits() / 8, bytes.size());
+
+    ConcurrentCuckooFilter<Integer> restored =
+        ConcurrentCuckooFilter.readFrom(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(filter.size(), restored.size());
+    assertEquals(filter.getFingerprintBits(), restored.getFingerprintBits());
+    for (int i = 0; i < 90000; i++) {
+      assertTrue(restored.mightContain(i));
+    }
+    for (int i = 90000; i < 200000; i++) {
+      assertEquals(filter.mightContain(i), restored.mightContain(i));
+    }
+
+    // The restored filter uses the same hash functions, so the two can be merged.
+    restored.clear();
+    assertTrue(restored.merge(filter));
+    assertEquals(filter.size(), restored.size());
+    for (int i = 0; i < 90000; i++) {
+      assertTrue(restored.mightContain(i));
+    }
+  }
+
+  public void testInvalidStream() throws IOException {
+    try {
+      ConcurrentCuckooFilter.readFrom(new ByteArrayInputStream(new byte[64]));
+      fail("the stream doesn't contain a filter");
+    } catch (StreamCorruptedException expected) {
+      // Expected.
+    }
+  }
+
+  public void testClear() {
+    ConcurrentCuckooFilter<Integer> filter = new ConcurrentCuckooFilter<>(100);
+    for (int i = 0; i < 100; i++) {
+      filter.add(i);
+    }
+    filter.clear();
+    assertTrue(filter.isEmpty());
+    assertFalse(filter.mightContain(1));
+  }
+}
@@ -0,0 +1,283 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the concurrent cuckoo hash map.
+ */
+public class ConcurrentCuckooHashMapTest extends TestCase {
+  public void testPutAndGet() {
+    ConcurrentCuckooHashMap<String, Integer> m = new ConcurrentCuckooHashMap<>();
+    assertTrue(m.isEmpty());
+
+    assertNull(m.put("A", 1));
+    assertNull(m.put("B", 2));
+    assertEquals(1, (int) m.put("A", 3));
+
+    assertEquals(2, m.size());
+    assertEquals(3, (int) m.get("A"));
+    assertEquals(2, (int) m.get("B"));
+    assertNull(m.get("C"));
+    assertTrue(m.containsKey("A"));
+    assertFalse(m.containsKey("C"));
+    assertEquals(42, (int) m.getOrDefault("C", 42));
+  }
+
+  public void testNullsAreRejected() {
+    ConcurrentCuckooHashMap<String, String> m = new ConcurrentCuckooHashMap<>();
+    try {
+      m.put(null, "value");
+      fail("null key accepted.");
+    } catch (NullPointerException ex) {
+      // Expected.
+    }
+    try {
+      m.put("key", null);
+      fail("null value accepted.");
+    } catch (NullPointerException ex) {
+      // Expected.
+    }
+    try {
+      m.get(null);
+      fail("null key accepted.");
+    } catch (NullPointerException ex) {
+      // Expected.
+    }
+  }
+
+  public void testConditionalOperations() {
+    ConcurrentCuckooHashMap<String, String> m = new ConcurrentCuckooHashMap<>();
+
+    assertNull(m.putIfAbsent("key", "a"));
+    assertEquals("a", m.putIfAbsent("key", "b"));
+    assertEquals("a", m.get("key"));
+
+    assertFalse(m.replace("key", "b", "c"));
+    assertTrue(m.replace("key", "a", "c"));
+    assertEquals("c", m.get("key"));
+
+    assertNull(m.replace("missing", "x"));
+    assertFalse(m.containsKey("missing"));
+    assertEquals("c", m.replace("key", "d"));
+
+    assertFalse(m.remove("key", "c"));
+    assertTrue(m.remove("key", "d"));
+    assertTrue(m.isEmpty());
+  }
+
+  public void testRemove() {
+    ConcurrentCuckooHashMap<Integer, Integer> m = new ConcurrentCuckooHashMap<>();
+    assertNull(m.remove(1));
+
+    for (int i = 0; i < 1024; i++) {
+      m.put(i, i);
+    }
+    for (int i = 0; i < 1024; i += 2) {
+      assertEquals(i, (int) m.remove(i));
+    }
+    assertEquals(512, m.size());
+    for (int i = 0; i < 1024; i++) {
+      assertEquals(i % 2 != 0, m.containsKey(i));
+    }
+  }
+
+  public void testManyKeys() {
+    final int size = 1024 * 128;
+    ConcurrentCuckooHashMap<String, Integer> m = new ConcurrentCuckooHashMap<>();
+
+    for (int i = 0; i < size; i++) {
+      m.put("key-" + i, i);
+    }
+    assertEquals(size, m.size());
+
+    for (int i = 0; i < size; i++) {
+      assertEquals(i, (int) m.get("key-" + i));
+    }
+  }
+
+  public void testEntrySet() {
+    ConcurrentCuckooHashMap<Integer, Integer> m = new ConcurrentCuckooHashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      m.put(i, -i);
+    }
+
+    Set<Integer> seen = new HashSet<>();
+    for (Map.Entry<Integer, Integer> entry : m.entrySet()) {
+      assertEquals(-entry.getKey(), (int) entry.getValue());
+      assertTrue(seen.add(entry.getKey()));
+    }
+    assertEquals(1000, seen.size());
+
+    Iterator<Integer> it = m.keySet().iterator();
+    while (it.hasNext()) {
+      if (it.next() % 2 == 0) {
+        it.remove();
+      }
+    }
+    assertEquals(500, m.size());
+    assertEquals(new HashSet<>(m.keySet()).size(), 500);
+  }
+
+  public void testClear() {
+    ConcurrentCuckooHashMap<Integer, Integer> m = new ConcurrentCuckooHashMap<>();
+    for (int i = 0; i < 10000; i++) {
+      m.put(i, i);
+    }
+    m.clear();
+    assertTrue(m.isEmpty());
+    assertNull(m.get(1));
+  }
+
+  public void testGrowthIsBounded() {
+    // Every key goes to the first bucket of each table, so no matter how much the tables
+    // grow only 8 keys fit.
+    ConcurrentCuckooHashMap<Integer, Integer> m =
+        new ConcurrentCuckooHashMap<>(16, 1, buckets -> obj -> 0);
+    for (int i = 0; i < 8; i++) {
+      m.put(i, i);
+    }
+    try {
+      m.put(8, 8);
+      fail("the map kept growing.");
+    } catch (IllegalStateException ex) {
+      // Expected.
+    }
+    assertEquals(8, m.size());
+    for (int i = 0; i < 8; i++) {
+      assertEquals(i, (int) m.get(i));
+    }
+    assertNull(m.get(8));
+  }
+
+  public void testConcurrentWriters() throws InterruptedException {
+    final int threads = 4;
+    final int perThread = 50000;
+    final ConcurrentCuckooHashMap<Integer, Integer> m = new ConcurrentCuckooHashMap<>();
+    final CountDownLatch start = new CountDownLatch(1);
+
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int base = t * perThread;
+      Thread worker = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = base; i < base + perThread; i++) {
+          m.put(i, i);
+        }
+      });
+      workers.add(worker);
+      worker.start();
+    }
+
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    assertEquals(threads * perThread, m.size());
+    for (int i = 0; i < threads * perThread; i++) {
+      assertEquals(i, (int) m.get(i));
+    }
+  }
+
+  public void testReadersNeverMissKeysDuringDisplacements() throws InterruptedException {
+    final int stable = 10000;
+    final ConcurrentCuckooHashMap<Integer, Integer> m = new ConcurrentCuckooHashMap<>(16);
+    for (int i = 0; i < stable; i++) {
+      m.put(i, i);
+    }
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicInteger misses = new AtomicInteger(0);
+    List<Thread> readers = new ArrayList<>();
+    for (int t = 0; t < 3; t++) {
+      Thread reader = new Thread(() -> {
+        final Random random = new Random();
+        while (!done.get()) {
+          final int key = random.nextInt(stable);
+          final Integer value = m.get(key);
+          if (value == null || value != key) {
+            misses.incrementAndGet();
+          }
+        }
+      });
+      readers.add(reader);
+      reader.start();
+    }
+
+    // Keep adding and removing other keys so that the stable ones are moved around and
+    // the tables are resized.
+    for (int i = stable; i < stable + 200000; i++) {
+      m.put(i, i);
+      if (i % 3 == 0) {
+        m.remove(i);
+      }
+    }
+
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertEquals(0, misses.get());
+  }
+
+  public void testIteratorsDuringDisplacements() throws InterruptedException {
+    final int stable = 10000;
+    final ConcurrentCuckooHashMap<Integer, Integer> m = new ConcurrentCuckooHashMap<>(16);
+    for (int i = 0; i < stable; i++) {
+      m.put(i, i);
+    }
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicInteger errors = new AtomicInteger(0);
+    final AtomicInteger iterations = new AtomicInteger(0);
+    List<Thread> iterators = new ArrayList<>();
+    for (int t = 0; t < 2; t++) {
+      Thread iterator = new Thread(() -> {
+        while (!done.get()) {
+          // Every key is mapped to itself, and the stable keys must be returned exactly
+          // once even if they are moved to the other table while iterating.
+          final BitSet seen = new BitSet(stable);
+          for (Map.Entry<Integer, Integer> entry : m.entrySet()) {
+            final int key = entry.getKey();
+            if (key != entry.getValue() || (key < stable && seen.get(key))) {
+              errors.incrementAndGet();
+            }
+            if (key < stable) {
+              seen.set(key);
+            }
+          }
+          if (seen.cardinality() != stable) {
+            errors.incrementAndGet();
+          }
+          iterations.incrementAndGet();
+        }
+      });
+      iterators.add(iterator);
+      iterator.start();
+    }
+
+    // Keep adding and removing other keys so that the stable ones are moved around and
+    // the tables are resized.
+    for (int i = stable; i < stable + 200000 || iterations.get() < 10; i++) {
+      m.put(i, i);
+      if (i % 3 != 0) {
+        m.remove(i);
+      }
+    }
+
+    done.set(true);
+    for (Thread iterator : iterators) {
+      iterator.join();
+    }
+    assertEquals(0, errors.get());
+  }
+}
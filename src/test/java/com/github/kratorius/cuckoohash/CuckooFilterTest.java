@@ -0,0 +1,221 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.function.Predicate;
+
+/**
+ * Tests for the cuckoo filter.
+ */
+public class CuckooFilterTest extends TestCase {
+  public void testNoFalseNegatives() {
+    for (int bits : new int[] {8, 12, 16}) {
+      CuckooFilter<Integer> filter = new CuckooFilter<>(100000, bits,
+          new CuckooFilter.MixingHashFunctionFactory());
+      assertTrue(filter.isEmpty());
+      for (int i = 0; i < 100000; i++) {
+        assertTrue(filter.add(i));
+      }
+      assertEquals(100000, filter.size());
+      for (int i = 0; i < 100000; i++) {
+        assertTrue(filter.mightContain(i));
+      }
+    }
+  }
+
+  /**
+   * @return the number of false positives out of <tt>lookups</tt> items that were not
+   * added, the filter holding even numbers only.
+   */
+  static int falsePositives(Random random, int lookups, Predicate<Integer> filter) {
+    int falsePositives = 0;
+    for (int i = 0; i < lookups; i++) {
+      if (filter.test(random.nextInt() | 1)) {
+        falsePositives++;
+      }
+    }
+    return falsePositives;
+  }
+
+  public void testFalsePositiveRate() {
+    for (double rate : new double[] {0.04, 0.002, 0.0002}) {
+      CuckooFilter<Integer> filter = new CuckooFilter<>(100000, rate);
+      assertTrue(filter.expectedFalsePositiveRate() <= rate);
+      Random random = new Random(42);
+      for (int i = 0; i < 100000; i++) {
+        filter.add(random.nextInt() & ~1);
+      }
+
+      // Leave some room for randomness.
+      final int falsePositives = falsePositives(random, 1000000, filter::mightContain);
+      assertTrue("false positives: " + falsePositives, falsePositives < 2 * rate * 1000000);
+    }
+  }
+
+  public void testFingerprintSize() {
+    assertEquals(8, new CuckooFilter<>(16, 0.05).getFingerprintBits());
+    assertEquals(12, new CuckooFilter<>(16, 0.01).getFingerprintBits());
+    assertEquals(16, new CuckooFilter<>(16, 0.001).getFingerprintBits());
+    assertEquals(12, new CuckooFilter<>(16).getFingerprintBits());
+  }
+
+  public void testDelete() {
+    CuckooFilter<Integer> filter = new CuckooFilter<>(10000);
+    for (int i = 0; i < 10000; i++) {
+      filter.add(i);
+    }
+    for (int i = 0; i < 10000; i += 2) {
+      assertTrue(filter.delete(i));
+    }
+    assertEquals(5000, filter.size());
+    for (int i = 1; i < 10000; i += 2) {
+      assertTrue(filter.mightContain(i));
+    }
+
+    int stillThere = 0;
+    for (int i = 0; i < 10000; i += 2) {
+      if (filter.mightContain(i)) {
+        stillThere++;
+      }
+    }
+    assertTrue(stillThere < 100);
+  }
+
+  public void testDuplicates() {
+    CuckooFilter<String> filter = new CuckooFilter<>(100);
+    filter.add("item");
+    filter.add("item");
+    assertEquals(2, filter.size());
+    assertTrue(filter.delete("item"));
+    assertTrue(filter.mightContain("item"));
+    assertTrue(filter.delete("item"));
+    assertFalse(filter.mightContain("item"));
+    assertFalse(filter.delete("item"));
+  }
+
+  public void testFull() {
+    CuckooFilter<Integer> filter = new CuckooFilter<>(1000);
+    int added = 0;
+    while (filter.add(added)) {
+      added++;
+    }
+    assertTrue(added > 0.9 * filter.capacity());
+    assertEquals(added, filter.size());
+
+    // Nothing that was added is lost, including the item that filled the filter up.
+    for (int i = 0; i < added; i++) {
+      assertTrue(filter.mightContain(i));
+    }
+
+    // Deleting makes room again.
+    for (int i = 0; i < added / 2; i++) {
+      assertTrue(filter.delete(i));
+    }
+    assertTrue(filter.add(-1));
+    assertTrue(filter.mightContain(-1));
+    for (int i = added / 2; i < added; i++) {
+      assertTrue(filter.mightContain(i));
+    }
+  }
+
+  public void testFullUntilVictimFits() {
+    CuckooFilter<Integer> filter = new CuckooFilter<>(1000);
+    int added = 0;
+    while (filter.add(added)) {
+      added++;
+    }
+
+    // The last successful add left a fingerprint aside: the filter takes nothing else,
+    // not even items whose buckets have room, and doesn't change.
+    for (int i = 0; i < 1000; i++) {
+      assertFalse(filter.add(-i - 1));
+    }
+    assertEquals(added, filter.size());
+
+    // Deletions eventually free a slot for the victim, which the filter takes back before
+    // accepting new items.
+    int deleted = 0;
+    while (!filter.add(-1)) {
+      assertTrue(filter.delete(deleted));
+      deleted++;
+    }
+    assertTrue(deleted > 0);
+    assertEquals(added - deleted + 1, filter.size());
+    assertTrue(filter.mightContain(-1));
+    for (int i = deleted; i < added; i++) {
+      assertTrue(filter.mightContain(i));
+    }
+  }
+
+  public void testDeleteVictim() {
+    // Items whose two buckets are both the first one, so that the fifth item always
+    // leaves a victim. Which item it belongs to is random.
+    final int bucketBits = CuckooFilter.bucketBits(16);
+    final int[] items = new int[5];
+    for (int i = 0, fingerprint = 1; i < items.length; fingerprint++) {
+      if (CuckooFilter.altIndex(0, fingerprint, bucketBits) == 0) {
+        items[i++] = fingerprint;
+      }
+    }
+
+    for (int round = 0; round < 100; round++) {
+      CuckooFilter<Integer> filter = new CuckooFilter<>(16, 16,
+          range -> range == 1 << 16 ? obj -> (Integer) obj : obj -> 0);
+      for (int item : items) {
+        assertTrue(filter.add(item));
+      }
+      assertFalse(filter.add(items[0]));
+
+      // Deleting the victim's item before any other one must count too.
+      for (int i = 0; i < items.length; i++) {
+        assertTrue(filter.delete(items[(round + i) % items.length]));
+        assertEquals(items.length - i - 1, filter.size());
+      }
+      assertTrue(filter.isEmpty());
+    }
+  }
+
+  public void testClear() {
+    CuckooFilter<Integer> filter = new CuckooFilter<>(100);
+    for (int i = 0; i < 100; i++) {
+      filter.add(i);
+    }
+    filter.clear();
+    assertTrue(filter.isEmpty());
+    assertFalse(filter.mightContain(1));
+  }
+
+  public void testBitsPerItem() {
+    CuckooFilter<Integer> filter = new CuckooFilter<>(1 << 20, 8,
+        new CuckooFilter.MixingHashFunctionFactory());
+    assertEquals((long) filter.capacity() * 8, filter.sizeInBits());
+  }
+
+  public void testInvalidArguments() {
+    try {
+      new CuckooFilter<>(0);
+      fail("expected items must be positive");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+    try {
+      new CuckooFilter<>(16, 0.00001);
+      fail("fingerprints can't be larger than 16 bits");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+    try {
+      new CuckooFilter<>(16, 1.5);
+      fail("invalid false positive rate");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+    try {
+      new CuckooFilter<>(16, 10, new CuckooFilter.MixingHashFunctionFactory());
+      fail("unsupported fingerprint size");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+}
@@ -243,4 +243,56 @@ public class CuckooHashMapTest extends TestCase {
       // Expected.
     }
   }
+
+  public void testHashCodeCalledOncePerOperation() {
+    CuckooHashMap<CountingKey, Integer> m = new CuckooHashMap<>(1024);
+    CountingKey key = new CountingKey(42);
+
+    m.put(key, 1);
+    assertEquals(1, key.hashCodeCalls);
+    m.put(key, 2);
+    assertEquals(2, key.hashCodeCalls);
+    assertEquals(2, (int) m.get(key));
+    assertEquals(3, key.hashCodeCalls);
+    assertEquals(2, (int) m.remove(key));
+    assertEquals(4, key.hashCodeCalls);
+  }
+
+  public void testCustomHashCodeFunction() {
+    final Random random = new Random(1);
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(16, 0.9f, 1, buckets -> {
+      final int multiplier = random.nextInt() | 1;
+      final int mask = buckets - 1;
+      return (CuckooHashMap.HashCodeFunction) h -> ((h * multiplier) >>> 16) & mask;
+    });
+    for (int i = 0; i < 10000; i++) {
+      m.put(i, i);
+    }
+    for (int i = 0; i < 10000; i += 2) {
+      assertEquals(i, (int) m.remove(i));
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i % 2 == 0 ? null : (Integer) i, m.get(i));
+    }
+  }
+
+  private static final class CountingKey {
+    private final int id;
+    private int hashCodeCalls;
+
+    CountingKey(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof CountingKey && ((CountingKey) obj).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+      hashCodeCalls++;
+      return id;
+    }
+  }
 }
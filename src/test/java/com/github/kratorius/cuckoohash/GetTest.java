@@ -67,4 +67,57 @@ public class GetTest extends TestCase {
     m.put(null, "null2");
     assertEquals("null2", m.get(null));
   }
+
+  public void testGetAll() {
+    for (int slotsPerBucket : new int[] {1, 4}) {
+      CuckooHashMap<Integer, String> m = new CuckooHashMap<>(16, 0.9f, slotsPerBucket);
+      for (int i = 0; i < 1000; i++) {
+        m.put(i, "value-" + i);
+      }
+      m.put(null, "null");
+      m.put(1000, null);
+
+      // More keys than a single batch, some of them missing.
+      Integer[] keys = new Integer[150];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = 7 * i;
+      }
+      keys[3] = null;
+      keys[4] = 1000;
+
+      String[] values = new String[keys.length];
+      // 7 * i is in the map up to i = 142, with two of them replaced by null and 1000.
+      assertEquals(143, m.getAll(keys, values));
+      for (int i = 0; i < keys.length; i++) {
+        assertEquals(m.get(keys[i]), values[i]);
+      }
+      assertEquals("null", values[3]);
+    }
+  }
+
+  public void testGetAllStash() {
+    // Every key collides, so most of them are in the stash.
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(64, 1.f, 1, buckets -> obj -> 0);
+    for (int i = 0; i < 6; i++) {
+      m.put(i, i);
+    }
+
+    Integer[] values = new Integer[8];
+    assertEquals(6, m.getAll(new Integer[] {0, 1, 2, 3, 4, 5, 6, 7}, values));
+    for (int i = 0; i < 6; i++) {
+      assertEquals(i, (int) values[i]);
+    }
+    assertNull(values[6]);
+    assertNull(values[7]);
+  }
+
+  public void testGetAllShortOutput() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    try {
+      m.getAll(new Integer[2], new Integer[1]);
+      fail("the output array is too short");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
 }
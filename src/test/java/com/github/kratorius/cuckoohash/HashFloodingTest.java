@@ -0,0 +1,180 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests for the behaviour of the map when its keys collide on purpose.
+ */
+public class HashFloodingTest extends TestCase {
+  /**
+   * @return <tt>2^blocks</tt> distinct strings sharing the same hash code, as "Aa" and
+   * "BB" do.
+   */
+  private static List<String> collidingStrings(int blocks) {
+    List<String> strings = new ArrayList<>();
+    for (int i = 0; i < 1 << blocks; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int b = 0; b < blocks; b++) {
+        sb.append((i & (1 << b)) != 0 ? "Aa" : "BB");
+      }
+      strings.add(sb.toString());
+    }
+    return strings;
+  }
+
+  private static final class CollidingKey implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int id;
+
+    CollidingKey(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof CollidingKey && ((CollidingKey) obj).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+      return 42;
+    }
+  }
+
+  public void testSipHashVectors() {
+    // From the reference implementation, with the key 00 01 .. 0f and the message 00 01 ..
+    SipHashFunctionFactory.SipHashFunction f = new SipHashFunctionFactory.SipHashFunction(
+        0x0706050403020100L, 0x0f0e0d0c0b0a0908L, 16);
+    assertEquals(0x726fdb47dd0e0e31L, f.sipHash(null, 0, 0));
+    assertEquals(0xcf2794e0277187b7L, f.sipHash(null, 0x03020100L, 4));
+    assertEquals(0x93f5f5799a932462L, f.sipHash(null, 0x0706050403020100L, 8));
+    assertEquals(0x3f2acc7f57c29bdbL, f.sipHash("\u0100\u0302\u0504\u0706\u0908\u0b0a\u0d0c\u0f0e", 0, 16));
+  }
+
+  public void testCollidingStrings() {
+    List<String> keys = collidingStrings(13);
+    CuckooHashMap<String, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < keys.size(); i++) {
+      m.put(keys.get(i), i);
+    }
+
+    assertTrue(m.isKeyedHashing());
+    assertEquals(keys.size(), m.size());
+    // The keyed hash functions separate the keys: the map doesn't need more room than usual.
+    assertTrue(m.capacity() <= 4 * keys.size() / 0.45f);
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(i, (int) m.get(keys.get(i)));
+    }
+    assertNull(m.get("AaAa"));
+
+    for (int i = 0; i < keys.size(); i += 2) {
+      assertEquals(i, (int) m.remove(keys.get(i)));
+    }
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(i % 2 == 0 ? null : (Integer) i, m.get(keys.get(i)));
+    }
+  }
+
+  public void testCollidingKeysOverflow() {
+    for (int slotsPerBucket : new int[] {1, 4}) {
+      CuckooHashMap<CollidingKey, Integer> m = new CuckooHashMap<>(16, 0.9f, slotsPerBucket);
+      for (int i = 0; i < 1000; i++) {
+        assertNull(m.put(new CollidingKey(i), i));
+      }
+
+      assertTrue(m.isKeyedHashing());
+      assertEquals(1000, m.size());
+      assertTrue(m.capacity() <= 4 * 1000 / 0.9f);
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(i, (int) m.get(new CollidingKey(i)));
+      }
+      assertNull(m.get(new CollidingKey(1000)));
+
+      // Items in the overflow are updated, iterated over and removed as usual.
+      assertEquals(0, (int) m.put(new CollidingKey(0), -1));
+      assertEquals(-1, (int) m.get(new CollidingKey(0)));
+      assertTrue(m.containsValue(-1));
+
+      int count = 0;
+      for (Iterator<Map.Entry<CollidingKey, Integer>> it = m.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<CollidingKey, Integer> entry = it.next();
+        count++;
+        if (entry.getKey().id % 2 == 0) {
+          it.remove();
+        }
+      }
+      assertEquals(1000, count);
+      assertEquals(500, m.size());
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(i % 2 == 0 ? null : (Integer) i, m.get(new CollidingKey(i)));
+      }
+
+      for (int i = 1; i < 1000; i += 2) {
+        assertEquals(i, (int) m.remove(new CollidingKey(i)));
+      }
+      assertTrue(m.isEmpty());
+    }
+  }
+
+  public void testCollidingKeysMixedWithOthers() {
+    CuckooHashMap<Object, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < 10000; i++) {
+      m.put(i, i);
+      if (i % 10 == 0) {
+        m.put(new CollidingKey(i), -i);
+      }
+    }
+
+    assertEquals(11000, m.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i, (int) m.get(i));
+      assertEquals(i % 10 == 0 ? (Integer) (-i) : null, m.get(new CollidingKey(i)));
+    }
+  }
+
+  public void testBulkLoadCollidingKeys() {
+    Map<CollidingKey, Integer> source = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      source.put(new CollidingKey(i), i);
+    }
+
+    CuckooHashMap<CollidingKey, Integer> m = CuckooHashMap.bulkLoad(source, 0.45f, 1,
+        new ForkJoinPool(2));
+    assertTrue(m.isKeyedHashing());
+    assertEquals(source, m);
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testSerializationOfFloodedMap() throws IOException, ClassNotFoundException {
+    CuckooHashMap<CollidingKey, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      m.put(new CollidingKey(i), i);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(m);
+    }
+    CuckooHashMap<CollidingKey, Integer> restored;
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      restored = (CuckooHashMap<CollidingKey, Integer>) in.readObject();
+    }
+
+    assertTrue(restored.isKeyedHashing());
+    assertEquals(m, restored);
+  }
+}
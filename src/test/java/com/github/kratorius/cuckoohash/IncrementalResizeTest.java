@@ -0,0 +1,144 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for maps that migrate their items to the new tables a few at a time.
+ */
+public class IncrementalResizeTest extends TestCase {
+  private static CuckooHashMap<Integer, Integer> newMap(int slotsPerBucket, float loadFactor) {
+    return new CuckooHashMap<>(16, loadFactor, slotsPerBucket,
+        new CuckooHashMap.DefaultHashFunctionFactory(), true);
+  }
+
+  public void testPutAndGet() {
+    for (int slotsPerBucket : new int[] {1, 4}) {
+      final float loadFactor = slotsPerBucket == 1 ? 0.45f : 0.9f;
+      CuckooHashMap<Integer, Integer> m = newMap(slotsPerBucket, loadFactor);
+      boolean sawResize = false;
+
+      for (int i = 0; i < 100000; i++) {
+        assertNull(m.put(i, i));
+        sawResize |= m.isResizing();
+        // Keys added both before and during the resize must be visible.
+        assertEquals(i, (int) m.get(i));
+        assertEquals(i / 2, (int) m.get(i / 2));
+      }
+      assertTrue(sawResize);
+      assertEquals(100000, m.size());
+
+      for (int i = 0; i < 100000; i++) {
+        assertEquals(i, (int) m.get(i));
+      }
+      assertNull(m.get(100000));
+    }
+  }
+
+  public void testUpdateDuringResize() {
+    CuckooHashMap<Integer, Integer> m = newMap(1, 0.45f);
+    int n = 0;
+    while (!m.isResizing()) {
+      m.put(n, n);
+      n++;
+    }
+
+    // The old tables still hold most of the keys.
+    for (int i = 0; i < n; i++) {
+      assertEquals(i, (int) m.put(i, -i));
+    }
+    assertEquals(n, m.size());
+    for (int i = 0; i < n; i++) {
+      assertEquals(-i, (int) m.get(i));
+    }
+    assertEquals(n, m.size());
+  }
+
+  public void testRemoveDuringResize() {
+    CuckooHashMap<Integer, Integer> m = newMap(1, 0.45f);
+    int n = 0;
+    while (!m.isResizing()) {
+      m.put(n, n);
+      n++;
+    }
+
+    for (int i = 0; i < n; i += 2) {
+      assertEquals(i, (int) m.remove(i));
+      assertNull(m.remove(i));
+    }
+    assertEquals(n / 2, m.size());
+    for (int i = 0; i < n; i++) {
+      assertEquals(i % 2 == 0 ? null : (Integer) i, m.get(i));
+    }
+  }
+
+  public void testResizeCompletes() {
+    CuckooHashMap<Integer, Integer> m = newMap(1, 0.45f);
+    int n = 0;
+    while (!m.isResizing()) {
+      m.put(n, n);
+      n++;
+    }
+
+    // Lookups never move items, insertions and removals move the remaining ones along.
+    for (int i = 0; i < n; i++) {
+      assertEquals(i, (int) m.get(i));
+    }
+    assertTrue(m.isResizing());
+    for (int i = 0; i < n && m.isResizing(); i++) {
+      assertEquals(i, (int) m.remove(i));
+      assertNull(m.put(i, i));
+    }
+    assertFalse(m.isResizing());
+    for (int i = 0; i < n; i++) {
+      assertEquals(i, (int) m.get(i));
+    }
+  }
+
+  public void testViewsDuringResize() {
+    CuckooHashMap<Integer, Integer> m = newMap(1, 0.45f);
+    int n = 0;
+    while (!m.isResizing()) {
+      m.put(n, n);
+      n++;
+    }
+
+    Set<Integer> keys = m.keySet();
+    assertEquals(n, keys.size());
+    assertEquals(n, new HashSet<>(keys).size());
+    assertEquals(n, m.values().size());
+    assertEquals(n, m.entrySet().size());
+    for (int i = 0; i < n; i++) {
+      assertTrue(keys.contains(i));
+      assertTrue(m.containsValue(i));
+    }
+
+    // Iterating doesn't complete the resize, and removing through the iterator works on
+    // both generations.
+    Iterator<Map.Entry<Integer, Integer>> it = m.entrySet().iterator();
+    Set<Integer> seen = new HashSet<>();
+    while (it.hasNext()) {
+      final Map.Entry<Integer, Integer> e = it.next();
+      assertTrue(seen.add(e.getKey()));
+      assertEquals(e.getValue(), m.get(e.getKey()));
+      if (e.getKey() % 2 == 0) {
+        it.remove();
+      }
+    }
+    assertEquals(n, seen.size());
+    assertTrue(m.isResizing());
+    assertEquals(n / 2, m.size());
+    for (int i = 0; i < n; i++) {
+      assertEquals(i % 2 != 0, m.containsKey(i));
+    }
+
+    m.clear();
+    assertFalse(m.isResizing());
+    assertTrue(m.isEmpty());
+    assertNull(m.get(0));
+  }
+}
@@ -0,0 +1,118 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests for the int-to-int specialization of the cuckoo hash map.
+ */
+public class IntIntCuckooHashMapTest extends TestCase {
+  public void testPutAndGet() {
+    IntIntCuckooHashMap m = new IntIntCuckooHashMap();
+    assertTrue(m.isEmpty());
+
+    assertEquals(IntIntCuckooHashMap.NO_VALUE, m.put(1, 10));
+    assertEquals(IntIntCuckooHashMap.NO_VALUE, m.put(2, 20));
+    assertFalse(m.isEmpty());
+    assertEquals(2, m.size());
+
+    assertEquals(10, m.get(1));
+    assertEquals(20, m.get(2));
+    assertEquals(IntIntCuckooHashMap.NO_VALUE, m.get(3));
+    assertEquals(-1, m.getOrDefault(3, -1));
+  }
+
+  public void testUpdate() {
+    IntIntCuckooHashMap m = new IntIntCuckooHashMap();
+    m.put(42, 1);
+    assertEquals(1, m.put(42, 2));
+    assertEquals(2, m.get(42));
+    assertEquals(1, m.size());
+  }
+
+  public void testZeroKey() {
+    IntIntCuckooHashMap m = new IntIntCuckooHashMap();
+    assertFalse(m.containsKey(0));
+
+    m.put(0, 0);
+    assertTrue(m.containsKey(0));
+    assertEquals(1, m.size());
+    assertEquals(0, m.getOrDefault(0, -1));
+
+    assertEquals(0, m.put(0, 5));
+    assertEquals(5, m.get(0));
+    assertEquals(1, m.size());
+
+    assertEquals(5, m.remove(0));
+    assertFalse(m.containsKey(0));
+    assertEquals(0, m.size());
+  }
+
+  public void testRemove() {
+    IntIntCuckooHashMap m = new IntIntCuckooHashMap();
+    assertEquals(IntIntCuckooHashMap.NO_VALUE, m.remove(1));
+
+    for (int i = 0; i < 1024; i++) {
+      m.put(i, i * 2);
+    }
+    for (int i = 0; i < 1024; i += 2) {
+      assertEquals(i * 2, m.remove(i));
+    }
+    assertEquals(512, m.size());
+
+    for (int i = 0; i < 1024; i++) {
+      assertEquals(i % 2 != 0, m.containsKey(i));
+    }
+  }
+
+  public void testManyKeys() {
+    final int size = 1024 * 128;
+    final Random random = new Random(42);
+    final int[] keys = new int[size];
+
+    IntIntCuckooHashMap m = new IntIntCuckooHashMap();
+    for (int i = 0; i < size; i++) {
+      keys[i] = random.nextInt();
+      m.put(keys[i], i);
+    }
+
+    for (int i = 0; i < size; i++) {
+      assertTrue(m.containsKey(keys[i]));
+    }
+  }
+
+  public void testNegativeKeys() {
+    IntIntCuckooHashMap m = new IntIntCuckooHashMap();
+    for (int i = -1; i > -4096; i--) {
+      m.put(i, -i);
+    }
+    assertEquals(4095, m.size());
+    for (int i = -1; i > -4096; i--) {
+      assertEquals(-i, m.get(i));
+    }
+  }
+
+  public void testClear() {
+    IntIntCuckooHashMap m = new IntIntCuckooHashMap();
+    for (int i = 0; i < 10000; i++) {
+      m.put(i, i);
+    }
+    assertEquals(10000, m.size());
+
+    m.clear();
+    assertEquals(0, m.size());
+    assertFalse(m.containsKey(0));
+    assertFalse(m.containsKey(1));
+  }
+
+  public void testGrowthIsBounded() {
+    assertEquals(1 << 30, CuckooTables.grownTableSize(1 << 29));
+    try {
+      CuckooTables.grownTableSize(1 << 30);
+      fail("tables grew beyond the maximum array size.");
+    } catch (IllegalStateException ex) {
+      // Expected.
+    }
+  }
+}
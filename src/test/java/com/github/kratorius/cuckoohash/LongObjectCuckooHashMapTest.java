@@ -0,0 +1,85 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the long-to-object specialization of the cuckoo hash map.
+ */
+public class LongObjectCuckooHashMapTest extends TestCase {
+  public void testPutAndGet() {
+    LongObjectCuckooHashMap<String> m = new LongObjectCuckooHashMap<>();
+    assertTrue(m.isEmpty());
+
+    assertNull(m.put(1L, "one"));
+    assertNull(m.put(Long.MAX_VALUE, "max"));
+    assertNull(m.put(Long.MIN_VALUE, "min"));
+    assertEquals(3, m.size());
+
+    assertEquals("one", m.get(1L));
+    assertEquals("max", m.get(Long.MAX_VALUE));
+    assertEquals("min", m.get(Long.MIN_VALUE));
+    assertNull(m.get(2L));
+    assertEquals("default", m.getOrDefault(2L, "default"));
+  }
+
+  public void testUpdate() {
+    LongObjectCuckooHashMap<String> m = new LongObjectCuckooHashMap<>();
+    m.put(42L, "a");
+    assertEquals("a", m.put(42L, "b"));
+    assertEquals("b", m.get(42L));
+    assertEquals(1, m.size());
+  }
+
+  public void testNullValues() {
+    LongObjectCuckooHashMap<String> m = new LongObjectCuckooHashMap<>();
+    m.put(0L, null);
+    m.put(1L, null);
+
+    assertEquals(2, m.size());
+    assertTrue(m.containsKey(0L));
+    assertTrue(m.containsKey(1L));
+    assertNull(m.get(1L));
+    assertFalse(m.containsKey(2L));
+  }
+
+  public void testZeroKey() {
+    LongObjectCuckooHashMap<String> m = new LongObjectCuckooHashMap<>();
+    assertNull(m.put(0L, "zero"));
+    assertEquals("zero", m.get(0L));
+    assertEquals("zero", m.put(0L, "zero2"));
+    assertEquals(1, m.size());
+
+    assertEquals("zero2", m.remove(0L));
+    assertFalse(m.containsKey(0L));
+    assertTrue(m.isEmpty());
+  }
+
+  public void testManyKeys() {
+    final int size = 1024 * 128;
+    LongObjectCuckooHashMap<Integer> m = new LongObjectCuckooHashMap<>();
+
+    for (int i = 0; i < size; i++) {
+      m.put((long) i << 32, i);
+    }
+    assertEquals(size, m.size());
+
+    for (int i = 0; i < size; i++) {
+      assertEquals(i, (int) m.get((long) i << 32));
+    }
+    for (int i = 0; i < size; i++) {
+      assertEquals(i, (int) m.remove((long) i << 32));
+    }
+    assertTrue(m.isEmpty());
+  }
+
+  public void testClear() {
+    LongObjectCuckooHashMap<String> m = new LongObjectCuckooHashMap<>();
+    m.put(1L, "one");
+    m.put(0L, "zero");
+    m.clear();
+
+    assertTrue(m.isEmpty());
+    assertNull(m.get(1L));
+    assertNull(m.get(0L));
+  }
+}
@@ -0,0 +1,209 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tests for the cuckoo hash map stored in a memory-mapped file.
+ */
+public class MappedCuckooHashMapTest extends TestCase {
+  // Layout of the header of the file.
+  private static final int HEADER_BYTES = 64;
+  private static final int TABLE_SIZE_OFFSET = 28;
+
+  /**
+   * Fails to rename the new tables over the table once <tt>failMoves</tt> is set, after
+   * they've been filled and forced to disk.
+   */
+  private static final class FailingMap extends MappedCuckooHashMap<Long, Long> {
+    boolean failMoves = false;
+
+    FailingMap(Path path) {
+      super(path, OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC, 16, 1.f, 1,
+          new CuckooHashMap.DefaultHashFunctionFactory());
+      replaceTables(newTables(defaultStartSize / 2));
+    }
+
+    @Override
+    void moveTables(Path source, Path target) throws IOException {
+      if (failMoves) {
+        throw new IOException("no space left on device");
+      }
+      super.moveTables(source, target);
+    }
+  }
+
+  private Path dir;
+  private Path path;
+
+  @Override
+  protected void setUp() throws Exception {
+    dir = Files.createTempDirectory("cuckoo");
+    path = dir.resolve("table");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Files.deleteIfExists(path);
+    Files.deleteIfExists(dir.resolve("table.tmp"));
+    Files.delete(dir);
+  }
+
+  public void testPutAndGet() throws IOException {
+    MappedCuckooHashMap<Long, Long> m = MappedCuckooHashMap.create(path,
+        OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC, 16);
+    assertTrue(m.isEmpty());
+
+    assertNull(m.put(1L, 10L));
+    assertNull(m.put(2L, 20L));
+    assertEquals(10L, (long) m.put(1L, 11L));
+    assertEquals(2, m.size());
+    assertEquals(11L, (long) m.get(1L));
+    assertEquals(20L, (long) m.get(2L));
+    assertNull(m.get(3L));
+
+    assertEquals(20L, (long) m.remove(2L));
+    assertEquals(1, m.size());
+  }
+
+  public void testReopen() throws IOException {
+    final int size = 1024 * 64;
+    MappedCuckooHashMap<Long, Long> m = MappedCuckooHashMap.create(path,
+        OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC, 16, 0.9f, 4);
+    for (long i = 0; i < size; i++) {
+      m.put(i, -i);
+    }
+    m.remove(0L);
+    m.force();
+    assertFalse(Files.exists(dir.resolve("table.tmp")));
+
+    MappedCuckooHashMap<Long, Long> reopened = MappedCuckooHashMap.open(path,
+        OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC);
+    assertEquals(size - 1, reopened.size());
+    assertNull(reopened.get(0L));
+    for (long i = 1; i < size; i++) {
+      assertEquals(-i, (long) reopened.get(i));
+    }
+
+    // The reopened table can keep growing.
+    for (long i = size; i < 2 * size; i++) {
+      reopened.put(i, -i);
+    }
+    reopened.force();
+
+    reopened = MappedCuckooHashMap.open(path,
+        OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC);
+    assertEquals(2 * size - 1, reopened.size());
+    for (long i = 1; i < 2 * size; i++) {
+      assertEquals(-i, (long) reopened.get(i));
+    }
+  }
+
+  public void testClear() throws IOException {
+    MappedCuckooHashMap<Long, Long> m = MappedCuckooHashMap.create(path,
+        OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC, 16);
+    for (long i = 0; i < 1000; i++) {
+      m.put(i, i);
+    }
+    m.clear();
+    m.put(5L, 5L);
+    m.force();
+
+    MappedCuckooHashMap<Long, Long> reopened = MappedCuckooHashMap.open(path,
+        OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC);
+    assertEquals(1, reopened.size());
+    assertEquals(5L, (long) reopened.get(5L));
+    assertNull(reopened.get(1L));
+  }
+
+  public void testOpenWithDifferentCodec() throws IOException {
+    MappedCuckooHashMap.create(path,
+        OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC, 16).force();
+    try {
+      MappedCuckooHashMap.open(path,
+          OffHeapCuckooHashMap.INT_CODEC, OffHeapCuckooHashMap.LONG_CODEC);
+      fail("keys of the table are 8 bytes long");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  public void testOpenInvalidFile() throws IOException {
+    Files.write(path, new byte[128]);
+    try {
+      MappedCuckooHashMap.open(path,
+          OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC);
+      fail("the file is not a table");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+
+  public void testOpenInvalidTableSize() throws IOException {
+    MappedCuckooHashMap.create(path,
+        OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC, 16).force();
+
+    // Change the size of the tables in the header to one that is not a power of two, and
+    // the length of the file to match it.
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final ByteBuffer tableSize = ByteBuffer.allocate(4);
+      channel.read(tableSize, TABLE_SIZE_OFFSET);
+      final int size = tableSize.getInt(0);
+      final long slotWidth = (channel.size() - HEADER_BYTES) / (2 * size);
+      final int invalidSize = size * 3 / 2;
+      tableSize.putInt(0, invalidSize).rewind();
+      channel.write(tableSize, TABLE_SIZE_OFFSET);
+      channel.write(ByteBuffer.allocate(1), HEADER_BYTES + 2 * invalidSize * slotWidth - 1);
+    }
+
+    try {
+      MappedCuckooHashMap.open(path,
+          OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC);
+      fail("the size of the tables is not a power of two");
+    } catch (IOException expected) {
+      // Expected.
+    }
+  }
+
+  public void testFailedResizeKeepsItems() throws IOException {
+    // With a load factor of 1 the map only rehashes or grows when an insertion can't
+    // find a free slot, so the failure happens while other items are being moved. Which
+    // items get moved depends on the random hash functions, so try a few times.
+    for (int round = 0; round < 20; round++) {
+      FailingMap m = new FailingMap(path);
+      m.failMoves = true;
+
+      long failedKey = -1;
+      for (long i = 0; i < 1024 && failedKey < 0; i++) {
+        try {
+          assertNull(m.put(i, -i));
+        } catch (UncheckedIOException expected) {
+          failedKey = i;
+        }
+      }
+      assertTrue(failedKey > 0);
+      assertEquals(failedKey, m.size());
+      for (long i = 0; i < failedKey; i++) {
+        assertEquals(-i, (long) m.get(i));
+      }
+      assertNull(m.get(failedKey));
+
+      // The file still holds every item that was stored before the failure.
+      m.force();
+      MappedCuckooHashMap<Long, Long> reopened = MappedCuckooHashMap.open(path,
+          OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC);
+      assertEquals(failedKey, reopened.size());
+      for (long i = 0; i < failedKey; i++) {
+        assertEquals(-i, (long) reopened.get(i));
+      }
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Tests for the cuckoo hash map storing its items in direct byte buffers.
+ */
+public class OffHeapCuckooHashMapTest extends TestCase {
+  /**
+   * 16 byte values, as two longs.
+   */
+  private static final OffHeapCuckooHashMap.Codec<long[]> PAIR_CODEC =
+      new OffHeapCuckooHashMap.Codec<long[]>() {
+        @Override
+        public int width() {
+          return 2 * Long.BYTES;
+        }
+
+        @Override
+        public void encode(long[] value, ByteBuffer buffer, int offset) {
+          buffer.putLong(offset, value[0]);
+          buffer.putLong(offset + Long.BYTES, value[1]);
+        }
+
+        @Override
+        public long[] decode(ByteBuffer buffer, int offset) {
+          return new long[] {buffer.getLong(offset), buffer.getLong(offset + Long.BYTES)};
+        }
+      };
+
+  /**
+   * 3 byte keys, to exercise keys that are not a multiple of 8 bytes.
+   */
+  private static final OffHeapCuckooHashMap.Codec<Integer> SHORT_CODEC =
+      new OffHeapCuckooHashMap.Codec<Integer>() {
+        @Override
+        public int width() {
+          return 3;
+        }
+
+        @Override
+        public void encode(Integer value, ByteBuffer buffer, int offset) {
+          buffer.put(offset, (byte) (value >>> 16));
+          buffer.put(offset + 1, (byte) (value >>> 8));
+          buffer.put(offset + 2, (byte) (int) value);
+        }
+
+        @Override
+        public Integer decode(ByteBuffer buffer, int offset) {
+          return (buffer.get(offset) & 0xFF) << 16
+              | (buffer.get(offset + 1) & 0xFF) << 8
+              | buffer.get(offset + 2) & 0xFF;
+        }
+      };
+
+  public void testPutAndGet() {
+    OffHeapCuckooHashMap<Long, Long> m = new OffHeapCuckooHashMap<>(
+        OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC);
+    assertTrue(m.isEmpty());
+
+    assertNull(m.put(1L, 10L));
+    assertNull(m.put(0L, 0L));
+    assertNull(m.put(Long.MIN_VALUE, -1L));
+    assertEquals(3, m.size());
+
+    assertEquals(10L, (long) m.get(1L));
+    assertEquals(0L, (long) m.get(0L));
+    assertEquals(-1L, (long) m.get(Long.MIN_VALUE));
+    assertNull(m.get(2L));
+    assertTrue(m.containsKey(0L));
+    assertFalse(m.containsKey(2L));
+  }
+
+  public void testUpdateAndRemove() {
+    OffHeapCuckooHashMap<Long, long[]> m = new OffHeapCuckooHashMap<>(
+        OffHeapCuckooHashMap.LONG_CODEC, PAIR_CODEC);
+    m.put(42L, new long[] {1, 2});
+    assertTrue(Arrays.equals(new long[] {1, 2}, m.put(42L, new long[] {3, 4})));
+    assertTrue(Arrays.equals(new long[] {3, 4}, m.get(42L)));
+    assertEquals(1, m.size());
+
+    assertTrue(Arrays.equals(new long[] {3, 4}, m.remove(42L)));
+    assertNull(m.remove(42L));
+    assertNull(m.get(42L));
+    assertTrue(m.isEmpty());
+  }
+
+  public void testManyKeys() {
+    final int size = 1024 * 128;
+    for (int slotsPerBucket : new int[] {1, 4}) {
+      final float loadFactor = slotsPerBucket == 1 ? 0.45f : 0.9f;
+      OffHeapCuckooHashMap<Long, long[]> m = new OffHeapCuckooHashMap<>(
+          OffHeapCuckooHashMap.LONG_CODEC, PAIR_CODEC, 16, loadFactor, slotsPerBucket);
+
+      for (int i = 0; i < size; i++) {
+        assertNull(m.put((long) i << 32, new long[] {i, -i}));
+      }
+      assertEquals(size, m.size());
+
+      for (int i = 0; i < size; i++) {
+        assertTrue(Arrays.equals(new long[] {i, -i}, m.get((long) i << 32)));
+      }
+      for (int i = 0; i < size; i += 2) {
+        assertTrue(Arrays.equals(new long[] {i, -i}, m.remove((long) i << 32)));
+      }
+      assertEquals(size / 2, m.size());
+      for (int i = 0; i < size; i++) {
+        assertEquals(i % 2 != 0, m.containsKey((long) i << 32));
+      }
+    }
+  }
+
+  public void testFullLoadFactor() {
+    // With a load factor of 1 the tables only grow when no free slot can be reached, so
+    // most insertions past half of the capacity move items around or fail to find a
+    // slot. A failed insertion must not lose any of the items already in the map.
+    final int size = 1024 * 16;
+    for (int slotsPerBucket : new int[] {1, 4}) {
+      OffHeapCuckooHashMap<Integer, Integer> m = new OffHeapCuckooHashMap<>(
+          SHORT_CODEC, OffHeapCuckooHashMap.INT_CODEC, 16, 1.f, slotsPerBucket);
+      for (int i = 0; i < size; i++) {
+        assertNull(m.put(i, -i));
+        assertEquals(i + 1, m.size());
+        assertEquals(-(i / 2), (int) m.get(i / 2));
+      }
+      for (int i = 0; i < size; i++) {
+        assertEquals(-i, (int) m.get(i));
+      }
+    }
+  }
+
+  public void testOddKeyWidth() {
+    OffHeapCuckooHashMap<Integer, Integer> m = new OffHeapCuckooHashMap<>(
+        SHORT_CODEC, OffHeapCuckooHashMap.INT_CODEC);
+    for (int i = 0; i < 10000; i++) {
+      m.put(i, -i);
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(-i, (int) m.get(i));
+    }
+    assertNull(m.get(10000));
+  }
+
+  public void testClear() {
+    OffHeapCuckooHashMap<Long, Long> m = new OffHeapCuckooHashMap<>(
+        OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC);
+    for (long i = 0; i < 1000; i++) {
+      m.put(i, i);
+    }
+    m.clear();
+    assertTrue(m.isEmpty());
+    assertNull(m.get(1L));
+    m.put(1L, 1L);
+    assertEquals(1L, (long) m.get(1L));
+  }
+
+  public void testNullsRejected() {
+    OffHeapCuckooHashMap<Long, Long> m = new OffHeapCuckooHashMap<>(
+        OffHeapCuckooHashMap.LONG_CODEC, OffHeapCuckooHashMap.LONG_CODEC);
+    try {
+      m.put(null, 1L);
+      fail("null keys are not permitted");
+    } catch (NullPointerException expected) {
+      // Expected.
+    }
+    try {
+      m.put(1L, null);
+      fail("null values are not permitted");
+    } catch (NullPointerException expected) {
+      // Expected.
+    }
+  }
+}
@@ -51,4 +51,20 @@ public class PutTest extends TestCase {
       assertEquals(i, (int) m.get(keys.get(i)));
     }
   }
+
+  public void testFullLoadFactor() {
+    // With a load factor of 1 the tables only grow when no free slot can be reached, so
+    // most insertions past half of the capacity need to move items around.
+    final int size = 1024 * 16;
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(1.f);
+
+    for (int i = 0; i < size; i++) {
+      m.put(i, i);
+    }
+    assertEquals(size, m.size());
+
+    for (int i = 0; i < size; i++) {
+      assertEquals(i, (int) m.get(i));
+    }
+  }
 }
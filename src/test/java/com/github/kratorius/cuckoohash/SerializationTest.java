@@ -0,0 +1,184 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Tests for Java serialization and binary snapshots of the map.
+ */
+public class SerializationTest extends TestCase {
+  private static final CuckooHashMap.Serializer<Integer> INT_SERIALIZER =
+      new CuckooHashMap.Serializer<Integer>() {
+        @Override
+        public void write(Integer value, DataOutput out) throws IOException {
+          out.writeInt(value);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+          return in.readInt();
+        }
+      };
+
+  private static final CuckooHashMap.Serializer<String> STRING_SERIALIZER =
+      new CuckooHashMap.Serializer<String>() {
+        @Override
+        public void write(String value, DataOutput out) throws IOException {
+          out.writeUTF(value);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+          return in.readUTF();
+        }
+      };
+
+  @SuppressWarnings("unchecked")
+  private static <T> T roundTrip(T object) throws IOException, ClassNotFoundException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(object);
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      return (T) in.readObject();
+    }
+  }
+
+  private static CuckooHashMap<Integer, String> snapshotRoundTrip(CuckooHashMap<Integer, String> m)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    m.writeSnapshot(bytes, INT_SERIALIZER, STRING_SERIALIZER);
+    return CuckooHashMap.readSnapshot(
+        new ByteArrayInputStream(bytes.toByteArray()), INT_SERIALIZER, STRING_SERIALIZER);
+  }
+
+  private static void assertRestored(CuckooHashMap<Integer, String> m, int size) {
+    assertEquals(size, m.size());
+    for (int i = 0; i < size; i++) {
+      assertEquals("v" + i, m.get(i));
+    }
+    assertNull(m.get(size));
+
+    // The restored map keeps working as usual.
+    for (int i = size; i < 2 * size; i++) {
+      m.put(i, "v" + i);
+    }
+    for (int i = 0; i < 2 * size; i += 2) {
+      assertEquals("v" + i, m.remove(i));
+    }
+    assertEquals(size, m.size());
+  }
+
+  public void testJavaSerialization() throws Exception {
+    for (int slotsPerBucket : new int[] {1, 4}) {
+      CuckooHashMap<Integer, String> m = new CuckooHashMap<>(16, 0.9f, slotsPerBucket);
+      for (int i = 0; i < 10000; i++) {
+        m.put(i, "v" + i);
+      }
+      assertRestored(roundTrip(m), 10000);
+    }
+  }
+
+  public void testJavaSerializationNulls() throws Exception {
+    CuckooHashMap<String, Integer> m = new CuckooHashMap<>();
+    m.put(null, 1);
+    m.put("key", null);
+
+    CuckooHashMap<String, Integer> restored = roundTrip(m);
+    assertEquals(2, restored.size());
+    assertEquals(1, (int) restored.get(null));
+    assertTrue(restored.containsKey("key"));
+    assertNull(restored.get("key"));
+    assertEquals(m, restored);
+  }
+
+  public void testJavaSerializationDuringResize() throws Exception {
+    CuckooHashMap<Integer, String> m = new CuckooHashMap<>(16, 0.45f, 1,
+        new CuckooHashMap.DefaultHashFunctionFactory(), true);
+    int n = 0;
+    while (!m.isResizing()) {
+      m.put(n, "v" + n);
+      n++;
+    }
+    assertRestored(roundTrip(m), n);
+  }
+
+  public void testJavaSerializationSingleWriter() throws Exception {
+    SingleWriterCuckooHashMap<Integer, String> m = new SingleWriterCuckooHashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      m.put(i, "v" + i);
+    }
+    SingleWriterCuckooHashMap<Integer, String> restored = roundTrip(m);
+    assertRestored(restored, 1000);
+  }
+
+  public void testSnapshot() throws IOException {
+    for (int slotsPerBucket : new int[] {1, 4}) {
+      CuckooHashMap<Integer, String> m = new CuckooHashMap<>(16, 0.9f, slotsPerBucket);
+      for (int i = 0; i < 10000; i++) {
+        m.put(i, "v" + i);
+      }
+      assertRestored(snapshotRoundTrip(m), 10000);
+    }
+  }
+
+  public void testSnapshotNulls() throws IOException {
+    CuckooHashMap<Integer, String> m = new CuckooHashMap<>();
+    m.put(null, "null");
+    m.put(1, null);
+
+    CuckooHashMap<Integer, String> restored = snapshotRoundTrip(m);
+    assertEquals(2, restored.size());
+    assertEquals("null", restored.get(null));
+    assertTrue(restored.containsKey(1));
+    assertNull(restored.get(1));
+  }
+
+  public void testSnapshotCustomHashFunctions() throws IOException {
+    // Everything collides: the items that don't fit in the tables are in the stash.
+    CuckooHashMap<Integer, String> m = new CuckooHashMap<>(64, 1.f, 1, buckets -> obj -> 0);
+    for (int i = 0; i < 6; i++) {
+      m.put(i, "v" + i);
+    }
+
+    CuckooHashMap<Integer, String> restored = snapshotRoundTrip(m);
+    assertEquals(6, restored.size());
+    for (int i = 0; i < 6; i++) {
+      assertEquals("v" + i, restored.get(i));
+    }
+  }
+
+  public void testSnapshotKeepsConfiguration() throws IOException {
+    CuckooHashMap<Integer, String> m = new CuckooHashMap<>(1024, 0.9f, 4);
+    m.setMinLoadFactor(0.f);
+    for (int i = 0; i < 1000; i++) {
+      m.put(i, "v" + i);
+    }
+
+    CuckooHashMap<Integer, String> restored = snapshotRoundTrip(m);
+    assertEquals(m.capacity(), restored.capacity());
+    for (int i = 0; i < 1000; i++) {
+      restored.remove(i);
+    }
+    // Shrinking is still disabled.
+    assertEquals(m.capacity(), restored.capacity());
+  }
+
+  public void testInvalidSnapshot() throws IOException {
+    try {
+      CuckooHashMap.readSnapshot(new ByteArrayInputStream(new byte[64]),
+          INT_SERIALIZER, STRING_SERIALIZER);
+      fail("the stream doesn't contain a snapshot");
+    } catch (StreamCorruptedException expected) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for shrinking the map when items are removed.
+ */
+public class ShrinkTest extends TestCase {
+  public void testShrinkOnRemove() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < 10000; i++) {
+      m.put(i, i);
+    }
+    final int peak = m.capacity();
+
+    for (int i = 0; i < 9998; i++) {
+      assertEquals(i, (int) m.remove(i));
+    }
+    assertEquals(2, m.size());
+    assertTrue(m.capacity() < peak);
+    assertEquals(16, m.capacity());
+    for (int i = 9998; i < 10000; i++) {
+      assertEquals(i, (int) m.get(i));
+    }
+  }
+
+  public void testNeverBelowInitialCapacity() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(1024);
+    for (int i = 0; i < 4096; i++) {
+      m.put(i, i);
+    }
+    for (int i = 0; i < 4096; i++) {
+      m.remove(i);
+    }
+    assertTrue(m.isEmpty());
+    assertEquals(1024, m.capacity());
+  }
+
+  public void testHysteresis() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    int n = 0;
+    int capacity = m.capacity();
+    while (m.capacity() == capacity) {
+      m.put(n, n);
+      n++;
+    }
+
+    // The map just grew: adding and removing an item around the threshold must not
+    // make it resize again.
+    capacity = m.capacity();
+    for (int i = 0; i < 1000; i++) {
+      m.remove(n - 1);
+      m.put(n - 1, n - 1);
+      assertEquals(capacity, m.capacity());
+    }
+  }
+
+  public void testShrinkingDisabled() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    m.setMinLoadFactor(0.f);
+    for (int i = 0; i < 10000; i++) {
+      m.put(i, i);
+    }
+    final int peak = m.capacity();
+    for (int i = 0; i < 10000; i++) {
+      m.remove(i);
+    }
+    assertEquals(peak, m.capacity());
+
+    // Unlike shrinking on remove, trimming can go below the initial capacity.
+    m.trimToSize();
+    assertEquals(4, m.capacity());
+    m.put(0, 0);
+    assertEquals(0, (int) m.get(0));
+  }
+
+  public void testTrimToSize() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(16, 0.9f, 4);
+    m.setMinLoadFactor(0.f);
+    for (int i = 0; i < 10000; i++) {
+      m.put(i, i);
+    }
+    for (int i = 0; i < 10000; i += 2) {
+      m.remove(i);
+    }
+
+    m.trimToSize();
+    assertEquals(8192, m.capacity());
+    assertEquals(5000, m.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i % 2 == 0 ? null : (Integer) i, m.get(i));
+    }
+
+    // The map can still grow afterwards.
+    for (int i = 0; i < 10000; i += 2) {
+      m.put(i, i);
+    }
+    assertEquals(10000, m.size());
+  }
+
+  public void testIncrementalShrink() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(16, 0.45f, 1,
+        new CuckooHashMap.DefaultHashFunctionFactory(), true);
+    for (int i = 0; i < 10000; i++) {
+      m.put(i, i);
+    }
+    for (int i = 0; i < 9998; i++) {
+      assertEquals(i, (int) m.remove(i));
+      assertEquals(i + 1, (int) m.get(i + 1));
+    }
+    for (int i = 9998; i < 10000; i++) {
+      assertEquals(i, (int) m.get(i));
+    }
+    // The last shrink is only completed by the following insertions and removals.
+    for (int i = 0; i < 10 && m.isResizing(); i++) {
+      m.put(-1, -1);
+      m.remove(-1);
+    }
+    assertFalse(m.isResizing());
+    assertEquals(16, m.capacity());
+  }
+
+  public void testFailedShrinkKeepsTables() {
+    // Once the map is filled, the hash functions of any smaller tables put every key in
+    // the first bucket, so none of the shrinks can place the items.
+    final CuckooHashMap.HashFunctionFactory defaults =
+        new CuckooHashMap.DefaultHashFunctionFactory();
+    for (boolean incrementalResize : new boolean[] {false, true}) {
+      final int[] minBuckets = {0};
+      CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(16, 0.9f, 4,
+          buckets -> buckets < minBuckets[0] ? obj -> 0 : defaults.generate(buckets),
+          incrementalResize);
+      m.setStatsEnabled(true);
+      for (int i = 0; i < 10000; i++) {
+        m.put(i, i);
+      }
+      final int capacity = m.capacity();
+      // Each of the two tables has capacity / 2 slots, in buckets of 4.
+      minBuckets[0] = capacity / 8;
+
+      // Stop between two attempts: the last one is made with 400 to 460 items left, the
+      // next one would be with about half as many. An incremental attempt only fails once
+      // its migration gets stuck, which may take a few more removals.
+      int removed = 0;
+      while (removed < 9700 || (m.isResizing() && removed < 9990)) {
+        assertEquals(removed, (int) m.remove(removed));
+        removed++;
+      }
+      // The map keeps its tables rather than taking the failures for hash flooding, and
+      // doesn't try again on every remove.
+      assertFalse(m.isResizing());
+      assertEquals(capacity, m.capacity());
+      assertFalse(m.isKeyedHashing());
+      assertTrue(m.getStats().getShrinks() < 20);
+      for (int i = removed; i < 10000; i++) {
+        assertEquals(i, (int) m.get(i));
+      }
+    }
+  }
+
+  public void testInvalidMinLoadFactor() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(0.5f);
+    try {
+      m.setMinLoadFactor(0.25f);
+      fail("min load factor must be lower than half the load factor");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+    try {
+      m.setMinLoadFactor(-0.1f);
+      fail("min load factor must not be negative");
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the single writer, multiple readers cuckoo hash map.
+ */
+public class SingleWriterCuckooHashMapTest extends TestCase {
+  public void testBasicOperations() {
+    SingleWriterCuckooHashMap<String, Integer> m = new SingleWriterCuckooHashMap<>();
+    assertTrue(m.isEmpty());
+
+    m.put("A", 1);
+    m.put("B", 2);
+    m.put(null, 3);
+    assertEquals(3, m.size());
+    assertEquals(1, (int) m.get("A"));
+    assertEquals(3, (int) m.get(null));
+    assertTrue(m.containsKey("B"));
+    assertEquals(42, (int) m.getOrDefault("C", 42));
+
+    assertEquals(2, (int) m.remove("B"));
+    assertFalse(m.containsKey("B"));
+
+    m.clear();
+    assertTrue(m.isEmpty());
+    assertNull(m.get("A"));
+  }
+
+  public void testManyKeys() {
+    final int size = 1024 * 64;
+    SingleWriterCuckooHashMap<String, Integer> m = new SingleWriterCuckooHashMap<>();
+    for (int i = 0; i < size; i++) {
+      m.put("key-" + i, i);
+    }
+    for (int i = 0; i < size; i++) {
+      assertEquals(i, (int) m.get("key-" + i));
+    }
+  }
+
+  public void testReadersNeverMissKeys() throws InterruptedException {
+    runReadersNeverMissKeys(new SingleWriterCuckooHashMap<Integer, Integer>());
+  }
+
+  public void testReadersNeverMissKeys_bucketized() throws InterruptedException {
+    runReadersNeverMissKeys(new SingleWriterCuckooHashMap<Integer, Integer>(16, 0.95f, 4));
+  }
+
+  public void testBatchReadersNeverMissKeys() throws InterruptedException {
+    runReadersNeverMissKeys(new SingleWriterCuckooHashMap<Integer, Integer>(16, 0.95f, 4), true);
+  }
+
+  public void testReadersSeeReplacedValues() throws InterruptedException {
+    final int size = 5000;
+    final SingleWriterCuckooHashMap<Integer, Integer> m = new SingleWriterCuckooHashMap<>();
+    for (int i = 0; i < size; i++) {
+      m.put(i, 0);
+    }
+
+    // Every value is the number of replaceAll() calls, so a reader must never see it
+    // decrease for a key.
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicInteger errors = new AtomicInteger(0);
+    List<Thread> readers = new ArrayList<>();
+    for (int t = 0; t < 3; t++) {
+      Thread reader = new Thread(() -> {
+        final int[] seen = new int[size];
+        final Random random = new Random();
+        while (!done.get()) {
+          final int key = random.nextInt(size);
+          final Integer value = m.get(key);
+          if (value == null || value < seen[key]) {
+            errors.incrementAndGet();
+          } else {
+            seen[key] = value;
+          }
+        }
+      });
+      readers.add(reader);
+      reader.start();
+    }
+
+    for (int round = 0; round < 200; round++) {
+      m.replaceAll((k, v) -> v + 1);
+    }
+
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertEquals(0, errors.get());
+    for (int i = 0; i < size; i++) {
+      assertEquals(200, (int) m.get(i));
+    }
+  }
+
+  private static void runReadersNeverMissKeys(final SingleWriterCuckooHashMap<Integer, Integer> m)
+      throws InterruptedException {
+    runReadersNeverMissKeys(m, false);
+  }
+
+  private static void runReadersNeverMissKeys(final SingleWriterCuckooHashMap<Integer, Integer> m,
+                                              final boolean batched)
+      throws InterruptedException {
+    final int stable = 5000;
+    for (int i = 0; i < stable; i++) {
+      m.put(i, i);
+    }
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicInteger misses = new AtomicInteger(0);
+    List<Thread> readers = new ArrayList<>();
+    for (int t = 0; t < 3; t++) {
+      Thread reader = new Thread(() -> {
+        final Random random = new Random();
+        final Integer[] keys = new Integer[100];
+        final Integer[] values = new Integer[keys.length];
+        while (!done.get() && batched) {
+          for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(stable);
+          }
+          if (m.getAll(keys, values) != keys.length) {
+            misses.incrementAndGet();
+          }
+          for (int i = 0; i < keys.length; i++) {
+            if (!keys[i].equals(values[i])) {
+              misses.incrementAndGet();
+            }
+          }
+        }
+        while (!done.get()) {
+          final int key = random.nextInt(stable);
+          final Integer value = m.get(key);
+          if (value == null || value != key) {
+            misses.incrementAndGet();
+          }
+        }
+      });
+      readers.add(reader);
+      reader.start();
+    }
+
+    // The writer keeps adding and removing other keys, which moves the stable keys
+    // between T1 and T2 and makes the map grow.
+    for (int i = stable; i < stable + 200000; i++) {
+      m.put(i, i);
+      if (i % 3 == 0) {
+        m.remove(i);
+      }
+    }
+
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertEquals(0, misses.get());
+  }
+}
@@ -0,0 +1,114 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Tests for the stash holding the items that couldn't be placed in either table.
+ */
+public class StashTest extends TestCase {
+  /**
+   * Sends every key to the first bucket of each table, so that only two keys fit in
+   * the tables and the others have to go to the stash.
+   */
+  private static final CuckooHashMap.HashFunctionFactory COLLIDING = buckets -> obj -> 0;
+
+  private static CuckooHashMap<Integer, String> newCollidingMap() {
+    return new CuckooHashMap<>(64, 1.f, 1, COLLIDING);
+  }
+
+  public void testCollidingKeysGoToTheStash() {
+    CuckooHashMap<Integer, String> m = newCollidingMap();
+    for (int i = 0; i < 6; i++) {
+      m.put(i, "v" + i);
+    }
+
+    assertEquals(6, m.size());
+    assertEquals(4, m.getStashInsertions());
+    for (int i = 0; i < 6; i++) {
+      assertEquals("v" + i, m.get(i));
+      assertTrue(m.containsKey(i));
+    }
+    assertNull(m.get(6));
+  }
+
+  public void testUpdateStashedKey() {
+    CuckooHashMap<Integer, String> m = newCollidingMap();
+    for (int i = 0; i < 6; i++) {
+      m.put(i, "v" + i);
+    }
+
+    for (int i = 0; i < 6; i++) {
+      assertEquals("v" + i, m.put(i, "w" + i));
+    }
+    assertEquals(6, m.size());
+    assertEquals(4, m.getStashInsertions());
+    for (int i = 0; i < 6; i++) {
+      assertEquals("w" + i, m.get(i));
+    }
+  }
+
+  public void testRemoveMovesStashedKeysBack() {
+    CuckooHashMap<Integer, String> m = newCollidingMap();
+    for (int i = 0; i < 6; i++) {
+      m.put(i, "v" + i);
+    }
+
+    // Removing any key frees either a slot in the tables or one in the stash.
+    for (int i = 0; i < 6; i++) {
+      assertEquals("v" + i, m.remove(i));
+      assertNull(m.get(i));
+      for (int j = i + 1; j < 6; j++) {
+        assertEquals("v" + j, m.get(j));
+      }
+    }
+    assertTrue(m.isEmpty());
+
+    // There's room for 6 keys again without going through a rehash.
+    for (int i = 0; i < 6; i++) {
+      m.put(i, "v" + i);
+    }
+    assertEquals(6, m.size());
+  }
+
+  public void testViewsIncludeStashedKeys() {
+    CuckooHashMap<Integer, String> m = newCollidingMap();
+    for (int i = 0; i < 6; i++) {
+      m.put(i, "v" + i);
+    }
+
+    Set<Integer> keys = m.keySet();
+    Collection<String> values = m.values();
+    assertEquals(6, keys.size());
+    assertEquals(6, values.size());
+    assertEquals(6, m.entrySet().size());
+    for (int i = 0; i < 6; i++) {
+      assertTrue(keys.contains(i));
+      assertTrue(values.contains("v" + i));
+      assertTrue(m.containsValue("v" + i));
+    }
+  }
+
+  public void testIteratorRemoveStashedKeys() {
+    CuckooHashMap<Integer, String> m = newCollidingMap();
+    for (int i = 0; i < 6; i++) {
+      m.put(i, "v" + i);
+    }
+
+    int seen = 0;
+    Iterator<Integer> it = m.keySet().iterator();
+    while (it.hasNext()) {
+      it.next();
+      it.remove();
+      seen++;
+    }
+    assertEquals(6, seen);
+    assertTrue(m.isEmpty());
+    for (int i = 0; i < 6; i++) {
+      assertFalse(m.containsKey(i));
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package com.github.kratorius.cuckoohash;
+
+import junit.framework.TestCase;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Tests for the runtime statistics of the map.
+ */
+public class StatsTest extends TestCase {
+  private static long sum(long[] values) {
+    long sum = 0;
+    for (long value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+
+  public void testDisabledByDefault() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < 100; i++) {
+      m.put(i, i);
+      m.get(i);
+    }
+
+    CuckooHashMapStats stats = m.getStats();
+    assertFalse(m.isStatsEnabled());
+    assertFalse(stats.isEnabled());
+    assertEquals(0, stats.getInsertions());
+    assertEquals(0, stats.getTable1Hits());
+    assertEquals(0, stats.getGrows());
+
+    // The occupancy of the tables is always available.
+    assertEquals(100, stats.getSize());
+    assertEquals(m.capacity() / 2, stats.getTableSlots());
+    assertEquals(100, stats.getTable1Items() + stats.getTable2Items() + stats.getStashItems());
+  }
+
+  public void testLookups() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      m.put(i, i);
+    }
+
+    m.setStatsEnabled(true);
+    for (int i = 0; i < 2000; i++) {
+      m.get(i);
+    }
+
+    CuckooHashMapStats stats = m.getStats();
+    assertEquals(1000, stats.getTable1Hits() + stats.getTable2Hits() + stats.getStashHits());
+    assertEquals(1000, stats.getMisses());
+    assertTrue(stats.getTable1Hits() > 0);
+  }
+
+  public void testGetAllCountsEveryKeyOnce() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      m.put(i, i);
+    }
+
+    m.setStatsEnabled(true);
+    Integer[] keys = new Integer[2000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = i;
+    }
+    m.getAll(keys, new Integer[keys.length]);
+
+    CuckooHashMapStats stats = m.getStats();
+    assertEquals(1000, stats.getTable1Hits() + stats.getTable2Hits() + stats.getStashHits());
+    assertEquals(1000, stats.getMisses());
+  }
+
+  public void testInsertionsAndResizes() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>(16, 0.9f, 4);
+    m.setStatsEnabled(true);
+    for (int i = 0; i < 10000; i++) {
+      m.put(i, i);
+    }
+
+    CuckooHashMapStats stats = m.getStats();
+    assertTrue(stats.getGrows() > 0);
+    assertTrue(stats.getResizeNanos() > 0);
+    // High load factors can't be reached without moving items around.
+    assertTrue(stats.getKicks() > 0);
+
+    long[] histogram = stats.getKickChainHistogram();
+    assertEquals(CuckooHashMapStats.KICK_CHAIN_HISTOGRAM_SIZE, histogram.length);
+    assertEquals(stats.getInsertions(), sum(histogram));
+    assertTrue(histogram[0] < stats.getInsertions());
+
+    for (int i = 0; i < 10000; i++) {
+      m.remove(i);
+    }
+    assertTrue(m.getStats().getShrinks() > 0);
+  }
+
+  public void testEnablingResetsCounters() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    m.setStatsEnabled(true);
+    m.put(1, 1);
+    m.get(1);
+    assertEquals(1, m.getStats().getInsertions());
+
+    m.setStatsEnabled(false);
+    m.put(2, 2);
+    assertEquals(0, m.getStats().getInsertions());
+
+    m.setStatsEnabled(true);
+    assertEquals(0, m.getStats().getInsertions());
+    assertEquals(0, m.getStats().getTable1Hits());
+  }
+
+  public void testMXBean() throws Exception {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < 100; i++) {
+      m.put(i, i);
+    }
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("com.github.kratorius.cuckoohash:type=StatsTest");
+    server.registerMBean(m.getStatsMXBean(), name);
+    try {
+      assertEquals(100, server.getAttribute(name, "Size"));
+      assertEquals(false, server.getAttribute(name, "Enabled"));
+
+      server.setAttribute(name, new Attribute("Enabled", true));
+      assertTrue(m.isStatsEnabled());
+      m.get(1);
+      m.get(-1);
+      assertEquals(1L, server.getAttribute(name, "Misses"));
+      assertEquals(1L, (long) server.getAttribute(name, "Table1Hits")
+          + (long) server.getAttribute(name, "Table2Hits"));
+
+      // The attributes read the counters directly, but must agree with a snapshot.
+      for (int i = 100; i < 1000; i++) {
+        m.put(i, i);
+      }
+      CuckooHashMapStats stats = m.getStats();
+      CuckooHashMapStatsMXBean bean = m.getStatsMXBean();
+      assertEquals(stats.getTable1Items(), bean.getTable1Items());
+      assertEquals(stats.getTable2Items(), bean.getTable2Items());
+      assertEquals(stats.getStashItems(), bean.getStashItems());
+      assertEquals(stats.getInsertions(), bean.getInsertions());
+      assertEquals(stats.getKicks(), bean.getKicks());
+      assertTrue(Arrays.equals(stats.getKickChainHistogram(), bean.getKickChainHistogram()));
+      assertEquals(stats.getGrows(), bean.getGrows());
+      assertEquals(stats.getResizeNanos(), bean.getResizeNanos());
+      assertEquals(stats.getMisses(), bean.getMisses());
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+}
@@ -4,7 +4,11 @@ import junit.framework.TestCase;
 
 import java.util.AbstractMap;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -107,4 +111,156 @@ public class ViewsTest extends TestCase {
       assertTrue(values.contains(i / 2));
     }
   }
+
+  public void testViewsAreLive() {
+    CuckooHashMap<String, Integer> m = new CuckooHashMap<>();
+    Set<String> keys = m.keySet();
+    Collection<Integer> values = m.values();
+    Set<Map.Entry<String, Integer>> entries = m.entrySet();
+
+    m.put("key1", 1);
+    m.put("key2", 2);
+    assertEquals(2, keys.size());
+    assertEquals(2, values.size());
+    assertEquals(2, entries.size());
+    assertTrue(keys.contains("key2"));
+    assertTrue(values.contains(2));
+    assertTrue(entries.contains(new AbstractMap.SimpleEntry<>("key2", 2)));
+    assertFalse(entries.contains(new AbstractMap.SimpleEntry<>("key2", 1)));
+
+    assertTrue(keys.remove("key1"));
+    assertFalse(keys.remove("key1"));
+    assertFalse(m.containsKey("key1"));
+    assertTrue(entries.remove(new AbstractMap.SimpleEntry<>("key2", 2)));
+    assertTrue(m.isEmpty());
+
+    m.put("key3", 3);
+    values.clear();
+    assertTrue(m.isEmpty());
+  }
+
+  public void testIteratorRemove() {
+    final int size = 1024;
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < size; i++) {
+      m.put(i, i);
+    }
+
+    Set<Integer> seen = new HashSet<>();
+    Iterator<Integer> it = m.keySet().iterator();
+    while (it.hasNext()) {
+      final int key = it.next();
+      assertTrue(seen.add(key));
+      if (key % 2 == 0) {
+        it.remove();
+      }
+    }
+    assertEquals(size, seen.size());
+    assertEquals(size / 2, m.size());
+    for (int i = 0; i < size; i++) {
+      assertEquals(i % 2 == 0 ? null : (Integer) i, m.get(i));
+    }
+
+    try {
+      it.next();
+      fail("the iterator is exhausted");
+    } catch (NoSuchElementException expected) {
+      // Expected.
+    }
+  }
+
+  public void testIteratorRemoveTwice() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    m.put(1, 1);
+    Iterator<Integer> it = m.values().iterator();
+    try {
+      it.remove();
+      fail("next() hasn't been called yet");
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+    it.next();
+    it.remove();
+    try {
+      it.remove();
+      fail("the item has already been removed");
+    } catch (IllegalStateException expected) {
+      // Expected.
+    }
+    assertTrue(m.isEmpty());
+  }
+
+  public void testIteratorFailFast() {
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < 16; i++) {
+      m.put(i, i);
+    }
+
+    Iterator<Map.Entry<Integer, Integer>> it = m.entrySet().iterator();
+    it.next();
+    m.put(100, 100);
+    try {
+      it.next();
+      fail("the map has been modified");
+    } catch (ConcurrentModificationException expected) {
+      // Expected.
+    }
+
+    it = m.entrySet().iterator();
+    it.next();
+    m.remove(100);
+    try {
+      it.remove();
+      fail("the map has been modified");
+    } catch (ConcurrentModificationException expected) {
+      // Expected.
+    }
+
+    // Replacing a value is not a structural modification.
+    it = m.entrySet().iterator();
+    it.next();
+    m.put(0, 1000);
+    it.next();
+  }
+
+  public void testEntrySetValue() {
+    final int size = 1024;
+    CuckooHashMap<Integer, Integer> m = new CuckooHashMap<>();
+    for (int i = 0; i < size; i++) {
+      m.put(i, i);
+    }
+
+    for (Map.Entry<Integer, Integer> entry : m.entrySet()) {
+      assertEquals(entry.getKey(), entry.getValue());
+      assertEquals(entry.getKey(), entry.setValue(-entry.getKey()));
+      assertEquals(-entry.getKey(), (int) entry.getValue());
+    }
+    assertEquals(size, m.size());
+    for (int i = 0; i < size; i++) {
+      assertEquals(-i, (int) m.get(i));
+    }
+  }
+
+  public void testNullKeyAndValues() {
+    CuckooHashMap<String, Integer> m = new CuckooHashMap<>();
+    m.put(null, 1);
+    m.put("key", null);
+
+    assertTrue(m.containsKey("key"));
+    assertTrue(m.containsValue(null));
+    assertTrue(m.entrySet().contains(new AbstractMap.SimpleEntry<>("key", null)));
+    assertTrue(m.entrySet().contains(new AbstractMap.SimpleEntry<>(null, 1)));
+
+    m.put("key", null);
+    assertEquals(2, m.size());
+
+    Iterator<String> it = m.keySet().iterator();
+    while (it.hasNext()) {
+      if (it.next() == null) {
+        it.remove();
+      }
+    }
+    assertEquals(1, m.size());
+    assertFalse(m.containsKey(null));
+  }
 }